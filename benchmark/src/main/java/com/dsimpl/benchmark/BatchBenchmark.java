@@ -0,0 +1,94 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.BPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * getAll/putAll与逐个get/put的对比,每次调用处理batch个关键字
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+    private static final int BATCHES = 64;
+
+    @Param({"16", "64", "256"})
+    public int degree;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"16", "256", "4096"})
+    public int batch;
+
+    private BPlusTree<Integer, Integer> tree;
+    private Integer[][] keys;
+    private TreeMap<Integer, Integer>[] updates;
+    private int cursor;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        tree = new BPlusTree<>(degree);
+        for (int ordinal : KeyDistribution.UNIFORM.loadOrder(size, 42)) {
+            tree.put(ordinal * 2, ordinal);
+        }
+        SplittableRandom random = new SplittableRandom(7);
+        keys = new Integer[BATCHES][batch];
+        updates = new TreeMap[BATCHES];
+        for (int b = 0; b < BATCHES; b++) {
+            updates[b] = new TreeMap<>();
+            for (int i = 0; i < batch; i++) {
+                keys[b][i] = random.nextInt(size) * 2;
+                updates[b].put(keys[b][i], i);
+            }
+        }
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) % BATCHES;
+    }
+
+    @Benchmark
+    public void loopGet(Blackhole blackhole) {
+        for (Integer key : keys[next()]) {
+            blackhole.consume(tree.get(key));
+        }
+    }
+
+    @Benchmark
+    public Object getAll() {
+        return tree.getAll(keys[next()]);
+    }
+
+    @Benchmark
+    public void loopPut() {
+        TreeMap<Integer, Integer> update = updates[next()];
+        for (Integer key : update.keySet()) {
+            tree.put(key, key);
+        }
+    }
+
+    @Benchmark
+    public void putAll() {
+        tree.putAll(updates[next()]);
+    }
+}
@@ -0,0 +1,76 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.BPlusTree;
+import com.dsimpl.balanceTree.BufferedBPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 随机关键字写入一棵空树:BPlusTree逐个插入,BufferedBPlusTree把消息缓冲在非叶子节点中批量下推
+ * 每次迭代从空树开始写入size个关键字,结果为写完整批的时间,BufferedBPlusTree包含最后flush()的时间
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BufferedInsertBenchmark {
+    @Param({"16", "64"})
+    public int degree;
+
+    @Param({"1000000"})
+    public int size;
+
+    //0表示使用默认的缓冲区容量degree * DEFAULT_BUFFER_FACTOR
+    @Param({"0"})
+    public int bufferCapacity;
+
+    private Integer[] keys;
+    private BPlusTree<Integer, Integer> tree;
+    private BufferedBPlusTree<Integer, Integer> buffered;
+
+    @Setup
+    public void setup() {
+        keys = new Integer[size];
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < size; i++) {
+            keys[i] = random.nextInt();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void newTrees() {
+        tree = new BPlusTree<>(degree);
+        buffered = bufferCapacity == 0 ? new BufferedBPlusTree<>(degree) : new BufferedBPlusTree<>(degree, bufferCapacity);
+    }
+
+    @Benchmark
+    public int put() {
+        for (Integer key : keys) {
+            tree.put(key, key);
+        }
+        return tree.size();
+    }
+
+    @Benchmark
+    public int bufferedPut() {
+        for (Integer key : keys) {
+            buffered.put(key, key);
+        }
+        return buffered.size();
+    }
+}
@@ -0,0 +1,79 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.BPlusTree;
+import com.dsimpl.balanceTree.FlatCombiningBPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 多个线程同时写入同一棵树:ReentrantLock包装的BPlusTree与FlatCombiningBPlusTree的总吞吐量
+ * 每个操作以writePercent的概率为随机关键字的put,其余为get;线程数用-t覆盖,例如 -t 32
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(16)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlatCombiningBenchmark {
+    @Param({"64"})
+    public int degree;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"100", "50"})
+    public int writePercent;
+
+    private BPlusTree<Integer, Integer> locked;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FlatCombiningBPlusTree<Integer, Integer> combining;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup
+    public void setup() {
+        locked = new BPlusTree<>(degree);
+        combining = new FlatCombiningBPlusTree<>(degree);
+        for (int ordinal : KeyDistribution.UNIFORM.loadOrder(size, 42)) {
+            locked.put(ordinal, ordinal);
+            combining.put(ordinal, ordinal);
+        }
+    }
+
+    @Benchmark
+    public Integer lockedTree(ThreadKeys keys) {
+        Integer key = keys.random.nextInt(size * 2);
+        boolean write = keys.random.nextInt(100) < writePercent;
+        lock.lock();
+        try {
+            return write ? locked.put(key, key) : locked.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public Integer combiningTree(ThreadKeys keys) {
+        Integer key = keys.random.nextInt(size * 2);
+        return keys.random.nextInt(100) < writePercent ? combining.put(key, key) : combining.get(key);
+    }
+}
@@ -0,0 +1,91 @@
+package com.dsimpl.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * 基准测试中关键字的分布,树中保存的关键字为0, 2, 4, ..., 2 * (size - 1),奇数一定不存在
+ * SEQUENTIAL: 按升序写入,按升序循环访问
+ * UNIFORM: 乱序写入,均匀随机访问
+ * ZIPFIAN: 乱序写入,按theta = 0.99的Zipf分布访问,热点关键字经过打散,不会集中在一端
+ */
+public enum KeyDistribution {
+    SEQUENTIAL,
+    UNIFORM,
+    ZIPFIAN;
+
+    private static final double THETA = 0.99;
+
+    /**
+     * @return 写入顺序,值为关键字的序号(关键字 = 序号 * 2)
+     */
+    public int[] loadOrder(int size, long seed) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        if (this != SEQUENTIAL) {
+            SplittableRandom random = new SplittableRandom(seed);
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int temp = order[i];
+                order[i] = order[j];
+                order[j] = temp;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @return 访问序列,值为关键字的序号
+     */
+    public int[] probes(int size, int count, long seed) {
+        int[] probes = new int[count];
+        SplittableRandom random = new SplittableRandom(seed);
+        switch (this) {
+            case SEQUENTIAL:
+                for (int i = 0; i < count; i++) {
+                    probes[i] = i % size;
+                }
+                break;
+            case UNIFORM:
+                for (int i = 0; i < count; i++) {
+                    probes[i] = random.nextInt(size);
+                }
+                break;
+            default:
+                //YCSB的Zipf生成算法,zeta(n)只计算一次
+                double zetaN = zeta(size);
+                double zeta2 = zeta(2);
+                double alpha = 1 / (1 - THETA);
+                double eta = (1 - Math.pow(2.0 / size, 1 - THETA)) / (1 - zeta2 / zetaN);
+                for (int i = 0; i < count; i++) {
+                    double u = random.nextDouble();
+                    double uz = u * zetaN;
+                    long rank;
+                    if (uz < 1) {
+                        rank = 0;
+                    } else if (uz < 1 + Math.pow(0.5, THETA)) {
+                        rank = 1;
+                    } else {
+                        rank = (long) (size * Math.pow(eta * u - eta + 1, alpha));
+                    }
+                    probes[i] = scramble(Math.min(rank, size - 1), size);
+                }
+        }
+        return probes;
+    }
+
+    private static double zeta(long n) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, THETA);
+        }
+        return sum;
+    }
+
+    private static int scramble(long rank, int size) {
+        long hash = rank * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 29;
+        return (int) Math.floorMod(hash, (long) size);
+    }
+}
@@ -0,0 +1,111 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.IntBPlusTree;
+import com.dsimpl.balanceTree.KeySearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同节点宽度下int关键字的节点内查找与IntBPlusTree的点查询
+ * binarySearch为有分支的Arrays.binarySearch;scalar*在关闭Vector API的fork中运行,使用KeySearch的无分支二分;
+ * vector*在加载了jdk.incubator.vector模块的fork中运行
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Ddsimpl.vectorSearch=false")
+public class NodeSearchBenchmark {
+    private static final String VECTOR_MODULE = "--add-modules=jdk.incubator.vector";
+    //节点个数,总大小不超过L2缓存,测量的是查找本身而不是缓存缺失
+    private static final int NODES = 256;
+    private static final int PROBES = 1 << 16;
+
+    @Param({"16", "32", "64", "128", "256", "512"})
+    public int width;
+
+    @Param({"1000000"})
+    public int size;
+
+    private int[][] nodes;
+    private int[] probeNodes;
+    private int[] probeKeys;
+    private IntBPlusTree tree;
+    private int[] treeKeys;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        nodes = new int[NODES][width];
+        for (int[] node : nodes) {
+            for (int i = 0; i < width; i++) {
+                node[i] = random.nextInt();
+            }
+            Arrays.sort(node);
+        }
+        probeNodes = new int[PROBES];
+        probeKeys = new int[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            probeNodes[i] = random.nextInt(NODES);
+            probeKeys[i] = random.nextInt();
+        }
+        tree = new IntBPlusTree(width);
+        treeKeys = new int[PROBES];
+        for (int i = 0; i < size; i++) {
+            int key = random.nextInt();
+            tree.put(key, i);
+            if (i < PROBES) {
+                treeKeys[i] = key;
+            }
+        }
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) & (PROBES - 1);
+    }
+
+    @Benchmark
+    public int binarySearch() {
+        int i = next();
+        return Arrays.binarySearch(nodes[probeNodes[i]], probeKeys[i]);
+    }
+
+    @Benchmark
+    public int scalarSearch() {
+        int i = next();
+        return KeySearch.lowerBound(nodes[probeNodes[i]], width, probeKeys[i]);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = VECTOR_MODULE)
+    public int vectorSearch() {
+        int i = next();
+        return KeySearch.lowerBound(nodes[probeNodes[i]], width, probeKeys[i]);
+    }
+
+    @Benchmark
+    public int scalarTreeGet() {
+        return tree.get(treeKeys[next()]);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = VECTOR_MODULE)
+    public int vectorTreeGet() {
+        return tree.get(treeKeys[next()]);
+    }
+}
@@ -0,0 +1,66 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.BPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集中到达的删除:每次迭代从装满的树开始按随机顺序删除,SampleTime模式报告单次remove的延迟分布(p99、p99.9),
+ * 对比立即借用/合并与宽松删除;宽松删除积压的节点留在树中,整理的代价不计入remove
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RelaxedDeleteBenchmark {
+    @Param({"16", "64"})
+    public int degree;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean relaxed;
+
+    private int[] order;
+    private BPlusTree<Integer, Integer> tree;
+    private int next;
+
+    @Setup
+    public void setup() {
+        order = KeyDistribution.UNIFORM.loadOrder(size, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        tree = new BPlusTree<>(degree);
+        for (int key = 0; key < size; key++) {
+            tree.put(key, key);
+        }
+        tree.setRelaxedDeletion(relaxed);
+        next = 0;
+    }
+
+    @Benchmark
+    public Integer remove() {
+        if (next == order.length) {
+            //删完一轮后重新写入,只有这一次调用的延迟包含写入
+            fill();
+        }
+        return tree.remove(order[next++]);
+    }
+}
@@ -0,0 +1,89 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.BPlusTree;
+import com.dsimpl.balanceTree.ShardedBPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 多个线程同时读写:ReentrantLock包装的BPlusTree与按范围分片的ShardedBPlusTree的总吞吐量
+ * 分片树的初始边界取自已经加载的关键字,每个操作以writePercent的概率为随机关键字的put,其余为get;线程数用-t覆盖
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(16)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedTreeBenchmark {
+    @Param({"64"})
+    public int degree;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"100", "50"})
+    public int writePercent;
+
+    @Param({"16", "64"})
+    public int shards;
+
+    private BPlusTree<Integer, Integer> locked;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ShardedBPlusTree<Integer, Integer> sharded;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup
+    public void setup() {
+        locked = new BPlusTree<>(degree);
+        int[] order = KeyDistribution.UNIFORM.loadOrder(size, 42);
+        List<Integer> sample = new ArrayList<>();
+        for (int i = 0; i < order.length; i += 64) {
+            sample.add(order[i]);
+        }
+        sharded = new ShardedBPlusTree<>(degree, sample, shards);
+        for (int ordinal : order) {
+            locked.put(ordinal, ordinal);
+            sharded.put(ordinal, ordinal);
+        }
+    }
+
+    @Benchmark
+    public Integer lockedTree(ThreadKeys keys) {
+        Integer key = keys.random.nextInt(size * 2);
+        boolean write = keys.random.nextInt(100) < writePercent;
+        lock.lock();
+        try {
+            return write ? locked.put(key, key) : locked.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public Integer shardedTree(ThreadKeys keys) {
+        Integer key = keys.random.nextInt(size * 2);
+        return keys.random.nextInt(100) < writePercent ? sharded.put(key, key) : sharded.get(key);
+    }
+}
@@ -0,0 +1,133 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.BPlusTree;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 把BPlusTree与JDK中的有序Map适配为相同的操作,保证各实现在基准测试中执行完全一样的调用
+ */
+public interface SortedIndex {
+    void put(Integer key, Integer value);
+
+    Integer get(Integer key);
+
+    void remove(Integer key);
+
+    Integer floorKey(Integer key);
+
+    Integer ceilingKey(Integer key);
+
+    /**
+     * 从大于等于from的第一个元素开始按升序读取最多limit个元素
+     * @return 读到的关键字之和,防止被JIT消除
+     */
+    long scan(Integer from, int limit);
+
+    /**
+     * @param name BPlusTree-{degree}、TreeMap或ConcurrentSkipListMap
+     */
+    static SortedIndex create(String name) {
+        if (name.startsWith("BPlusTree-")) {
+            return new BPlusTreeIndex(new BPlusTree<>(Integer.parseInt(name.substring("BPlusTree-".length()))));
+        }
+        switch (name) {
+            case "TreeMap":
+                return new NavigableMapIndex(new TreeMap<>());
+            case "ConcurrentSkipListMap":
+                return new NavigableMapIndex(new ConcurrentSkipListMap<>());
+            default:
+                throw new IllegalArgumentException("unknown map: " + name);
+        }
+    }
+
+    final class BPlusTreeIndex implements SortedIndex {
+        private final BPlusTree<Integer, Integer> tree;
+
+        BPlusTreeIndex(BPlusTree<Integer, Integer> tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public void put(Integer key, Integer value) {
+            tree.put(key, value);
+        }
+
+        @Override
+        public Integer get(Integer key) {
+            return tree.get(key);
+        }
+
+        @Override
+        public void remove(Integer key) {
+            tree.remove(key);
+        }
+
+        @Override
+        public Integer floorKey(Integer key) {
+            return tree.floorKey(key);
+        }
+
+        @Override
+        public Integer ceilingKey(Integer key) {
+            return tree.ceilingKey(key);
+        }
+
+        @Override
+        public long scan(Integer from, int limit) {
+            BPlusTree<Integer, Integer>.Cursor cursor = tree.cursor(from, true, null, true, false);
+            long sum = 0;
+            for (int i = 0; i < limit && cursor.next(); i++) {
+                sum += cursor.key();
+            }
+            return sum;
+        }
+    }
+
+    final class NavigableMapIndex implements SortedIndex {
+        private final NavigableMap<Integer, Integer> map;
+
+        NavigableMapIndex(NavigableMap<Integer, Integer> map) {
+            this.map = map;
+        }
+
+        @Override
+        public void put(Integer key, Integer value) {
+            map.put(key, value);
+        }
+
+        @Override
+        public Integer get(Integer key) {
+            return map.get(key);
+        }
+
+        @Override
+        public void remove(Integer key) {
+            map.remove(key);
+        }
+
+        @Override
+        public Integer floorKey(Integer key) {
+            return map.floorKey(key);
+        }
+
+        @Override
+        public Integer ceilingKey(Integer key) {
+            return map.ceilingKey(key);
+        }
+
+        @Override
+        public long scan(Integer from, int limit) {
+            Iterator<Map.Entry<Integer, Integer>> iterator = map.tailMap(from, true).entrySet().iterator();
+            long sum = 0;
+            for (int i = 0; i < limit && iterator.hasNext(); i++) {
+                sum += iterator.next().getKey();
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.dsimpl.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BPlusTree(不同degree)与TreeMap、ConcurrentSkipListMap在不同规模与关键字分布下的对比
+ * 规模覆盖10^3到10^8,10^8需要较大的堆,可以用 -p size=1000,1000000 只运行其中一部分
+ * 通过{@link BenchmarkRunner}运行时默认开启GC profiler,报告每次操作的分配字节数(gc.alloc.rate.norm)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms16g", "-Xmx16g"})
+public class SortedMapBenchmark {
+    private static final int PROBES = 1 << 16;
+    private static final int SCAN_LENGTH = 100;
+
+    @Param({"BPlusTree-16", "BPlusTree-64", "BPlusTree-256", "TreeMap", "ConcurrentSkipListMap"})
+    public String map;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000", "100000000"})
+    public int size;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPFIAN"})
+    public KeyDistribution distribution;
+
+    private SortedIndex index;
+    private Integer[] keys;
+    private Integer[] missingKeys;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        index = SortedIndex.create(map);
+        for (int ordinal : distribution.loadOrder(size, 42)) {
+            index.put(ordinal * 2, ordinal);
+        }
+        int[] probes = distribution.probes(size, PROBES, 7);
+        keys = new Integer[PROBES];
+        missingKeys = new Integer[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            keys[i] = probes[i] * 2;
+            missingKeys[i] = probes[i] * 2 + 1;
+        }
+    }
+
+    private int next() {
+        return cursor = (cursor + 1) & (PROBES - 1);
+    }
+
+    @Benchmark
+    public Integer get() {
+        return index.get(keys[next()]);
+    }
+
+    /**
+     * 覆盖已有关键字的数据,不改变树的结构
+     */
+    @Benchmark
+    public void put() {
+        int i = next();
+        index.put(keys[i], i);
+    }
+
+    /**
+     * 插入一个不存在的关键字随后删除,树的规模保持不变,分别触发分裂与合并路径
+     */
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public void insertRemove() {
+        Integer key = missingKeys[next()];
+        index.put(key, key);
+        index.remove(key);
+    }
+
+    @Benchmark
+    public Integer floorKey() {
+        return index.floorKey(missingKeys[next()]);
+    }
+
+    @Benchmark
+    public Integer ceilingKey() {
+        return index.ceilingKey(missingKeys[next()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCAN_LENGTH)
+    public void rangeScan(Blackhole blackhole) {
+        blackhole.consume(index.scan(keys[next()], SCAN_LENGTH));
+    }
+}
@@ -0,0 +1,75 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.BPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 插入突发后再全部删除,树的规模保持不变但每轮都触发大量分裂与合并,
+ * 对比开启与关闭节点回收(freeListCapacity)时每次操作的分配字节数(GC profiler的gc.alloc.rate.norm)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplitAllocationBenchmark {
+    private static final int BURST = 16384;
+
+    @Param({"16", "64", "256"})
+    public int degree;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"0", "1024"})
+    public int freeListCapacity;
+
+    private BPlusTree<Integer, Integer> tree;
+    private Integer[] burst;
+
+    @Setup
+    public void setup() {
+        tree = new BPlusTree<>(degree, freeListCapacity);
+        for (int ordinal : KeyDistribution.UNIFORM.loadOrder(size, 42)) {
+            tree.put(ordinal * 2, ordinal);
+        }
+        //突发写入集中在一段连续的奇数关键字上,插入时这段范围的叶子节点反复分裂,删除时再合并回去
+        burst = new Integer[BURST];
+        for (int i = 0; i < BURST; i++) {
+            burst[i] = i * 2 + 1;
+        }
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = BURST - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Integer tmp = burst[i];
+            burst[i] = burst[j];
+            burst[j] = tmp;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST * 2)
+    public void insertBurstThenRemove() {
+        for (Integer key : burst) {
+            tree.put(key, key);
+        }
+        for (Integer key : burst) {
+            tree.remove(key);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.dsimpl.benchmark;
+
+import com.dsimpl.balanceTree.BPlusTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时间序列的滑动窗口:树中保持size个递增的关键字,每次调用追加batch个新关键字,再丢弃最旧的batch个,
+ * 对比headTruncate与逐个remove;追加的部分两者相同
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TruncateBenchmark {
+    @Param({"16", "64"})
+    public int degree;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param({"1000", "100000"})
+    public int batch;
+
+    private BPlusTree<Integer, Integer> tree;
+    private int oldest;
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        tree = new BPlusTree<>(degree);
+        for (int key = 0; key < size; key++) {
+            tree.put(key, key);
+        }
+        oldest = 0;
+        next = size;
+    }
+
+    private void append() {
+        for (int i = 0; i < batch; i++) {
+            tree.put(next, next);
+            next++;
+        }
+    }
+
+    @Benchmark
+    public int headTruncate() {
+        append();
+        oldest += batch;
+        return tree.headTruncate(oldest);
+    }
+
+    @Benchmark
+    public int loopRemove() {
+        append();
+        int removed = 0;
+        for (int i = 0; i < batch; i++) {
+            if (tree.remove(oldest++) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+}
@@ -1,16 +1,33 @@
 package com.dsimpl.balanceTree;
 
+import com.dsimpl.balanceTree.storage.Serializer;
+import com.dsimpl.balanceTree.storage.SnapshotReader;
+import com.dsimpl.balanceTree.storage.SnapshotWriter;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 参考看图写代码,可视化数据结构网站:https://www.cs.usfca.edu/~galles/visualization/Algorithms.html
  * 1: B+树的节点由关键字(排序字段,可以是任何实现了比较手段的数据类型)与数据组成的
  * 2: 非叶子节点中,数组中最前面与最后面的元素,就是其所有的所属叶子节点中元素的最大值和最小值
- * 3: 除根节点以外,每个节点至少有m/2个子节点,根节点如果有子节点的话至少有两个子节点
+ * 3: 除根节点以外,每个节点至少有m/2个子节点,根节点如果有子节点的话至少有两个子节点;
+ *    顺序追加时最右边的叶子节点例外,它从1个元素开始逐渐填满,左边的叶子节点都是满的
  * 3: 有N个子女的节点必须是N个关键字
  * 4: B+树数据存在底层叶子节点,所有非叶子节点的关键字都会出现在叶子节点,叶子节点用链表链接,且叶子节点个数等于分支数
+ * 5: 实现NavigableMap,subMap/headMap/tailMap/descendingMap以及各个集合视图都不复制元素,只记录边界与方向,
+ *    元素个数由子树计数O(log n)得到,遍历沿叶子节点链表进行;null关键字不会被存入,作为边界时表示该方向不设边界
  */
-public class BPlusTree<K extends Comparable<K>, V> {
+public class BPlusTree<K extends Comparable<K>, V> extends AbstractMap<K, V> implements NavigableMap<K, V>, TreeMethodInterface<K, V> {
+    //批量构建时默认把叶子节点与非叶子节点装满
+    public static final double DEFAULT_FILL_FACTOR = 1.0;
     public int degree;
     public int UPPER_BOUND;
     public int UNDER_BOUND;
@@ -19,88 +36,2609 @@ public class BPlusTree<K extends Comparable<K>, V> {
     private BPlusNode tail;
     private int size;
     private int height = 0;
+    //结构修改(增加或删除关键字,以及compact整理节点)的次数,视图的迭代器据此发现遍历期间树被其他途径修改
+    private int modCount;
+    //宽松删除:remove只从叶子节点中移除元素,低于下界的叶子节点不立即借用或合并,留给之后的整理
+    private boolean relaxedDeletion;
+    //等待整理的叶子节点,记录为使它低于下界的那个被删除的关键字,整理时用它重新下降找到节点,节点不需要父指针
+    private final ArrayDeque<K> underfull = new ArrayDeque<>();
+    //put与remove共用的下降路径
+    private final Path path = new Path();
+    //合并后被删除的节点,分裂时优先从这里取,叶子节点与非叶子节点分开存放,最多各保留freeListCapacity个
+    private final int freeListCapacity;
+    private final ArrayDeque<BPlusNode> freeLeaves = new ArrayDeque<>();
+    private final ArrayDeque<BPlusNode> freeInternals = new ArrayDeque<>();
+    //运行指标,没有开启时为null
+    private BPlusTreeMetrics metrics;
 
     public BPlusTree(int degree) {
-        if (degree < 3) {
-            degree = 3;
+        this(degree, 0);
+    }
+
+    /**
+     * @param freeListCapacity 回收节点的空闲链表容量,为0时不回收,删除的节点直接交给垃圾回收器;
+     *                         插入删除交替频繁时,分裂可以复用合并释放的节点以及它们已经扩容的列表
+     */
+    public BPlusTree(int degree, int freeListCapacity) {
+        if (freeListCapacity < 0) {
+            throw new IllegalArgumentException("freeListCapacity must not be negative: " + freeListCapacity);
+        }
+        this.degree = Math.max(degree, 3);
+        this.UPPER_BOUND = this.degree - 1;
+        this.UNDER_BOUND = UPPER_BOUND / 2;
+        this.freeListCapacity = freeListCapacity;
+        //初始化时根节点同时为根节点与叶子节点
+        this.root = new BPlusNode(true, true);
+        head = root;
+        tail = root;
+    }
+
+    /**
+     * @return 关键字原来对应的数据,原来不存在时返回null;key为null时忽略
+     */
+    @Override
+    public V put(K key, V value) {
+        if (key == null) {
+            return null;
+        }
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        if (size > 0 && key.compareTo(tail.keys.get(tail.keys.size() - 1)) > 0) {
+            append(key, value);
+            return null;
+        }
+        path.clear();
+        BPlusNode leaf = path.leafFor(key);
+        int index = path.searchLeaf(key);
+        if (index >= 0) {
+            return leaf.datas.set(index, value);
+        }
+        leaf.keys.add(-index - 1, key);
+        leaf.datas.add(-index - 1, value);
+        size++;
+        modCount++;
+        path.addCounts(1);
+        if (height == 0) {
+            height = 1;
+        }
+        if (leaf.keys.size() > UPPER_BOUND) {
+            splitLeafMany(path, false);
+        }
+        if (!underfull.isEmpty()) {
+            compactOne();
+        }
+        return null;
+    }
+
+    /**
+     * 顺序写入的快速路径:key大于当前最大的关键字时一定落在tail叶子节点的末尾,不需要在节点中查找;
+     * 沿每层最右边的孩子下降只是为了更新子树计数,不比较关键字;tail满了之后按追加的方式分裂
+     */
+    private void append(K key, V value) {
+        if (metrics != null) {
+            metrics.visit(1);
+        }
+        path.rightmost();
+        tail.keys.add(key);
+        tail.datas.add(value);
+        size++;
+        modCount++;
+        path.addCounts(1);
+        if (tail.keys.size() > UPPER_BOUND) {
+            splitLeafMany(path, true);
+        }
+        if (!underfull.isEmpty()) {
+            compactOne();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        return root.get((K) key);
+    }
+
+    /**
+     * @return (start, end]范围的视图,不复制元素,start不小于end时返回空的Map
+     */
+    public NavigableMap<K, V> range(K start, K end) {
+        if (start == null || end == null || start.compareTo(end) >= 0) {
+            return Collections.emptyNavigableMap();
+        }
+        return subMap(start, false, end, true);
+    }
+
+    /**
+     * @return 被删除的数据,关键字不存在时返回null
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        path.clear();
+        BPlusNode leaf = path.leafFor((K) key);
+        int index = path.searchLeaf((K) key);
+        if (index < 0) {
+            return null;
+        }
+        leaf.keys.remove(index);
+        V value = leaf.datas.remove(index);
+        size--;
+        modCount++;
+        path.addCounts(-1);
+        if (size == 0) {
+            height = 0;
+        }
+        if (path.depth() > 0 && leaf.keys.size() < UNDER_BOUND) {
+            if (!relaxedDeletion) {
+                rebalanceLeaf(path.depth() - 1);
+            } else if (leaf.keys.isEmpty()) {
+                compactLeaf(path.depth() - 1);
+            } else if (leaf.keys.size() == UNDER_BOUND - 1) {
+                //刚刚低于下界时记录一次,继续删除同一个节点不重复记录
+                underfull.add((K) key);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 丢弃全部节点,回到只有一个空叶子节点的初始状态
+     */
+    @Override
+    public void clear() {
+        root = new BPlusNode(true, true);
+        head = root;
+        tail = root;
+        size = 0;
+        height = 0;
+        modCount++;
+        underfull.clear();
+    }
+
+    /**
+     * @return 删除闭区间[from, to]中的元素,返回删除的个数
+     */
+    public int removeRange(K from, K to) {
+        return removeRange(from, true, to, true);
+    }
+
+    /**
+     * 删除小于upTo的全部元素,用于丢弃过期的时间序列数据,upTo为null时不删除
+     * @return 删除的元素个数
+     */
+    public int headTruncate(K upTo) {
+        return upTo == null ? 0 : removeRange(null, true, upTo, false);
+    }
+
+    /**
+     * 批量删除一个范围,代价为O(log n + 边界路径上的节点),与删除的元素个数无关:
+     * 1: 从根节点同时沿from与to两条路径下降,两条路径之间的孩子整棵子树都在范围内,直接从父节点中摘除,不逐个访问;
+     *    叶子节点链表中范围两侧剩下的叶子节点直接连起来,跳过被摘除的叶子节点
+     * 2: 只有两条路径上的节点被部分删除,回溯时删去空的孩子,低于下界的孩子与相邻的兄弟合并,合并后超过上界时平分;
+     *    开启宽松删除时低于下界的叶子节点只记录下来,与remove一样留给compact
+     * 3: 根节点只剩一个孩子时由孩子成为新的根节点,可能连续降低多层
+     * 被摘除的子树交给垃圾回收器,不放入空闲链表;from/to为null表示该方向不设边界
+     * @return 删除的元素个数
+     */
+    public int removeRange(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (size == 0) {
+            return 0;
+        }
+        if (from != null && to != null) {
+            int compare = from.compareTo(to);
+            if (compare > 0 || compare == 0 && !(fromInclusive && toInclusive)) {
+                return 0;
+            }
+        }
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        if (from == null && to == null) {
+            int removed = size;
+            clear();
+            return removed;
+        }
+        //两个边界叶子节点之间的叶子节点中的元素都在范围内,边界叶子节点没有范围外的元素时同样会被删空,
+        //先在链表中把剩下的叶子节点直接连起来,之后删空的节点从树中摘除时不再修改链表
+        BPlusNode first = from == null ? head : root.findChildNode(from);
+        BPlusNode last = to == null ? tail : root.findChildNode(to);
+        boolean keepFirst = from != null && leafIndex(first, from, fromInclusive) > 0;
+        boolean keepLast = to != null && leafIndex(last, to, !toInclusive) < last.keys.size();
+        if (first != last || !keepFirst && !keepLast) {
+            BPlusNode before = keepFirst ? first : first.pre;
+            BPlusNode after = keepLast ? last : last.next;
+            if (before != null) {
+                before.next = after;
+            } else {
+                head = after;
+            }
+            if (after != null) {
+                after.pre = before;
+            } else {
+                tail = before;
+            }
+        }
+        int removed = removeRange(root, from, fromInclusive, to, toInclusive);
+        if (removed == 0) {
+            return 0;
+        }
+        size -= removed;
+        modCount++;
+        if (size == 0) {
+            clear();
+            return removed;
+        }
+        while (!root.isLeaf && root.childen.size() == 1) {
+            BPlusNode old = root;
+            root = old.childen.get(0);
+            root.isRoot = true;
+            height--;
+            recycle(old);
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key) {
+        if (key == null) return false;
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        return root.containsKey((K) key);
+    }
+
+    /**
+     * @param key
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    @Override
+    public K floorKey(K key) {
+        if (key == null) return null;
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        return root.floorKey(key);
+    }
+
+    /**
+     * @param key
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    @Override
+    public K ceilingKey(K key) {
+        if (key == null) return null;
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        return root.ceilingKey(key);
+    }
+
+    /**
+     * @return 返回小于给定元素中最大的元素,不存在返回null
+     */
+    @Override
+    public K lowerKey(K key) {
+        if (key == null) return null;
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        return root.lowerKey(key);
+    }
+
+    /**
+     * @return 返回大于给定元素中最小的元素,不存在返回null
+     */
+    @Override
+    public K higherKey(K key) {
+        if (key == null) return null;
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        return root.higherKey(key);
+    }
+
+    @Override
+    public Map.Entry<K, V> floorEntry(K key) {
+        return key == null ? null : exportEntry(null, true, key, true, true);
+    }
+
+    @Override
+    public Map.Entry<K, V> ceilingEntry(K key) {
+        return key == null ? null : exportEntry(key, true, null, true, false);
+    }
+
+    @Override
+    public Map.Entry<K, V> lowerEntry(K key) {
+        return key == null ? null : exportEntry(null, true, key, false, true);
+    }
+
+    @Override
+    public Map.Entry<K, V> higherEntry(K key) {
+        return key == null ? null : exportEntry(key, false, null, true, false);
+    }
+
+    @Override
+    public Map.Entry<K, V> firstEntry() {
+        return size == 0 ? null : new AbstractMap.SimpleImmutableEntry<>(head.keys.get(0), head.datas.get(0));
+    }
+
+    @Override
+    public Map.Entry<K, V> lastEntry() {
+        int last = tail.keys.size() - 1;
+        return size == 0 ? null : new AbstractMap.SimpleImmutableEntry<>(tail.keys.get(last), tail.datas.get(last));
+    }
+
+    @Override
+    public Map.Entry<K, V> pollFirstEntry() {
+        Map.Entry<K, V> entry = firstEntry();
+        if (entry != null) {
+            remove(entry.getKey());
+        }
+        return entry;
+    }
+
+    @Override
+    public Map.Entry<K, V> pollLastEntry() {
+        Map.Entry<K, V> entry = lastEntry();
+        if (entry != null) {
+            remove(entry.getKey());
+        }
+        return entry;
+    }
+
+    /**
+     * 用游标找到范围中按方向的第一个元素,返回它的不可修改的快照
+     */
+    private Map.Entry<K, V> exportEntry(K from, boolean fromInclusive, K to, boolean toInclusive, boolean descending) {
+        if (metrics != null) {
+            metrics.operations++;
+        }
+        Cursor cursor = new Cursor(from, fromInclusive, to, toInclusive, descending);
+        return cursor.next() ? new AbstractMap.SimpleImmutableEntry<>(cursor.key(), cursor.value()) : null;
+    }
+
+    /**
+     * @return 小于key的元素个数,即key在升序排列中的下标,key不存在时为它应当插入的位置;key为null时返回0
+     */
+    public int rank(K key) {
+        return key == null ? 0 : countBefore(key, false);
+    }
+
+    /**
+     * 按非叶子节点中记录的子树计数逐层减去左边孩子的元素个数,O(log n)
+     * @param index 从0开始的升序下标
+     * @return 第index小的关键字
+     */
+    public K select(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        BPlusNode cur = root;
+        while (!cur.isLeaf) {
+            int childIndex = 0;
+            while (index >= cur.counts[childIndex]) {
+                index -= cur.counts[childIndex];
+                childIndex++;
+            }
+            cur = cur.childen.get(childIndex);
+        }
+        return cur.keys.get(index);
+    }
+
+    /**
+     * @return 闭区间[from, to]中的元素个数
+     */
+    public int countRange(K from, K to) {
+        return countRange(from, true, to, true);
+    }
+
+    /**
+     * 两次rank相减,O(log n),from/to为null表示该方向不设边界
+     */
+    public int countRange(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        int high = to == null ? size : countBefore(to, toInclusive);
+        int low = from == null ? 0 : countBefore(from, !fromInclusive);
+        return Math.max(0, high - low);
+    }
+
+    /**
+     * 从根节点下降到key所在的叶子节点,累加经过的每一层中位于所选孩子左边的子树计数
+     * @param inclusive 为true时统计小于等于key的元素个数,否则统计小于key的元素个数
+     */
+    private int countBefore(K key, boolean inclusive) {
+        int count = 0;
+        BPlusNode cur = root;
+        while (!cur.isLeaf) {
+            int childIndex = cur.findChildIndexByCeilingKeyIndex(cur.findCeilingKeyIndex(key), key);
+            for (int i = 0; i < childIndex; i++) {
+                count += cur.counts[i];
+            }
+            cur = cur.childen.get(childIndex);
+        }
+        int index = cur.findCeilingKeyIndex(key);
+        if (inclusive && index < cur.keys.size() && key.compareTo(cur.keys.get(index)) == 0) {
+            index++;
+        }
+        return count + index;
+    }
+
+    @Override
+    public K firstKey() {
+        if (size == 0) {
+            throw new NoSuchElementException("tree is empty");
+        }
+        return head.keys.get(0);
+    }
+
+    @Override
+    public K lastKey() {
+        if (size == 0) {
+            throw new NoSuchElementException("tree is empty");
+        }
+        return tail.keys.get(tail.keys.size() - 1);
+    }
+
+    /**
+     * @return null,按关键字的自然顺序排序
+     */
+    @Override
+    public Comparator<? super K> comparator() {
+        return null;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new SubMap(null, true, null, true, false).entrySet();
+    }
+
+    @Override
+    public NavigableSet<K> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<K> navigableKeySet() {
+        return new KeySet<>(this);
+    }
+
+    @Override
+    public NavigableSet<K> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public NavigableMap<K, V> descendingMap() {
+        return new SubMap(null, true, null, true, true);
+    }
+
+    /**
+     * @return [fromKey, toKey]范围的视图,fromKey/toKey为null表示该方向不设边界
+     * @throws IllegalArgumentException fromKey大于toKey
+     */
+    @Override
+    public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        if (fromKey != null && toKey != null && fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey: " + fromKey + " > " + toKey);
+        }
+        return new SubMap(fromKey, fromInclusive, toKey, toInclusive, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+        return new SubMap(null, true, toKey, inclusive, false);
+    }
+
+    @Override
+    public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return new SubMap(fromKey, inclusive, null, true, false);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * 开启运行指标,已经开启时返回同一个对象;此时指标只被树引用,
+     * 调用{@link BPlusTreeMetrics#registerMBean}后丢弃树之前必须调用disableMetrics,否则整棵树不会被回收
+     * @see BPlusTreeMetrics
+     */
+    public BPlusTreeMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new BPlusTreeMetrics(this);
+        }
+        return metrics;
+    }
+
+    /**
+     * 关闭运行指标,同时注销MBean与JFR周期事件
+     */
+    public void disableMetrics() {
+        if (metrics != null) {
+            metrics.close();
+            metrics = null;
+        }
+    }
+
+    /**
+     * @return 运行指标,没有开启时返回null
+     */
+    public BPlusTreeMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * 开启或关闭宽松删除,大量删除集中到达时避免借用、合并以及向上级联的合并都落在remove上:
+     * 1: 开启后remove只从叶子节点中移除元素并更新子树计数,叶子节点低于下界时只记录下来,
+     *    被删空时立即整理,因此除根节点以外的叶子节点总是非空,查找与遍历不受影响
+     * 2: 记录的节点由compact分步整理,每一步与普通删除时的处理相同;此外每次put插入新关键字后顺带整理一个
+     * 3: 整理时节点可能已经因为插入回到下界以上,或者已经被合并,重新下降后按当时的状态处理
+     * 关闭时整理全部积压的节点
+     */
+    public void setRelaxedDeletion(boolean relaxed) {
+        relaxedDeletion = relaxed;
+        if (!relaxed) {
+            compact(Integer.MAX_VALUE);
+        }
+    }
+
+    public boolean isRelaxedDeletion() {
+        return relaxedDeletion;
+    }
+
+    /**
+     * 整理宽松删除积压的节点,每一步处理一个低于下界的叶子节点,借用或者合并,合并可能沿路径向上级联,
+     * 因此单步的代价与一次普通删除的整理相同,为O(log n)
+     * @param maxSteps 最多处理的节点个数
+     * @return 剩余等待整理的节点个数
+     */
+    public int compact(int maxSteps) {
+        int steps = 0;
+        while (steps < maxSteps && !underfull.isEmpty()) {
+            compactOne();
+            steps++;
+        }
+        if (steps > 0) {
+            modCount++;
+        }
+        return underfull.size();
+    }
+
+    /**
+     * @return 等待整理的节点个数,同一个节点可能因为反复跌破下界被记录多次
+     */
+    public int pendingCompactions() {
+        return underfull.size();
+    }
+
+    /**
+     * 遍历叶子节点链表统计填充率分布,第i个桶为填充率在[i / buckets, (i + 1) / buckets)中的叶子节点个数,满节点计入最后一个桶
+     */
+    long[] leafFillHistogram(int buckets) {
+        long[] histogram = new long[buckets];
+        if (size == 0) {
+            return histogram;
+        }
+        for (BPlusNode cur = head; cur != null; cur = cur.next) {
+            int bucket = (int) ((long) cur.keys.size() * buckets / UPPER_BOUND);
+            histogram[Math.min(bucket, buckets - 1)]++;
+        }
+        return histogram;
+    }
+
+    public String printTree() {
+        return root.printTree();
+    }
+
+    /**
+     * @return 返回遍历整棵树的升序游标
+     */
+    public Cursor cursor() {
+        return new Cursor(null, true, null, true, false);
+    }
+
+    /**
+     * 返回遍历[from, to]范围的游标,from/to为null表示该方向不设边界
+     * @param fromInclusive 是否包含from
+     * @param toInclusive 是否包含to
+     * @param descending 为true时从to向from降序遍历
+     */
+    public Cursor cursor(K from, boolean fromInclusive, K to, boolean toInclusive, boolean descending) {
+        return new Cursor(from, fromInclusive, to, toInclusive, descending);
+    }
+
+    /**
+     * @return 按关键字升序遍历全部元素的Spliterator,沿非叶子节点的孩子边界分割,用于并行流
+     */
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return new NodeSpliterator(null, true, null, true);
+    }
+
+    public Stream<Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * 基于fork-join的范围聚合,区间语义与{@link #range}一致:(start, end],start/end为null表示不设边界
+     * 范围沿非叶子节点的孩子边界分割为互不相交的子树交给不同的工作线程,每个子任务从identity开始累加,
+     * 再按关键字顺序用combiner合并,因此identity必须是combiner的单位元;聚合期间不能修改树
+     */
+    public <R> R rangeReduce(K start, K end, R identity, EntryAccumulator<R, ? super K, ? super V> accumulator, BinaryOperator<R> combiner) {
+        if (start != null && end != null && start.compareTo(end) >= 0) {
+            return identity;
+        }
+        NodeSpliterator spliterator = new NodeSpliterator(start, false, end, true);
+        long threshold = Math.max(1024, size / (ForkJoinPool.getCommonPoolParallelism() * 4L + 1));
+        return ForkJoinPool.commonPool().invoke(new RangeReduceTask<>(spliterator, threshold, identity, accumulator, combiner));
+    }
+
+    /**
+     * 批量查找:先把关键字按升序排列(已经有序时不再排序),相邻的关键字共享根节点到叶子节点的路径,
+     * 下一个关键字仍在当前叶子节点的范围内时直接在叶子节点中从上次的位置继续查找,
+     * 否则只回退到范围能够覆盖它的最近祖先节点再向下查找
+     * @return 与keys一一对应的数据,不存在或者为null的关键字对应null
+     */
+    public List<V> getAll(K[] keys) {
+        List<V> result = new ArrayList<>(Collections.nCopies(keys.length, null));
+        if (metrics != null) {
+            metrics.operations += keys.length;
+        }
+        Path path = new Path();
+        for (int i : sortedOrder(keys)) {
+            K key = keys[i];
+            BPlusNode leaf = path.leafFor(key);
+            int index = path.searchLeaf(key);
+            if (index >= 0) {
+                result.set(i, leaf.datas.get(index));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量写入:按关键字升序处理,与getAll一样共享下降路径,
+     * 落在同一个叶子节点中的关键字一次性合并进叶子节点,超过上界时一次分裂为需要的若干个节点,
+     * 而不是每写入一个关键字分裂一次;batch为自然顺序的SortedMap时直接按其顺序遍历,否则先排序
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> batch) {
+        List<K> keys = new ArrayList<>(batch.size());
+        List<V> values = new ArrayList<>(batch.size());
+        if (batch instanceof SortedMap && ((SortedMap<?, ?>) batch).comparator() == null) {
+            for (Map.Entry<? extends K, ? extends V> entry : batch.entrySet()) {
+                keys.add(entry.getKey());
+                values.add(entry.getValue());
+            }
+        } else {
+            List<Map.Entry<? extends K, ? extends V>> entries = new ArrayList<>(batch.entrySet());
+            entries.removeIf(entry -> entry.getKey() == null);
+            entries.sort((a, b) -> a.getKey().compareTo(b.getKey()));
+            for (Map.Entry<? extends K, ? extends V> entry : entries) {
+                keys.add(entry.getKey());
+                values.add(entry.getValue());
+            }
+        }
+        if (metrics != null) {
+            metrics.operations += keys.size();
+        }
+        Path path = new Path();
+        int from = 0;
+        while (from < keys.size()) {
+            BPlusNode leaf = path.leafFor(keys.get(from));
+            K upperBound = path.upperBound();
+            int to = from + 1;
+            while (to < keys.size() && (upperBound == null || keys.get(to).compareTo(upperBound) < 0)) {
+                to++;
+            }
+            int before = size;
+            boolean appending = leaf == tail && (leaf.keys.isEmpty() || keys.get(from).compareTo(leaf.keys.get(leaf.keys.size() - 1)) > 0);
+            mergeIntoLeaf(leaf, keys, values, from, to);
+            path.addCounts(size - before);
+            if (size != before) {
+                modCount++;
+            }
+            if (leaf.keys.size() > UPPER_BOUND) {
+                splitLeafMany(path, appending);
+                //分裂改变了路径上的节点,下一个叶子节点从根节点重新下降
+                path.clear();
+            }
+            from = to;
+        }
+        if (size > 0 && height == 0) {
+            height = 1;
+        }
+    }
+
+    public void bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        bulkLoad(entries, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * 自底向上批量构建,要求当前树为空,并且输入按关键字严格递增,否则抛出IllegalArgumentException
+     * 1: 从左到右遍历一次输入,按填充因子装满叶子节点,同时串起叶子节点链表
+     * 2: 逐层把下一层的节点按填充因子打包成非叶子节点,直到只剩下根节点
+     * 整个过程O(n),不会触发任何分裂
+     * @param fillFactor 节点的填充比例,取值范围(0, 1]
+     */
+    public void bulkLoad(Iterator<? extends Map.Entry<? extends K, ? extends V>> entries, double fillFactor) {
+        BulkLoader loader = new BulkLoader(fillFactor);
+        while (entries.hasNext()) {
+            Map.Entry<? extends K, ? extends V> entry = entries.next();
+            loader.add(entry.getKey(), entry.getValue());
+        }
+        loader.finish();
+    }
+
+    public void bulkLoad(K[] keys, V[] values) {
+        bulkLoad(keys, values, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * 数组形式的批量构建,keys与values按下标一一对应,其余要求同{@link #bulkLoad(Iterator, double)}
+     */
+    public void bulkLoad(K[] keys, V[] values, double fillFactor) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values must have the same length: " + keys.length + " != " + values.length);
+        }
+        BulkLoader loader = new BulkLoader(fillFactor);
+        for (int i = 0; i < keys.length; i++) {
+            loader.add(keys[i], values[i]);
+        }
+        loader.finish();
+    }
+
+    /**
+     * 把全部元素按关键字升序写成快照,沿叶子节点链表逐个编码,不复制元素;写入期间不能修改树,不关闭通道
+     * @see SnapshotWriter
+     */
+    public void writeSnapshot(WritableByteChannel channel, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        SnapshotWriter<K, V> writer = new SnapshotWriter<>(channel, keySerializer, valueSerializer, size);
+        if (size > 0) {
+            for (BPlusNode cur = head; cur != null; cur = cur.next) {
+                for (int i = 0; i < cur.keys.size(); i++) {
+                    writer.add(cur.keys.get(i), cur.datas.get(i));
+                }
+            }
+        }
+        writer.finish();
+    }
+
+    public void readSnapshot(ReadableByteChannel channel, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        readSnapshot(channel, keySerializer, valueSerializer, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * 从快照重建整棵树,要求当前树为空;元素边解码边交给bulkLoad使用的构建过程,自底向上构建,不会触发分裂,
+     * 因此耗时主要取决于读取与解码的速度;快照损坏时抛出IOException,树保持为空
+     * @see SnapshotReader
+     */
+    public void readSnapshot(ReadableByteChannel channel, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                             double fillFactor) throws IOException {
+        BulkLoader loader = new BulkLoader(fillFactor);
+        SnapshotReader<K, V> reader = new SnapshotReader<>(channel, keySerializer, valueSerializer);
+        if (reader.count() > Integer.MAX_VALUE) {
+            throw new IOException("snapshot has " + reader.count() + " entries, more than a tree can hold");
+        }
+        while (reader.next()) {
+            try {
+                loader.add(reader.key(), reader.value());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("snapshot entries are not in increasing key order", e);
+            }
+        }
+        loader.finish();
+    }
+
+    /**
+     * @return 按关键字升序排列的下标,已经有序时不排序,null关键字被跳过
+     */
+    private int[] sortedOrder(K[] keys) {
+        int count = 0;
+        boolean sorted = true;
+        K last = null;
+        for (K key : keys) {
+            if (key == null) {
+                continue;
+            }
+            if (last != null && last.compareTo(key) > 0) {
+                sorted = false;
+            }
+            last = key;
+            count++;
+        }
+        int[] order = new int[count];
+        int next = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                order[next++] = i;
+            }
+        }
+        if (!sorted) {
+            Integer[] boxed = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                boxed[i] = order[i];
+            }
+            Arrays.sort(boxed, (a, b) -> keys[a].compareTo(keys[b]));
+            for (int i = 0; i < count; i++) {
+                order[i] = boxed[i];
+            }
+        }
+        return order;
+    }
+
+    /**
+     * 把keys/values中[from, to)范围内有序的元素与叶子节点中的元素归并,相同关键字覆盖数据
+     */
+    private void mergeIntoLeaf(BPlusNode leaf, List<K> keys, List<V> values, int from, int to) {
+        List<K> mergedKeys = new ArrayList<>(leaf.keys.size() + to - from);
+        List<V> mergedDatas = new ArrayList<>(leaf.keys.size() + to - from);
+        int i = 0;
+        int j = from;
+        while (i < leaf.keys.size() || j < to) {
+            int compare = i == leaf.keys.size() ? 1 : j == to ? -1 : leaf.keys.get(i).compareTo(keys.get(j));
+            if (compare < 0) {
+                mergedKeys.add(leaf.keys.get(i));
+                mergedDatas.add(leaf.datas.get(i++));
+            } else {
+                if (compare == 0) {
+                    i++;
+                } else {
+                    size++;
+                }
+                mergedKeys.add(keys.get(j));
+                mergedDatas.add(values.get(j++));
+            }
+        }
+        leaf.keys = mergedKeys;
+        leaf.datas = mergedDatas;
+    }
+
+    /**
+     * 叶子节点一次分裂为若干个节点,原节点保留第一段,其余每段放入新的右兄弟节点
+     * @param appended 溢出的元素全部追加在tail的末尾:此时之后的写入也只会落在最右边,平分会让左边的节点永远半空,
+     *                 因此前面的节点装满,剩下的放入最后一个节点(单个追加时只有1个元素),最后一个节点暂时低于下界
+     */
+    private void splitLeafMany(Path path, boolean appended) {
+        BPlusNode leaf = path.nodes.get(path.depth());
+        int total = leaf.keys.size();
+        int chunks = (total + UPPER_BOUND - 1) / UPPER_BOUND;
+        if (metrics != null) {
+            metrics.split(true, chunks - 1);
+        }
+        List<BPlusNode> siblings = new ArrayList<>(chunks - 1);
+        List<K> separators = new ArrayList<>(chunks - 1);
+        BPlusNode pre = leaf;
+        for (int c = 1; c < chunks; c++) {
+            int from = appended ? c * UPPER_BOUND : (int) ((long) total * c / chunks);
+            int to = appended ? Math.min(total, (c + 1) * UPPER_BOUND) : (int) ((long) total * (c + 1) / chunks);
+            BPlusNode sibling = newNode(true);
+            for (int i = from; i < to; i++) {
+                sibling.keys.add(leaf.keys.get(i));
+                sibling.datas.add(leaf.datas.get(i));
+            }
+            sibling.next = pre.next;
+            if (pre.next != null) {
+                pre.next.pre = sibling;
+            } else {
+                tail = sibling;
+            }
+            sibling.pre = pre;
+            pre.next = sibling;
+            pre = sibling;
+            siblings.add(sibling);
+            separators.add(sibling.keys.get(0));
+        }
+        int leftSize = appended ? UPPER_BOUND : total / chunks;
+        leaf.keys.subList(leftSize, total).clear();
+        leaf.datas.subList(leftSize, total).clear();
+        insertChildren(path, path.depth() - 1, leaf, separators, siblings);
+    }
+
+    /**
+     * 把分裂出的节点以及分隔关键字插入到路径上第level层的父节点中,level小于0时生成新的根节点
+     */
+    private void insertChildren(Path path, int level, BPlusNode left, List<K> separators, List<BPlusNode> siblings) {
+        BPlusNode parent;
+        int index;
+        if (level < 0) {
+            left.isRoot = false;
+            parent = newNode(false);
+            parent.isRoot = true;
+            parent.addChild(0, left, 0);
+            root = parent;
+            height++;
+            index = 0;
+        } else {
+            parent = path.nodes.get(level);
+            index = path.childIndexes[level];
+        }
+        //分裂前路径上的计数已经包含本次写入,这里只需要按分裂后的节点重新计算
+        parent.counts[index] = left.total();
+        for (int i = 0; i < siblings.size(); i++) {
+            parent.addChild(index + 1 + i, siblings.get(i), siblings.get(i).total());
+        }
+        parent.keys.addAll(index, separators);
+        if (parent.keys.size() > UPPER_BOUND) {
+            splitInternalMany(path, parent, level - 1);
+        }
+    }
+
+    /**
+     * 非叶子节点一次分裂为若干个节点,每段之间的关键字上移到父节点
+     * @param parentLevel 父节点在路径中的层,小于0表示node是根节点
+     */
+    private void splitInternalMany(Path path, BPlusNode node, int parentLevel) {
+        int total = node.childen.size();
+        int chunks = (total + degree - 1) / degree;
+        if (metrics != null) {
+            metrics.split(false, chunks - 1);
+        }
+        List<BPlusNode> siblings = new ArrayList<>(chunks - 1);
+        List<K> separators = new ArrayList<>(chunks - 1);
+        for (int c = 1; c < chunks; c++) {
+            int from = (int) ((long) total * c / chunks);
+            int to = (int) ((long) total * (c + 1) / chunks);
+            BPlusNode sibling = newNode(false);
+            for (int i = from; i < to; i++) {
+                sibling.addChild(sibling.childen.size(), node.childen.get(i), node.counts[i]);
+                if (i < to - 1) {
+                    sibling.keys.add(node.keys.get(i));
+                }
+            }
+            siblings.add(sibling);
+            separators.add(node.keys.get(from - 1));
+        }
+        int leftSize = total / chunks;
+        node.childen.subList(leftSize, total).clear();
+        node.keys.subList(leftSize - 1, node.keys.size()).clear();
+        insertChildren(path, parentLevel, node, separators, siblings);
+    }
+
+    /**
+     * 删除node子树中范围内的元素并更新node中的子树计数,返回删除的个数;node本身可能因此低于下界甚至被删空,由调用者处理
+     */
+    private int removeRange(BPlusNode node, K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (node.isLeaf) {
+            int start = from == null ? 0 : leafIndex(node, from, fromInclusive);
+            int end = to == null ? node.keys.size() : leafIndex(node, to, !toInclusive);
+            if (start >= end) {
+                return 0;
+            }
+            node.keys.subList(start, end).clear();
+            node.datas.subList(start, end).clear();
+            return end - start;
+        }
+        int first = from == null ? 0 : node.findChildIndexByCeilingKeyIndex(node.findCeilingKeyIndex(from), from);
+        int last = to == null ? node.childen.size() - 1 : node.findChildIndexByCeilingKeyIndex(node.findCeilingKeyIndex(to), to);
+        int removed = 0;
+        if (last - first > 1) {
+            //两条路径之间的孩子整棵子树都在范围内,连同它们左边的分隔关键字一起摘除,last左边的分隔关键字保留
+            for (int i = first + 1; i < last; i++) {
+                removed += node.counts[i];
+            }
+            System.arraycopy(node.counts, last, node.counts, first + 1, node.childen.size() - last);
+            node.childen.subList(first + 1, last).clear();
+            node.keys.subList(first, last - 1).clear();
+            last = first + 1;
+        }
+        if (first == last) {
+            int count = removeRange(node.childen.get(first), from, fromInclusive, to, toInclusive);
+            node.counts[first] -= count;
+            removed += count;
+        } else {
+            //first子树中的元素都小于to,last子树中的元素都大于from,各自只剩一侧的边界
+            int count = removeRange(node.childen.get(first), from, fromInclusive, null, false);
+            node.counts[first] -= count;
+            removed += count;
+            count = removeRange(node.childen.get(last), null, false, to, toInclusive);
+            node.counts[last] -= count;
+            removed += count;
+        }
+        if (removed > 0) {
+            repairChildren(node, first, last);
+        }
+        return removed;
+    }
+
+    /**
+     * @param inclusive 为true时返回第一个大于等于key的下标,否则返回第一个大于key的下标
+     */
+    private int leafIndex(BPlusNode leaf, K key, boolean inclusive) {
+        int index = leaf.findCeilingKeyIndex(key);
+        if (!inclusive && index < leaf.keys.size() && key.compareTo(leaf.keys.get(index)) == 0) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * 范围删除回溯时修复node中下标在[first, last]的孩子:删去空的孩子,低于下界的孩子与相邻的兄弟合并或者平分,
+     * 兄弟节点不低于下界时一次就能修复;结果仍然低于下界时(兄弟节点也是边界上的节点)继续与下一个兄弟处理
+     */
+    private void repairChildren(BPlusNode node, int first, int last) {
+        for (int i = Math.min(last, node.childen.size() - 1); i >= first; i--) {
+            BPlusNode child = node.childen.get(i);
+            if (child.isLeaf ? child.keys.isEmpty() : child.childen.isEmpty()) {
+                dropChild(node, i);
+            }
+        }
+        if (node.childen.isEmpty()) {
+            return;
+        }
+        int low = Math.min(first, node.childen.size() - 1);
+        int high = Math.min(node.childen.size() - 1, last);
+        if (relaxedDeletion && node.childen.get(0).isLeaf) {
+            //与remove一样只记录低于下界的叶子节点
+            for (int i = low; i <= high; i++) {
+                BPlusNode child = node.childen.get(i);
+                if (child.keys.size() < UNDER_BOUND) {
+                    underfull.add(child.keys.get(0));
+                }
+            }
+            return;
+        }
+        while (node.childen.size() > 1) {
+            int index = -1;
+            for (int i = low; i <= high; i++) {
+                if (node.childen.get(i).keys.size() < UNDER_BOUND) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            int left = index > 0 ? index - 1 : index;
+            mergeOrSplit(node, left);
+            low = Math.min(low, left);
+            high = Math.min(node.childen.size() - 1, Math.max(high, left + 1));
+        }
+    }
+
+    /**
+     * 删去node中下标为index的空孩子以及一个相邻的分隔关键字,空的叶子节点已经不在叶子节点链表中
+     */
+    private void dropChild(BPlusNode node, int index) {
+        BPlusNode child = node.removeChild(index);
+        if (!node.keys.isEmpty()) {
+            node.keys.remove(index > 0 ? index - 1 : 0);
+        }
+        recycle(child);
+    }
+
+    /**
+     * 把node中下标为index与index + 1的两个相邻孩子合在一起,放得下时合并为一个节点,否则在两个节点之间平分,
+     * 两个节点可以远低于下界;平分时合计超过上界,两边一定都不低于下界
+     */
+    private void mergeOrSplit(BPlusNode node, int index) {
+        BPlusNode left = node.childen.get(index);
+        BPlusNode right = node.childen.get(index + 1);
+        if (left.isLeaf) {
+            int total = left.keys.size() + right.keys.size();
+            if (total <= UPPER_BOUND) {
+                mergeLeaf(left, right, node, index);
+                return;
+            }
+            int leftSize = total / 2;
+            boolean fromLeft = left.keys.size() > leftSize;
+            List<K> keys = new ArrayList<>(total);
+            List<V> datas = new ArrayList<>(total);
+            keys.addAll(left.keys);
+            keys.addAll(right.keys);
+            datas.addAll(left.datas);
+            datas.addAll(right.datas);
+            left.keys.clear();
+            left.datas.clear();
+            right.keys.clear();
+            right.datas.clear();
+            left.keys.addAll(keys.subList(0, leftSize));
+            left.datas.addAll(datas.subList(0, leftSize));
+            right.keys.addAll(keys.subList(leftSize, total));
+            right.datas.addAll(datas.subList(leftSize, total));
+            node.keys.set(index, right.keys.get(0));
+            node.counts[index] = leftSize;
+            node.counts[index + 1] = total - leftSize;
+            if (metrics != null) {
+                metrics.borrow(fromLeft);
+            }
+            return;
+        }
+        //分隔关键字下移到两个节点的关键字之间,合并后的孩子与计数再按需要平分
+        List<BPlusNode> children = new ArrayList<>(left.childen.size() + right.childen.size());
+        int[] counts = new int[left.childen.size() + right.childen.size()];
+        List<K> keys = new ArrayList<>(left.keys.size() + right.keys.size() + 1);
+        children.addAll(left.childen);
+        children.addAll(right.childen);
+        System.arraycopy(left.counts, 0, counts, 0, left.childen.size());
+        System.arraycopy(right.counts, 0, counts, left.childen.size(), right.childen.size());
+        keys.addAll(left.keys);
+        keys.add(node.keys.get(index));
+        keys.addAll(right.keys);
+        int total = children.size();
+        //两个节点交界处的孩子:只剩一个孩子的节点无法修复它,它可能同样低于下界,合并或平分后在新的节点中继续修复
+        int junction = left.childen.size();
+        boolean merge = total <= degree;
+        int leftSize = merge ? total : total / 2;
+        boolean fromLeft = left.childen.size() > leftSize;
+        left.childen.clear();
+        left.keys.clear();
+        right.childen.clear();
+        right.keys.clear();
+        for (int i = 0; i < leftSize; i++) {
+            left.addChild(i, children.get(i), counts[i]);
+        }
+        left.keys.addAll(keys.subList(0, leftSize - 1));
+        if (merge) {
+            node.keys.remove(index);
+            node.counts[index] = left.total();
+            node.removeChild(index + 1);
+            recycle(right);
+            if (metrics != null) {
+                metrics.merge(false);
+            }
+            repairChildren(left, junction - 1, junction);
+            return;
+        }
+        for (int i = leftSize; i < total; i++) {
+            right.addChild(i - leftSize, children.get(i), counts[i]);
+        }
+        right.keys.addAll(keys.subList(leftSize, keys.size()));
+        node.keys.set(index, keys.get(leftSize - 1));
+        node.counts[index] = left.total();
+        node.counts[index + 1] = right.total();
+        if (metrics != null) {
+            metrics.borrow(fromLeft);
+        }
+        if (junction - 1 < leftSize) {
+            repairChildren(left, junction - 1, Math.min(junction, leftSize - 1));
+        }
+        if (junction >= leftSize) {
+            repairChildren(right, Math.max(0, junction - 1 - leftSize), junction - leftSize);
+        }
+    }
+
+    /**
+     * 用记录的关键字重新下降到叶子节点,仍然低于下界时与普通删除一样借用或合并
+     */
+    private void compactOne() {
+        K key = underfull.poll();
+        path.clear();
+        BPlusNode leaf = path.leafFor(key);
+        if (path.depth() > 0 && leaf.keys.size() < UNDER_BOUND) {
+            compactLeaf(path.depth() - 1);
+        }
+    }
+
+    /**
+     * 宽松删除留下的叶子节点可能远低于下界,借一个元素不一定够:与兄弟合计放得下时合并,
+     * 否则从兄弟移动元素直到两边都不低于下界,合计超过上界时两边一定都能达到下界
+     * @param level 父节点在路径中的层
+     */
+    private void compactLeaf(int level) {
+        BPlusNode parent = path.nodes.get(level);
+        int index = path.childIndexes[level];
+        BPlusNode leaf = parent.childen.get(index);
+        BPlusNode left = index > 0 ? parent.childen.get(index - 1) : null;
+        BPlusNode right = index < parent.keys.size() ? parent.childen.get(index + 1) : null;
+        if (left != null && left.keys.size() + leaf.keys.size() <= UPPER_BOUND) {
+            mergeLeaf(left, leaf, parent, index - 1, level);
+        } else if (right != null && leaf.keys.size() + right.keys.size() <= UPPER_BOUND) {
+            mergeLeaf(leaf, right, parent, index, level);
+        } else if (left != null) {
+            int moved = UNDER_BOUND - leaf.keys.size();
+            int from = left.keys.size() - moved;
+            leaf.keys.addAll(0, left.keys.subList(from, left.keys.size()));
+            leaf.datas.addAll(0, left.datas.subList(from, left.datas.size()));
+            left.keys.subList(from, left.keys.size()).clear();
+            left.datas.subList(from, left.datas.size()).clear();
+            parent.keys.set(index - 1, leaf.keys.get(0));
+            parent.counts[index - 1] -= moved;
+            parent.counts[index] += moved;
+            if (metrics != null) {
+                metrics.borrow(true);
+            }
+        } else {
+            int moved = UNDER_BOUND - leaf.keys.size();
+            leaf.keys.addAll(right.keys.subList(0, moved));
+            leaf.datas.addAll(right.datas.subList(0, moved));
+            right.keys.subList(0, moved).clear();
+            right.datas.subList(0, moved).clear();
+            parent.keys.set(index, right.keys.get(0));
+            parent.counts[index + 1] -= moved;
+            parent.counts[index] += moved;
+            if (metrics != null) {
+                metrics.borrow(false);
+            }
+        }
+    }
+
+    /**
+     * 叶子节点低于下界:先向左右兄弟借,借不了再与兄弟合并,兄弟节点由路径上记录的孩子下标直接得到
+     * @param level 父节点在路径中的层
+     */
+    private void rebalanceLeaf(int level) {
+        BPlusNode parent = path.nodes.get(level);
+        int index = path.childIndexes[level];
+        BPlusNode leaf = parent.childen.get(index);
+        BPlusNode left = index > 0 ? parent.childen.get(index - 1) : null;
+        BPlusNode right = index < parent.keys.size() ? parent.childen.get(index + 1) : null;
+        if (left != null && left.keys.size() > UNDER_BOUND) {
+            leaf.keys.add(0, left.keys.remove(left.keys.size() - 1));
+            leaf.datas.add(0, left.datas.remove(left.datas.size() - 1));
+            parent.keys.set(index - 1, leaf.keys.get(0));
+            parent.counts[index - 1]--;
+            parent.counts[index]++;
+            if (metrics != null) {
+                metrics.borrow(true);
+            }
+        } else if (right != null && right.keys.size() > UNDER_BOUND) {
+            leaf.keys.add(right.keys.remove(0));
+            leaf.datas.add(right.datas.remove(0));
+            parent.keys.set(index, right.keys.get(0));
+            parent.counts[index + 1]--;
+            parent.counts[index]++;
+            if (metrics != null) {
+                metrics.borrow(false);
+            }
+        } else if (left != null) {
+            mergeLeaf(left, leaf, parent, index - 1, level);
+        } else {
+            mergeLeaf(leaf, right, parent, index, level);
+        }
+    }
+
+    /**
+     * 合并后父节点可能低于下界,沿路径向上处理
+     */
+    private void mergeLeaf(BPlusNode left, BPlusNode right, BPlusNode parent, int separatorIndex, int level) {
+        mergeLeaf(left, right, parent, separatorIndex);
+        rebalanceInternal(level);
+    }
+
+    /**
+     * 右边的叶子节点并入左边,从叶子节点链表与父节点中删除右边的节点
+     */
+    private void mergeLeaf(BPlusNode left, BPlusNode right, BPlusNode parent, int separatorIndex) {
+        //逐个追加,addAll会先把right的列表复制成临时数组
+        for (int i = 0; i < right.keys.size(); i++) {
+            left.keys.add(right.keys.get(i));
+            left.datas.add(right.datas.get(i));
+        }
+        left.next = right.next;
+        if (right.next != null) {
+            right.next.pre = left;
+        } else {
+            tail = left;
+        }
+        parent.keys.remove(separatorIndex);
+        parent.counts[separatorIndex] = left.keys.size();
+        parent.removeChild(separatorIndex + 1);
+        recycle(right);
+        if (metrics != null) {
+            metrics.merge(true);
+        }
+    }
+
+    /**
+     * 非叶子节点低于下界时向兄弟借孩子或者与兄弟合并,根节点只剩一个孩子时由孩子成为新的根节点
+     * @param level 节点在路径中的层
+     */
+    private void rebalanceInternal(int level) {
+        BPlusNode node = path.nodes.get(level);
+        if (level == 0) {
+            if (node.keys.isEmpty()) {
+                root = node.childen.get(0);
+                root.isRoot = true;
+                height--;
+                recycle(node);
+            }
+            return;
+        }
+        if (node.keys.size() >= UNDER_BOUND) {
+            return;
+        }
+        BPlusNode parent = path.nodes.get(level - 1);
+        int index = path.childIndexes[level - 1];
+        BPlusNode left = index > 0 ? parent.childen.get(index - 1) : null;
+        BPlusNode right = index < parent.keys.size() ? parent.childen.get(index + 1) : null;
+        if (left != null && left.keys.size() > UNDER_BOUND) {
+            //父节点的分隔关键字下移,左兄弟最大的关键字上移,左兄弟最后一个孩子成为当前节点的第一个孩子
+            int last = left.childen.size() - 1;
+            int moved = left.counts[last];
+            node.keys.add(0, parent.keys.get(index - 1));
+            node.addChild(0, left.removeChild(last), moved);
+            parent.keys.set(index - 1, left.keys.remove(left.keys.size() - 1));
+            parent.counts[index - 1] -= moved;
+            parent.counts[index] += moved;
+            if (metrics != null) {
+                metrics.borrow(true);
+            }
+        } else if (right != null && right.keys.size() > UNDER_BOUND) {
+            int moved = right.counts[0];
+            node.keys.add(parent.keys.get(index));
+            node.addChild(node.childen.size(), right.removeChild(0), moved);
+            parent.keys.set(index, right.keys.remove(0));
+            parent.counts[index + 1] -= moved;
+            parent.counts[index] += moved;
+            if (metrics != null) {
+                metrics.borrow(false);
+            }
+        } else {
+            BPlusNode mergeLeft = left != null ? left : node;
+            BPlusNode mergeRight = left != null ? node : right;
+            int separatorIndex = left != null ? index - 1 : index;
+            mergeLeft.keys.add(parent.keys.get(separatorIndex));
+            for (int i = 0; i < mergeRight.childen.size(); i++) {
+                if (i > 0) {
+                    mergeLeft.keys.add(mergeRight.keys.get(i - 1));
+                }
+                mergeLeft.addChild(mergeLeft.childen.size(), mergeRight.childen.get(i), mergeRight.counts[i]);
+            }
+            parent.keys.remove(separatorIndex);
+            parent.counts[separatorIndex] += parent.counts[separatorIndex + 1];
+            parent.removeChild(separatorIndex + 1);
+            recycle(mergeRight);
+            if (metrics != null) {
+                metrics.merge(false);
+            }
+            rebalanceInternal(level - 1);
+        }
+    }
+
+    /**
+     * 分裂时分配新节点,空闲链表中有回收的节点时直接复用,否则按节点的最大容量创建,之后插入不再扩容
+     */
+    private BPlusNode newNode(boolean isLeaf) {
+        BPlusNode node = isLeaf ? freeLeaves.poll() : freeInternals.poll();
+        return node != null ? node : new BPlusNode(isLeaf, degree + 1);
+    }
+
+    /**
+     * 清空合并后被删除的节点并放入空闲链表,链表已满或者没有开启回收时丢弃
+     */
+    private void recycle(BPlusNode node) {
+        ArrayDeque<BPlusNode> free = node.isLeaf ? freeLeaves : freeInternals;
+        if (free.size() >= freeListCapacity) {
+            return;
+        }
+        node.keys.clear();
+        if (node.isLeaf) {
+            node.datas.clear();
         } else {
-            this.degree = degree;
+            node.childen.clear();
+        }
+        node.next = null;
+        node.pre = null;
+        node.isRoot = false;
+        free.push(node);
+    }
+
+    /**
+     * 根节点到叶子节点的下降路径,记录每一层的节点、在该节点中选择的孩子下标以及该节点负责范围的上界(不包含),
+     * 单个关键字的写入与删除以及批量操作共用,分裂与合并时直接用记录的下标定位父节点中的孩子,节点不需要父指针
+     */
+    private class Path {
+        private final List<BPlusNode> nodes = new ArrayList<>();
+        private final List<K> upperBounds = new ArrayList<>();
+        private int[] childIndexes = new int[8];
+        //当前叶子节点中上一次查找的位置,关键字升序时下一次查找从这里开始
+        private int leafFrom;
+
+        private int depth() {
+            return nodes.size() - 1;
+        }
+
+        private K upperBound() {
+            return upperBounds.get(depth());
+        }
+
+        private void clear() {
+            nodes.clear();
+            upperBounds.clear();
+        }
+
+        /**
+         * 叶子节点中的元素个数变化delta后,更新路径上每一层所选孩子的子树计数
+         */
+        private void addCounts(int delta) {
+            for (int level = 0; level < depth(); level++) {
+                nodes.get(level).counts[childIndexes[level]] += delta;
+            }
+        }
+
+        /**
+         * 沿每层最后一个孩子下降到tail,用于追加
+         */
+        private void rightmost() {
+            clear();
+            BPlusNode cur = root;
+            nodes.add(cur);
+            upperBounds.add(null);
+            while (!cur.isLeaf) {
+                if (depth() == childIndexes.length) {
+                    childIndexes = Arrays.copyOf(childIndexes, childIndexes.length << 1);
+                }
+                int childIndex = cur.childen.size() - 1;
+                childIndexes[depth()] = childIndex;
+                upperBounds.add(null);
+                cur = cur.childen.get(childIndex);
+                nodes.add(cur);
+            }
+            leafFrom = 0;
+        }
+
+        /**
+         * @return 返回key所在的叶子节点,关键字必须按升序传入
+         */
+        private BPlusNode leafFor(K key) {
+            int before = nodes.size();
+            while (!nodes.isEmpty() && upperBound() != null && key.compareTo(upperBound()) >= 0) {
+                nodes.remove(depth());
+                upperBounds.remove(upperBounds.size() - 1);
+            }
+            if (nodes.isEmpty()) {
+                nodes.add(root);
+                upperBounds.add(null);
+            }
+            BPlusNode cur = nodes.get(depth());
+            if (nodes.size() != before || !cur.isLeaf) {
+                leafFrom = 0;
+            }
+            while (!cur.isLeaf) {
+                int childIndex = cur.findChildIndexByCeilingKeyIndex(cur.findCeilingKeyIndex(key), key);
+                if (depth() == childIndexes.length) {
+                    childIndexes = Arrays.copyOf(childIndexes, childIndexes.length << 1);
+                }
+                childIndexes[depth()] = childIndex;
+                upperBounds.add(childIndex < cur.keys.size() ? cur.keys.get(childIndex) : upperBound());
+                cur = cur.childen.get(childIndex);
+                nodes.add(cur);
+            }
+            return cur;
+        }
+
+        /**
+         * 在当前叶子节点中从上一次的位置开始二分查找
+         * @return 存在返回下标,不存在返回-(插入位置)-1
+         */
+        private int searchLeaf(K key) {
+            List<K> keys = nodes.get(depth()).keys;
+            int left = leafFrom;
+            int right = keys.size() - 1;
+            int compares = 0;
+            while (left <= right) {
+                int mid = (left + right) >>> 1;
+                int compare = key.compareTo(keys.get(mid));
+                compares++;
+                if (compare > 0) {
+                    left = mid + 1;
+                } else if (compare < 0) {
+                    right = mid - 1;
+                } else {
+                    left = mid;
+                    break;
+                }
+            }
+            if (metrics != null) {
+                metrics.visit(compares);
+            }
+            leafFrom = left;
+            return left <= right ? left : -(left + 1);
+        }
+    }
+
+    /**
+     * 计算把count个元素按每组capacity个分组后各组的大小,
+     * 最后一组不足minSize时与前一组合并(不超过maxSize)或者与前一组平分
+     */
+    private static int[] chunkSizes(int count, int capacity, int minSize, int maxSize) {
+        int chunks = (count + capacity - 1) / capacity;
+        int[] sizes = new int[chunks];
+        Arrays.fill(sizes, capacity);
+        sizes[chunks - 1] = count - (chunks - 1) * capacity;
+        if (chunks > 1 && sizes[chunks - 1] < minSize) {
+            int total = capacity + sizes[chunks - 1];
+            if (total <= maxSize) {
+                sizes = Arrays.copyOf(sizes, chunks - 1);
+                sizes[chunks - 2] = total;
+            } else {
+                sizes[chunks - 2] = total - total / 2;
+                sizes[chunks - 1] = total / 2;
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * 批量构建过程中的状态,构建成功之前不会修改树本身,输入非法时树保持为空
+     */
+    private class BulkLoader {
+        private final int leafCapacity;
+        private final int fanout;
+        private final List<BPlusNode> leaves = new ArrayList<>();
+        private BPlusNode leaf;
+        private K lastKey;
+        private int count;
+
+        private BulkLoader(double fillFactor) {
+            if (size != 0) {
+                throw new IllegalStateException("bulkLoad requires an empty tree, current size: " + size);
+            }
+            if (!(fillFactor > 0 && fillFactor <= 1)) {
+                throw new IllegalArgumentException("fillFactor must be in (0, 1]: " + fillFactor);
+            }
+            this.leafCapacity = Math.max(Math.max(UNDER_BOUND, 1), (int) Math.round(UPPER_BOUND * fillFactor));
+            this.fanout = Math.max(UNDER_BOUND + 1, (int) Math.round(degree * fillFactor));
+        }
+
+        private void add(K key, V value) {
+            if (key == null) {
+                throw new IllegalArgumentException("bulkLoad does not accept null keys");
+            }
+            if (lastKey != null && lastKey.compareTo(key) >= 0) {
+                throw new IllegalArgumentException("bulkLoad input must be strictly increasing: " + lastKey + " before " + key);
+            }
+            if (leaf == null || leaf.keys.size() == leafCapacity) {
+                BPlusNode node = new BPlusNode(true);
+                if (leaf != null) {
+                    leaf.next = node;
+                    node.pre = leaf;
+                }
+                leaf = node;
+                leaves.add(node);
+            }
+            leaf.keys.add(key);
+            leaf.datas.add(value);
+            lastKey = key;
+            count++;
+        }
+
+        private void finish() {
+            if (count == 0) {
+                return;
+            }
+            rebalanceLastLeaf();
+            List<BPlusNode> level = leaves;
+            int levelCount = 1;
+            while (level.size() > 1) {
+                int[] sizes = chunkSizes(level.size(), Math.min(fanout, degree), UNDER_BOUND + 1, degree);
+                List<BPlusNode> parents = new ArrayList<>(sizes.length);
+                int from = 0;
+                for (int chunk : sizes) {
+                    BPlusNode parent = new BPlusNode(false);
+                    for (int i = from; i < from + chunk; i++) {
+                        BPlusNode child = level.get(i);
+                        parent.addChild(parent.childen.size(), child, child.total());
+                        if (i > from) {
+                            parent.keys.add(minKey(child));
+                        }
+                    }
+                    parents.add(parent);
+                    from += chunk;
+                }
+                level = parents;
+                levelCount++;
+            }
+            root = level.get(0);
+            root.isRoot = true;
+            head = leaves.get(0);
+            tail = leaf;
+            size = count;
+            height = levelCount;
+            modCount++;
+            underfull.clear();
+        }
+
+        /**
+         * 最后一个叶子节点不足下界时,与前一个叶子节点合并或者平分
+         */
+        private void rebalanceLastLeaf() {
+            int minKeys = Math.max(UNDER_BOUND, 1);
+            if (leaves.size() == 1 || leaf.keys.size() >= minKeys) {
+                return;
+            }
+            BPlusNode pre = leaf.pre;
+            int total = pre.keys.size() + leaf.keys.size();
+            if (total <= UPPER_BOUND) {
+                pre.keys.addAll(leaf.keys);
+                pre.datas.addAll(leaf.datas);
+                pre.next = null;
+                leaves.remove(leaves.size() - 1);
+                leaf = pre;
+            } else {
+                int from = total - total / 2;
+                List<K> movedKeys = pre.keys.subList(from, pre.keys.size());
+                List<V> movedDatas = pre.datas.subList(from, pre.datas.size());
+                leaf.keys.addAll(0, movedKeys);
+                leaf.datas.addAll(0, movedDatas);
+                movedKeys.clear();
+                movedDatas.clear();
+            }
+        }
+
+        private K minKey(BPlusNode node) {
+            while (!node.isLeaf) {
+                node = node.childen.get(0);
+            }
+            return node.keys.get(0);
+        }
+    }
+
+    /**
+     * rangeReduce的累加函数,直接接收关键字与数据,不为每个元素创建Map.Entry
+     */
+    @FunctionalInterface
+    public interface EntryAccumulator<R, K, V> {
+        R accumulate(R result, K key, V value);
+    }
+
+    @SuppressWarnings("serial")
+    private static class RangeReduceTask<K extends Comparable<K>, V, R> extends RecursiveTask<R> {
+        private final BPlusTree<K, V>.NodeSpliterator spliterator;
+        private final long threshold;
+        private final R identity;
+        private final EntryAccumulator<R, ? super K, ? super V> accumulator;
+        private final BinaryOperator<R> combiner;
+
+        private RangeReduceTask(BPlusTree<K, V>.NodeSpliterator spliterator, long threshold, R identity,
+                                EntryAccumulator<R, ? super K, ? super V> accumulator, BinaryOperator<R> combiner) {
+            this.spliterator = spliterator;
+            this.threshold = threshold;
+            this.identity = identity;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected R compute() {
+            BPlusTree<K, V>.NodeSpliterator prefix = spliterator.estimateSize() > threshold ? spliterator.trySplit() : null;
+            if (prefix == null) {
+                return spliterator.reduceRemaining(identity, accumulator);
+            }
+            RangeReduceTask<K, V, R> left = new RangeReduceTask<>(prefix, threshold, identity, accumulator, combiner);
+            left.fork();
+            R right = compute();
+            return combiner.apply(left.join(), right);
+        }
+    }
+
+    /**
+     * 覆盖node中[from, to)这些孩子子树的Spliterator,node为叶子节点时from/to为关键字下标
+     * 1: trySplit把孩子区间对半分,只剩一个孩子时先下降到该孩子再分,因此每个部分都是互不相交的完整子树
+     * 2: 开始遍历时定位到第一个子树最左边的叶子节点与最后一个子树最右边的叶子节点,只在这段叶子节点链表上移动
+     * 3: 边界之外的孩子在下降时就被剪掉,边界所在的叶子节点中逐个比较关键字
+     */
+    private class NodeSpliterator implements Spliterator<Map.Entry<K, V>> {
+        private final K low;
+        private final boolean lowInclusive;
+        private final K high;
+        private final boolean highInclusive;
+        private BPlusNode node;
+        private int from;
+        private int to;
+        private long estimate;
+        //遍历开始后的状态
+        private BPlusNode leaf;
+        private int index;
+        private BPlusNode endLeaf;
+
+        private NodeSpliterator(K low, boolean lowInclusive, K high, boolean highInclusive) {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.estimate = size;
+            setNode(root);
+        }
+
+        private NodeSpliterator(NodeSpliterator parent, int from, int to, long estimate) {
+            this.low = parent.low;
+            this.lowInclusive = parent.lowInclusive;
+            this.high = parent.high;
+            this.highInclusive = parent.highInclusive;
+            this.node = parent.node;
+            this.from = from;
+            this.to = to;
+            this.estimate = estimate;
+        }
+
+        /**
+         * 下降到node,并按边界剪掉范围之外的孩子
+         */
+        private void setNode(BPlusNode node) {
+            this.node = node;
+            if (node.isLeaf) {
+                from = 0;
+                to = node.keys.size();
+            } else {
+                from = low == null ? 0 : node.findChildIndexByCeilingKeyIndex(node.findCeilingKeyIndex(low), low);
+                to = high == null ? node.childen.size() : node.findChildIndexByCeilingKeyIndex(node.findCeilingKeyIndex(high), high) + 1;
+            }
+        }
+
+        @Override
+        public NodeSpliterator trySplit() {
+            if (leaf != null) {
+                return null;
+            }
+            while (!node.isLeaf && to - from == 1) {
+                setNode(node.childen.get(from));
+            }
+            if (node.isLeaf || to - from < 2) {
+                return null;
+            }
+            int mid = (from + to) >>> 1;
+            long prefixEstimate = estimate * (mid - from) / (to - from);
+            NodeSpliterator prefix = new NodeSpliterator(this, from, mid, prefixEstimate);
+            from = mid;
+            estimate -= prefixEstimate;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            start();
+            while (leaf != null) {
+                if (index < leaf.keys.size()) {
+                    K key = leaf.keys.get(index);
+                    V value = leaf.datas.get(index++);
+                    if (belowLow(key)) {
+                        continue;
+                    }
+                    if (aboveHigh(key)) {
+                        leaf = null;
+                        return false;
+                    }
+                    action.accept(new AbstractMap.SimpleImmutableEntry<>(key, value));
+                    return true;
+                }
+                leaf = leaf == endLeaf ? null : leaf.next;
+                index = 0;
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+            reduceRemaining(action, (consumer, key, value) -> {
+                consumer.accept(new AbstractMap.SimpleImmutableEntry<>(key, value));
+                return consumer;
+            });
+        }
+
+        private <R> R reduceRemaining(R result, EntryAccumulator<R, ? super K, ? super V> accumulator) {
+            start();
+            while (leaf != null) {
+                for (; index < leaf.keys.size(); index++) {
+                    K key = leaf.keys.get(index);
+                    if (belowLow(key)) {
+                        continue;
+                    }
+                    if (aboveHigh(key)) {
+                        leaf = null;
+                        return result;
+                    }
+                    result = accumulator.accumulate(result, key, leaf.datas.get(index));
+                }
+                leaf = leaf == endLeaf ? null : leaf.next;
+                index = 0;
+            }
+            return result;
+        }
+
+        private void start() {
+            if (leaf != null || node == null) {
+                return;
+            }
+            if (from >= to) {
+                node = null;
+                return;
+            }
+            if (node.isLeaf) {
+                leaf = node;
+                endLeaf = node;
+                index = from;
+            } else {
+                leaf = node.childen.get(from);
+                while (!leaf.isLeaf) {
+                    leaf = leaf.childen.get(0);
+                }
+                endLeaf = node.childen.get(to - 1);
+                while (!endLeaf.isLeaf) {
+                    endLeaf = endLeaf.childen.get(endLeaf.childen.size() - 1);
+                }
+                index = 0;
+            }
+            node = null;
+        }
+
+        private boolean belowLow(K key) {
+            if (low == null) {
+                return false;
+            }
+            int compare = key.compareTo(low);
+            return compare < 0 || compare == 0 && !lowInclusive;
+        }
+
+        private boolean aboveHigh(K key) {
+            if (high == null) {
+                return false;
+            }
+            int compare = key.compareTo(high);
+            return compare > 0 || compare == 0 && !highInclusive;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | NONNULL;
+        }
+
+        @Override
+        public Comparator<? super Map.Entry<K, V>> getComparator() {
+            return Map.Entry.comparingByKey();
+        }
+    }
+
+    /**
+     * 沿叶子节点链表惰性遍历的有序游标,升序沿next,降序沿pre
+     * 1: 创建或seek时只做一次从根节点到叶子节点的查找,之后每次next只移动叶子节点与下标,不为元素分配对象
+     * 2: 每次next返回true后通过key()/value()读取当前元素,因此遍历任意大的范围只占用常数内存
+     * 遍历过程中修改树的结果是未定义的
+     */
+    public class Cursor {
+        private final K from;
+        private final boolean fromInclusive;
+        private final K to;
+        private final boolean toInclusive;
+        private final boolean descending;
+        //下一个待返回元素所在的叶子节点与下标,leaf为null表示遍历结束
+        private BPlusNode leaf;
+        private int index;
+        private BPlusNode currentLeaf;
+        private int currentIndex;
+
+        private Cursor(K from, boolean fromInclusive, K to, boolean toInclusive, boolean descending) {
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.descending = descending;
+            reset();
+        }
+
+        /**
+         * 回到遍历的起点,升序为from,降序为to
+         */
+        public Cursor reset() {
+            K start = descending ? to : from;
+            boolean inclusive = descending ? toInclusive : fromInclusive;
+            if (start == null) {
+                leaf = descending ? tail : head;
+                index = descending ? leaf.keys.size() - 1 : 0;
+            } else {
+                position(start, inclusive);
+            }
+            currentLeaf = null;
+            return this;
+        }
+
+        /**
+         * 跳到key的位置:升序时下一个元素为大于等于key的最小元素,降序时为小于等于key的最大元素,
+         * key超出游标起点一侧的边界时回到起点
+         */
+        public Cursor seek(K key) {
+            K start = descending ? to : from;
+            if (key == null || start != null && (descending ? key.compareTo(start) >= 0 : key.compareTo(start) <= 0)) {
+                return reset();
+            }
+            position(key, true);
+            currentLeaf = null;
+            return this;
+        }
+
+        /**
+         * 沿遍历方向跳过count个元素,之后的next返回跳过后的第一个元素,用于分页;
+         * 先用rank得到下一个元素的下标,再按子树计数直接定位,O(log n),不逐个移动
+         */
+        public Cursor skip(int count) {
+            if (count < 0) {
+                throw new IllegalArgumentException("count must not be negative: " + count);
+            }
+            moveIntoLeaf();
+            currentLeaf = null;
+            if (leaf == null || count == 0) {
+                return this;
+            }
+            int target = countBefore(leaf.keys.get(index), false) + (descending ? -count : count);
+            if (target < 0 || target >= size) {
+                leaf = null;
+                return this;
+            }
+            BPlusNode cur = root;
+            while (!cur.isLeaf) {
+                int childIndex = 0;
+                while (target >= cur.counts[childIndex]) {
+                    target -= cur.counts[childIndex];
+                    childIndex++;
+                }
+                cur = cur.childen.get(childIndex);
+            }
+            leaf = cur;
+            index = target;
+            return this;
+        }
+
+        /**
+         * @return 移动到下一个元素,范围内没有更多元素时返回false
+         */
+        public boolean next() {
+            moveIntoLeaf();
+            if (leaf == null || beyondEnd(leaf.keys.get(index))) {
+                leaf = null;
+                currentLeaf = null;
+                return false;
+            }
+            currentLeaf = leaf;
+            currentIndex = index;
+            index += descending ? -1 : 1;
+            return true;
+        }
+
+        public K key() {
+            checkCurrent();
+            return currentLeaf.keys.get(currentIndex);
+        }
+
+        public V value() {
+            checkCurrent();
+            return currentLeaf.datas.get(currentIndex);
+        }
+
+        /**
+         * 下标越过当前叶子节点时沿链表移动到下一个(降序为上一个)非空的叶子节点
+         */
+        private void moveIntoLeaf() {
+            if (descending) {
+                while (leaf != null && index < 0) {
+                    leaf = leaf.pre;
+                    index = leaf == null ? -1 : leaf.keys.size() - 1;
+                }
+            } else {
+                while (leaf != null && index >= leaf.keys.size()) {
+                    leaf = leaf.next;
+                    index = 0;
+                }
+            }
+        }
+
+        private void checkCurrent() {
+            if (currentLeaf == null) {
+                throw new NoSuchElementException("cursor is not positioned on an element, call next() first");
+            }
+        }
+
+        private boolean beyondEnd(K key) {
+            if (descending) {
+                if (from == null) {
+                    return false;
+                }
+                int compare = key.compareTo(from);
+                return compare < 0 || compare == 0 && !fromInclusive;
+            }
+            if (to == null) {
+                return false;
+            }
+            int compare = key.compareTo(to);
+            return compare > 0 || compare == 0 && !toInclusive;
+        }
+
+        /**
+         * 查找key所在的叶子节点,升序定位到第一个大于(等于)key的下标,降序定位到最后一个小于(等于)key的下标,
+         * 超出当前叶子节点时由next沿链表移动
+         */
+        private void position(K key, boolean inclusive) {
+            leaf = root.findChildNode(key);
+            int ceilingKeyIndex = leaf.findCeilingKeyIndex(key);
+            boolean found = ceilingKeyIndex < leaf.keys.size() && key.compareTo(leaf.keys.get(ceilingKeyIndex)) == 0;
+            if (descending) {
+                index = found && inclusive ? ceilingKeyIndex : ceilingKeyIndex - 1;
+            } else {
+                index = found && !inclusive ? ceilingKeyIndex + 1 : ceilingKeyIndex;
+            }
+        }
+    }
+
+    /**
+     * 子范围或者降序的视图,只记录边界与方向,所有操作转换为对整棵树的操作后检查边界
+     * lo/hi为升序意义下的下界与上界,null表示不设边界;descending只改变遍历与导航的方向
+     */
+    private class SubMap extends AbstractMap<K, V> implements NavigableMap<K, V> {
+        private final K lo;
+        private final boolean loInclusive;
+        private final K hi;
+        private final boolean hiInclusive;
+        private final boolean descending;
+
+        private SubMap(K lo, boolean loInclusive, K hi, boolean hiInclusive, boolean descending) {
+            this.lo = lo;
+            this.loInclusive = loInclusive;
+            this.hi = hi;
+            this.hiInclusive = hiInclusive;
+            this.descending = descending;
+        }
+
+        private boolean tooLow(K key) {
+            if (lo == null) {
+                return false;
+            }
+            int compare = key.compareTo(lo);
+            return compare < 0 || compare == 0 && !loInclusive;
+        }
+
+        private boolean tooHigh(K key) {
+            if (hi == null) {
+                return false;
+            }
+            int compare = key.compareTo(hi);
+            return compare > 0 || compare == 0 && !hiInclusive;
+        }
+
+        private boolean inRange(K key) {
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        /**
+         * 新视图的边界是否落在本视图内,不包含的边界可以与本视图不包含的边界相等
+         */
+        private boolean inRange(K key, boolean inclusive) {
+            if (inclusive) {
+                return inRange(key);
+            }
+            return (lo == null || key.compareTo(lo) >= 0) && (hi == null || key.compareTo(hi) <= 0);
+        }
+
+        private Map.Entry<K, V> absLowest() {
+            Map.Entry<K, V> entry = lo == null ? BPlusTree.this.firstEntry()
+                    : loInclusive ? BPlusTree.this.ceilingEntry(lo) : BPlusTree.this.higherEntry(lo);
+            return entry == null || tooHigh(entry.getKey()) ? null : entry;
+        }
+
+        private Map.Entry<K, V> absHighest() {
+            Map.Entry<K, V> entry = hi == null ? BPlusTree.this.lastEntry()
+                    : hiInclusive ? BPlusTree.this.floorEntry(hi) : BPlusTree.this.lowerEntry(hi);
+            return entry == null || tooLow(entry.getKey()) ? null : entry;
+        }
+
+        private Map.Entry<K, V> absCeiling(K key, boolean inclusive) {
+            if (key == null) {
+                return null;
+            }
+            if (tooLow(key)) {
+                return absLowest();
+            }
+            Map.Entry<K, V> entry = inclusive ? BPlusTree.this.ceilingEntry(key) : BPlusTree.this.higherEntry(key);
+            return entry == null || tooHigh(entry.getKey()) ? null : entry;
+        }
+
+        private Map.Entry<K, V> absFloor(K key, boolean inclusive) {
+            if (key == null) {
+                return null;
+            }
+            if (tooHigh(key)) {
+                return absHighest();
+            }
+            Map.Entry<K, V> entry = inclusive ? BPlusTree.this.floorEntry(key) : BPlusTree.this.lowerEntry(key);
+            return entry == null || tooLow(entry.getKey()) ? null : entry;
+        }
+
+        private K keyOrNull(Map.Entry<K, V> entry) {
+            return entry == null ? null : entry.getKey();
+        }
+
+        private K keyOrThrow(Map.Entry<K, V> entry) {
+            if (entry == null) {
+                throw new NoSuchElementException("map is empty");
+            }
+            return entry.getKey();
+        }
+
+        @Override
+        public int size() {
+            return countRange(lo, loInclusive, hi, hiInclusive);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return absLowest() == null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean containsKey(Object key) {
+            return key != null && inRange((K) key) && BPlusTree.this.containsKey(key);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            return key != null && inRange((K) key) ? BPlusTree.this.get(key) : null;
+        }
+
+        /**
+         * @throws IllegalArgumentException key不在视图范围内
+         */
+        @Override
+        public V put(K key, V value) {
+            if (key != null && !inRange(key)) {
+                throw new IllegalArgumentException("key out of range: " + key);
+            }
+            return BPlusTree.this.put(key, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V remove(Object key) {
+            return key != null && inRange((K) key) ? BPlusTree.this.remove(key) : null;
+        }
+
+        /**
+         * 整段摘除,不逐个删除
+         */
+        @Override
+        public void clear() {
+            BPlusTree.this.removeRange(lo, loInclusive, hi, hiInclusive);
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return descending ? Collections.reverseOrder() : null;
+        }
+
+        @Override
+        public Map.Entry<K, V> firstEntry() {
+            return descending ? absHighest() : absLowest();
+        }
+
+        @Override
+        public Map.Entry<K, V> lastEntry() {
+            return descending ? absLowest() : absHighest();
+        }
+
+        @Override
+        public Map.Entry<K, V> pollFirstEntry() {
+            Map.Entry<K, V> entry = firstEntry();
+            if (entry != null) {
+                BPlusTree.this.remove(entry.getKey());
+            }
+            return entry;
+        }
+
+        @Override
+        public Map.Entry<K, V> pollLastEntry() {
+            Map.Entry<K, V> entry = lastEntry();
+            if (entry != null) {
+                BPlusTree.this.remove(entry.getKey());
+            }
+            return entry;
+        }
+
+        @Override
+        public Map.Entry<K, V> lowerEntry(K key) {
+            return descending ? absCeiling(key, false) : absFloor(key, false);
+        }
+
+        @Override
+        public Map.Entry<K, V> floorEntry(K key) {
+            return descending ? absCeiling(key, true) : absFloor(key, true);
+        }
+
+        @Override
+        public Map.Entry<K, V> ceilingEntry(K key) {
+            return descending ? absFloor(key, true) : absCeiling(key, true);
+        }
+
+        @Override
+        public Map.Entry<K, V> higherEntry(K key) {
+            return descending ? absFloor(key, false) : absCeiling(key, false);
+        }
+
+        @Override
+        public K lowerKey(K key) {
+            return keyOrNull(lowerEntry(key));
+        }
+
+        @Override
+        public K floorKey(K key) {
+            return keyOrNull(floorEntry(key));
+        }
+
+        @Override
+        public K ceilingKey(K key) {
+            return keyOrNull(ceilingEntry(key));
+        }
+
+        @Override
+        public K higherKey(K key) {
+            return keyOrNull(higherEntry(key));
+        }
+
+        @Override
+        public K firstKey() {
+            return keyOrThrow(firstEntry());
+        }
+
+        @Override
+        public K lastKey() {
+            return keyOrThrow(lastEntry());
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new EntrySet();
+        }
+
+        @Override
+        public NavigableSet<K> keySet() {
+            return navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<K> navigableKeySet() {
+            return new KeySet<>(this);
+        }
+
+        @Override
+        public NavigableSet<K> descendingKeySet() {
+            return descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public NavigableMap<K, V> descendingMap() {
+            return new SubMap(lo, loInclusive, hi, hiInclusive, !descending);
+        }
+
+        /**
+         * from/to按本视图的方向给出,降序视图中fromKey不小于toKey;为null时沿用本视图在该方向的边界
+         * @throws IllegalArgumentException 边界顺序颠倒或者超出本视图的范围
+         */
+        @Override
+        public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            K newLo = descending ? toKey : fromKey;
+            boolean newLoInclusive = descending ? toInclusive : fromInclusive;
+            K newHi = descending ? fromKey : toKey;
+            boolean newHiInclusive = descending ? fromInclusive : toInclusive;
+            if (newLo != null && newHi != null && newLo.compareTo(newHi) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey: " + fromKey + " > " + toKey);
+            }
+            if (newLo != null && !inRange(newLo, newLoInclusive)) {
+                throw new IllegalArgumentException("key out of range: " + newLo);
+            }
+            if (newHi != null && !inRange(newHi, newHiInclusive)) {
+                throw new IllegalArgumentException("key out of range: " + newHi);
+            }
+            return new SubMap(newLo == null ? lo : newLo, newLo == null ? loInclusive : newLoInclusive,
+                    newHi == null ? hi : newHi, newHi == null ? hiInclusive : newHiInclusive, descending);
+        }
+
+        @Override
+        public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+            return subMap(null, true, toKey, inclusive);
+        }
+
+        @Override
+        public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+            return subMap(fromKey, inclusive, null, true);
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            return subMap(fromKey, true, toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            return headMap(toKey, false);
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            return tailMap(fromKey, true);
+        }
+
+        private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator(new Cursor(lo, loInclusive, hi, hiInclusive, descending));
+            }
+
+            @Override
+            public int size() {
+                return SubMap.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return SubMap.this.isEmpty();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry<?, ?> entry)) {
+                    return false;
+                }
+                Object key = entry.getKey();
+                return containsKey(key) && Objects.equals(get(key), entry.getValue());
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                if (!contains(o)) {
+                    return false;
+                }
+                SubMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+                return true;
+            }
+
+            @Override
+            public void clear() {
+                SubMap.this.clear();
+            }
         }
-        this.UPPER_BOUND = degree - 1;
-        this.UNDER_BOUND = UPPER_BOUND / 2;
-        //初始化时根节点同时为根节点与叶子节点
-        this.root = new BPlusNode(true, true);
-        head = root;
-        tail = root;
     }
 
-    public void put(K key, V value) {
-        if (key == null) {
-            return;
+    /**
+     * 在游标之上实现的迭代器,每次next为当前元素创建一个Entry,setValue直接写回树中;
+     * remove删除上一个元素后用seek重新定位,因为删除引起的合并与借位可能已经移动了游标所在的叶子节点
+     */
+    private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+        private final Cursor cursor;
+        private int expectedModCount = modCount;
+        //hasNext已经把游标移动到了下一个元素
+        private boolean advanced;
+        private boolean hasNext;
+        private K lastReturned;
+
+        private EntryIterator(Cursor cursor) {
+            this.cursor = cursor;
         }
-        root.put(key, value);
-    }
 
-    public V get(K key) {
-        if (key == null) {
-            return null;
+        @Override
+        public boolean hasNext() {
+            checkModCount();
+            if (!advanced) {
+                hasNext = cursor.next();
+                advanced = true;
+            }
+            return hasNext;
         }
-        return root.get(key);
-    }
 
-    public Map<K, V> range(K start, K end) {
-        if (start.compareTo(end) < 0 && start != null && end != null) {
-            return root.range(start, end);
-        } else {
-            return new HashMap<>();
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            advanced = false;
+            lastReturned = cursor.key();
+            return new IteratorEntry(lastReturned, cursor.value());
         }
-    }
 
-    public void remove(K key) {
-        root.remove(key);
-    }
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException("next() has not been called, or remove() was already called");
+            }
+            checkModCount();
+            BPlusTree.this.remove(lastReturned);
+            expectedModCount = modCount;
+            //lastReturned已经不在树中,seek之后的第一个元素就是它在遍历方向上的下一个元素
+            cursor.seek(lastReturned);
+            advanced = false;
+            lastReturned = null;
+        }
 
-    public int size() {
-        return size;
+        private void checkModCount() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
     }
 
-    public int height() {
-        return height;
-    }
+    @SuppressWarnings("serial")
+    private class IteratorEntry extends AbstractMap.SimpleEntry<K, V> {
+        private IteratorEntry(K key, V value) {
+            super(key, value);
+        }
 
-    public boolean containsKey(K key) {
-        if (key == null) return false;
-        return root.containsKey(key);
+        @Override
+        public V setValue(V value) {
+            BPlusTree.this.put(getKey(), value);
+            return super.setValue(value);
+        }
     }
 
     /**
-     * @param key
-     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     * 关键字集合视图,所有操作委托给对应的NavigableMap(整棵树或者子范围视图)
      */
-    public K floorKey(K key) {
-        if (key == null) return null;
-        return root.floorKey(key);
-    }
+    private static class KeySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+        private final NavigableMap<E, ?> map;
 
-    /**
-     * @param key
-     * @return 返回大于等于给定元素中最大的元素,不存在返回null
-     */
-    public K ceilingKey(K key) {
-        if (key == null) return null;
-        return root.ceilingKey(key);
-    }
+        private KeySet(NavigableMap<E, ?> map) {
+            this.map = map;
+        }
 
-    public K firstKey() {
-        return head.keys.get(0);
-    }
+        @Override
+        public Iterator<E> iterator() {
+            Iterator<? extends Map.Entry<E, ?>> entries = map.entrySet().iterator();
+            return new Iterator<E>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
 
-    public K lastKey() {
-        return tail.keys.get(tail.keys.size() - 1);
-    }
+                @Override
+                public E next() {
+                    return entries.next().getKey();
+                }
 
-    public String printTree() {
-        return root.printTree();
+                @Override
+                public void remove() {
+                    entries.remove();
+                }
+            };
+        }
+
+        @Override
+        public Iterator<E> descendingIterator() {
+            return descendingSet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return map.containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!map.containsKey(o)) {
+                return false;
+            }
+            map.remove(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return map.comparator();
+        }
+
+        @Override
+        public E lower(E e) {
+            return map.lowerKey(e);
+        }
+
+        @Override
+        public E floor(E e) {
+            return map.floorKey(e);
+        }
+
+        @Override
+        public E ceiling(E e) {
+            return map.ceilingKey(e);
+        }
+
+        @Override
+        public E higher(E e) {
+            return map.higherKey(e);
+        }
+
+        @Override
+        public E first() {
+            return map.firstKey();
+        }
+
+        @Override
+        public E last() {
+            return map.lastKey();
+        }
+
+        @Override
+        public E pollFirst() {
+            Map.Entry<E, ?> entry = map.pollFirstEntry();
+            return entry == null ? null : entry.getKey();
+        }
+
+        @Override
+        public E pollLast() {
+            Map.Entry<E, ?> entry = map.pollLastEntry();
+            return entry == null ? null : entry.getKey();
+        }
+
+        @Override
+        public NavigableSet<E> descendingSet() {
+            return new KeySet<>(map.descendingMap());
+        }
+
+        @Override
+        public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+            return new KeySet<>(map.subMap(fromElement, fromInclusive, toElement, toInclusive));
+        }
+
+        @Override
+        public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+            return new KeySet<>(map.headMap(toElement, inclusive));
+        }
+
+        @Override
+        public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+            return new KeySet<>(map.tailMap(fromElement, inclusive));
+        }
+
+        @Override
+        public SortedSet<E> subSet(E fromElement, E toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> headSet(E toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<E> tailSet(E fromElement) {
+            return tailSet(fromElement, true);
+        }
     }
 
 
@@ -114,9 +2652,10 @@ public class BPlusTree<K extends Comparable<K>, V> {
         private List<V> datas;
         //孩子节点
         private List<BPlusNode> childen;
+        //非叶子节点中每个孩子子树的元素个数,与childen一一对应,超出childen.size()的部分无意义
+        private int[] counts;
         private BPlusNode next;
         private BPlusNode pre;
-        private BPlusNode parent;
 
         public BPlusNode(boolean isRoot, boolean isLeaf) {
             this(isLeaf);
@@ -130,6 +2669,21 @@ public class BPlusTree<K extends Comparable<K>, V> {
                 datas = new ArrayList<>();
             } else {
                 childen = new ArrayList<>();
+                counts = new int[4];
+            }
+        }
+
+        /**
+         * @param capacity 列表的初始容量,分裂产生的节点直接按节点能容纳的最大元素个数分配
+         */
+        private BPlusNode(boolean isLeaf, int capacity) {
+            this.isLeaf = isLeaf;
+            keys = new ArrayList<>(capacity);
+            if (isLeaf) {
+                datas = new ArrayList<>(capacity);
+            } else {
+                childen = new ArrayList<>(capacity);
+                counts = new int[capacity];
             }
         }
 
@@ -149,125 +2703,6 @@ public class BPlusTree<K extends Comparable<K>, V> {
             return cur;
         }
 
-        public void put(K key, V value) {
-            findChildNode(key).doPut(key, value);
-        }
-
-        private void doPut(K key, V value) {
-            int index = contains(key);
-            if (index != -1 || keys.size() < UPPER_BOUND) {
-                putKeyAndValue(key, value);
-                if (height == 0) {
-                    height = 1;
-                }
-            } else {
-                size++;
-                spite(key, value);
-            }
-        }
-
-        public void putKeyAndValue(K key, V value) {
-            int left = 0;
-            int right = keys.size() - 1;
-            while (left <= right) {
-                int mid = left + ((right - left) >> 1);
-                if (key.compareTo(keys.get(mid)) == 0) {
-                    datas.set(mid, value);
-                    break;
-                } else if (key.compareTo(keys.get(mid)) < 0) {
-                    right = mid - 1;
-                } else {
-                    left = mid + 1;
-                }
-            }
-            //超过keys最大值
-            if (left > right) {
-                size++;
-                keys.add(left, key);
-                datas.add(left, value);
-            }
-        }
-
-        /**
-         * 叶子节点添加元素后所处的位置需要进行分裂
-         * @param key
-         */
-        public void spite(K key, V value) {
-            //1:将当前数据列表分裂为两个节点
-            BPlusNode left = new BPlusNode(true);
-            BPlusNode right = new BPlusNode(true);
-            handlePreAndNext(left, right);
-            copyKeyAndValueToNewNode(key, value, left, right);
-            if (parent != null) {
-                //6:在根节点的孩子节点列表中删除原节点,同时将分裂出的两个节点插入父节点的孩子节点列表,并将分裂前的节点置空
-                int index = parent.childen.indexOf(this);
-                left.parent = parent;
-                right.parent = parent;
-                parent.childen.remove(this);
-                parent.childen.add(index, left);
-                parent.childen.add(index + 1, right);
-                parent.keys.add(index, right.keys.get(0));
-                keys = null;
-                childen = null;
-                parent.insertMatain();
-                parent = null;
-            } else {
-                isRoot = false;
-                height++;
-                root = new BPlusNode(true, false);
-                left.parent = root;
-                right.parent = root;
-                root.childen.add(left);
-                root.childen.add(right);
-                root.keys.add(right.keys.get(0));
-                keys = null;
-                childen = null;
-            }
-        }
-
-        private void insertMatain() {
-            if (keys.size() <= UPPER_BOUND) {
-                return;
-            }
-            BPlusNode left = new BPlusNode(false);
-            BPlusNode right = new BPlusNode(false);
-            int downMinIndex = UPPER_BOUND / 2 + 1;
-            left.childen = new ArrayList<>(childen.subList(0, downMinIndex));
-            for (BPlusNode child : left.childen) {
-                child.parent = left;
-            }
-            right.childen = new ArrayList<>(childen.subList(downMinIndex, childen.size()));
-            for (BPlusNode child : right.childen) {
-                child.parent = right;
-            }
-            left.keys = new ArrayList<>(keys.subList(0, downMinIndex - 1));
-            right.keys = new ArrayList<>(keys.subList(downMinIndex, keys.size()));
-            if (parent != null) {
-                int index = parent.childen.indexOf(this);
-                parent.childen.remove(this);
-                left.parent = parent;
-                right.parent = parent;
-                parent.childen.add(index, left);
-                parent.childen.add(index + 1, right);
-                parent.keys.add(index, keys.get(downMinIndex - 1));
-                keys = null;
-                childen = null;
-                parent.insertMatain();
-                parent = null;
-            } else {
-                isRoot = false;
-                height++;
-                root = new BPlusNode(true, false);
-                left.parent = root;
-                right.parent = root;
-                root.childen.add(left);
-                root.childen.add(right);
-                root.keys.add(keys.get(downMinIndex - 1));
-                keys = null;
-                childen = null;
-            }
-        }
-
         public V get(K key) {
             return findChildNode(key).doGet(key);
         }
@@ -285,11 +2720,44 @@ public class BPlusTree<K extends Comparable<K>, V> {
             return findChildNode(key).doCeilingKey(key);
         }
 
+        public K lowerKey(K key) {
+            return findChildNode(key).doLowerKey(key);
+        }
+
+        public K higherKey(K key) {
+            return findChildNode(key).doHigherKey(key);
+        }
+
         private K doCeilingKey(K key) {
-            for (int i = 0; i < keys.size(); i++) {
-                if (key.compareTo(keys.get(i)) <= 0) {
-                    return keys.get(i);
-                }
+            return keyOrNext(findCeilingKeyIndex(key));
+        }
+
+        private K doHigherKey(K key) {
+            int index = findCeilingKeyIndex(key);
+            if (index < keys.size() && key.compareTo(keys.get(index)) == 0) {
+                index++;
+            }
+            return keyOrNext(index);
+        }
+
+        private K doFloorKey(K key) {
+            int index = findCeilingKeyIndex(key);
+            if (index < keys.size() && key.compareTo(keys.get(index)) == 0) {
+                return keys.get(index);
+            }
+            return keyOrPre(index - 1);
+        }
+
+        private K doLowerKey(K key) {
+            return keyOrPre(findCeilingKeyIndex(key) - 1);
+        }
+
+        /**
+         * @return 下标处的关键字,超出本节点时为下一个叶子节点的第一个元素
+         */
+        private K keyOrNext(int index) {
+            if (index < keys.size()) {
+                return keys.get(index);
             }
             BPlusNode cur = this.next;
             if (cur == null) {
@@ -298,11 +2766,12 @@ public class BPlusTree<K extends Comparable<K>, V> {
             return cur.keys.get(0);
         }
 
-        private K doFloorKey(K key) {
-            for (int i = keys.size() - 1; i <= 0; i--) {
-                if (key.compareTo(keys.get(i)) <= 0) {
-                    return keys.get(i);
-                }
+        /**
+         * @return 下标处的关键字,小于0时为上一个叶子节点的最后一个元素
+         */
+        private K keyOrPre(int index) {
+            if (index >= 0) {
+                return keys.get(index);
             }
             //由于叶子节点是有序链表,所以这个节点中不存在,那就一定是上一个节点的最后一个元素
             BPlusNode cur = this.pre;
@@ -319,41 +2788,40 @@ public class BPlusTree<K extends Comparable<K>, V> {
         private int contains(K key) {
             int left = 0;
             int right = keys.size() - 1;
+            int compares = 0;
+            int index = -1;
             while (left <= right) {
                 int mid = left + ((right - left) >> 1);
-                if (key.compareTo(keys.get(mid)) == 0) {
-                    return mid;
-                } else if (key.compareTo(keys.get(mid)) < 0) {
+                int compare = key.compareTo(keys.get(mid));
+                compares++;
+                if (compare == 0) {
+                    index = mid;
+                    break;
+                } else if (compare < 0) {
                     right = mid - 1;
                 } else {
                     left = mid + 1;
                 }
             }
-            return -1;
+            if (metrics != null) {
+                metrics.visit(compares);
+            }
+            return index;
         }
 
         private V doGet(K key) {
-            int left = 0;
-            int right = keys.size() - 1;
-            while (left <= right) {
-                int mid = left + ((right - left) >> 1);
-                if (key.compareTo(keys.get(mid)) == 0) {
-                    return datas.get(mid);
-                } else if (key.compareTo(keys.get(mid)) < 0) {
-                    right = mid - 1;
-                } else {
-                    left = mid + 1;
-                }
-            }
-            return null;
+            int index = contains(key);
+            return index == -1 ? null : datas.get(index);
         }
 
         public int findCeilingKeyIndex(K key) {
             int left = 0;
             int right = keys.size() - 1;
             int resIndex = keys.size();
+            int compares = 0;
             while (left <= right) {
                 int mid = left + ((right - left) >> 1);
+                compares++;
                 if (key.compareTo(keys.get(mid)) <= 0) {
                     resIndex = mid;
                     right = mid - 1;
@@ -361,51 +2829,52 @@ public class BPlusTree<K extends Comparable<K>, V> {
                     left = mid + 1;
                 }
             }
+            if (metrics != null) {
+                metrics.visit(compares);
+            }
             return resIndex;
         }
 
-        private void handlePreAndNext(BPlusNode left, BPlusNode right) {
-            //2:处理叶子节点链表的插入操作,分别考虑当前节点分裂为两个节点后的前后指针的重新指向,并且需要考虑当前节点是否是头尾的情况
-            if (pre != null) {
-                pre.next = left;
-                left.pre = pre;
-            } else {
-                head = left;
+        /**
+         * 在index处插入孩子以及它的子树计数
+         */
+        private void addChild(int index, BPlusNode child, int count) {
+            int n = childen.size();
+            if (n == counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(4, n << 1));
             }
-            if (next != null) {
-                next.pre = right;
-                right.next = next;
-            } else {
-                tail = right;
-            }
-            left.next = right;
-            right.pre = left;
-            //3：将分裂出的两个节点插入到叶子节点链表之后,将分裂前节点的前后引用置空
-            pre = null;
-            next = null;
-        }
-
-        private void copyKeyAndValueToNewNode(K key, V value, BPlusNode left, BPlusNode right) {
-            int mid = UPPER_BOUND / 2;
-            //4：将分裂前节点中的数据插入分裂后的两个节点中
-            left.keys = new ArrayList<>(keys.subList(0, mid));
-            left.datas = new ArrayList<>(datas.subList(0, mid));
-            right.keys = new ArrayList<>(keys.subList(mid, keys.size()));
-            right.datas = new ArrayList<>(datas.subList(mid, keys.size()));
-            //5:查找分裂前节点中的插入位置,决定本次插入的key在新链表中的插入节点位置
-            int ceilingKeyIndex = findCeilingKeyIndex(key);
-            if (ceilingKeyIndex < mid) {
-                left.keys.add(ceilingKeyIndex, key);
-                left.datas.add(ceilingKeyIndex, value);
-            } else {
-                int newIndex = ceilingKeyIndex - mid;
-                right.keys.add(newIndex, key);
-                right.datas.add(newIndex, value);
+            System.arraycopy(counts, index, counts, index + 1, n - index);
+            counts[index] = count;
+            childen.add(index, child);
+        }
+
+        private BPlusNode removeChild(int index) {
+            System.arraycopy(counts, index + 1, counts, index, childen.size() - index - 1);
+            return childen.remove(index);
+        }
+
+        /**
+         * @return 子树中的元素个数,非叶子节点为各孩子计数之和
+         */
+        private int total() {
+            if (isLeaf) {
+                return keys.size();
             }
+            int total = 0;
+            for (int i = 0; i < childen.size(); i++) {
+                total += counts[i];
+            }
+            return total;
         }
 
         private int findChildIndexByCeilingKeyIndex(int keyIndex, K key) {
-            return (keyIndex == keys.size() || key.compareTo(keys.get(keyIndex)) < 0) ? keyIndex : keyIndex + 1;
+            if (keyIndex == keys.size()) {
+                return keyIndex;
+            }
+            if (metrics != null) {
+                metrics.comparisons++;
+            }
+            return key.compareTo(keys.get(keyIndex)) < 0 ? keyIndex : keyIndex + 1;
         }
 
 
@@ -430,243 +2899,5 @@ public class BPlusTree<K extends Comparable<K>, V> {
             return sb.toString();
         }
 
-        /**
-         * 范围查找可以直接迭代整个链表,时间复杂度O(n),也可以利用多级索引的优势,结合ceiling或者floor
-         * 方法的特点得到范围中的头或者尾,然后从前往后或者从后往前都可以,时间复杂度O(log(n)) + length
-         * @param start 起始位置,不包含
-         * @param end 截止位置,包含
-         */
-        public Map<K, V> range(K start, K end) {
-            Map<K, V> result = new HashMap<>();
-            //1:先找到底层的start所处的叶子节点
-            BPlusNode cur = findChildNode(start);
-            //2:寻找第一个大于start的元素并记录其索引
-            int startIndex = -1;
-            for (int i = 0; i < cur.keys.size(); i++) {
-                if (cur.keys.get(i).compareTo(start) > 0) {
-                    startIndex = i;
-                    break;
-                }
-            }
-            //3:叶子节点中如果没有找到,那么本节点的下一个节点的起始位置就一定大于start
-            if (startIndex == -1) {
-                startIndex = 0;
-                cur = cur.next;
-            }
-            //4:从start位置开始迭代到end,当找到链表结尾或找到end后退出
-            while (cur != null && cur.keys.get(startIndex).compareTo(end) <= 0) {
-                result.put(cur.keys.get(startIndex), cur.datas.get(startIndex));
-                if (startIndex == cur.keys.size() - 1) {
-                    cur = cur.next;
-                    startIndex = 0;
-                } else {
-                    startIndex++;
-                }
-            }
-            return result;
-        }
-
-        public void remove(K key) {
-            findChildNode(key).doRemove(key);
-        }
-
-        private void doRemove(K key) {
-            if (containsKey(key)) {
-                return;
-            }
-            size--;
-            //1:如果给定的key位于root节点且是叶子节点,直接删除即可
-            if (this.isLeaf && this.isRoot) {
-                //只有一个根节点且关键字总数等于1,需要重置高度
-                if (this.keys.size() == 1) {
-                    height = 0;
-                }
-                removeKeyAndValue(key);
-            }
-            //2:关键字个数大于下界,即使删除后也不会低于下界,直接删除即可,若没有触发12,则说明删除后元素小于下界,需要左右借值操作
-            if (keys.size() > UNDER_BOUND && keys.size() > 2) {
-                removeKeyAndValue(key);
-                return;
-            }
-            //3:判断当前节点的是否存在前驱节点,若存在且前驱节点元素大于下界,并且前驱节点与当前节点拥有同样的父节点,则向前借
-            if (pre != null && pre.keys.size() > UNDER_BOUND && pre.parent == parent && pre.keys.size() > 2) {
-                //将前一个节点的最后一个元素删除后加入当前节点
-                keys.add(0, pre.keys.remove(pre.keys.size() - 1));
-                datas.add(0, pre.datas.remove(pre.datas.size() - 1));
-                //拿到前驱节点在父节点中的下标,将本次需要加入的前驱节点
-                int index = parent.childen.indexOf(pre);
-                parent.keys.set(index, keys.get(0));
-                removeKeyAndValue(key);
-            } else if (next != null && next.keys.size() > UNDER_BOUND && next.parent == parent && next.keys.size() > 2) {
-                //4:前驱节点借不了值的情况下向后驱节点借
-                keys.add(next.keys.remove(0));
-                datas.add(next.datas.remove(0));
-                int index = parent.childen.indexOf(this);
-                parent.keys.set(index, keys.get(0));
-                removeKeyAndValue(key);
-            } else if (pre != null && pre.parent == parent && (pre.keys.size() <= UNDER_BOUND || pre.keys.size() <= 2)) {
-                //5:前驱后继都借不了的情况下,将当前节点的对应关键字删除后,剩余关键字向前驱合并,随后将前驱与后继相连
-                removeKeyAndValue(key);
-                pre.keys.addAll(keys);
-                pre.datas.addAll(datas);
-                keys = pre.keys;
-                datas = pre.datas;
-                parent.childen.remove(pre);
-                pre.parent = null;
-                pre.keys = null;
-                pre.datas = null;
-                //6:前驱节点如果还存在前驱,则将前驱的前驱与当前节点相连接,断开当前节点的前驱节点
-                if (pre.pre != null) {
-                    BPlusNode temp = pre;
-                    temp.pre.next = this;
-                    pre = temp.pre;
-                    temp.pre = null;
-                    temp.next = null;
-                } else {
-                    //前驱没有前驱节点,说明前驱自身就是头节点
-                    head = this;
-                    pre.next = null;
-                    pre = null;
-                }
-                //7:如果删除的关键字在父结点中也存在,则删除父节点中对应的关键字
-                parent.keys.remove(parent.childen.indexOf(this));
-                if (parent.keys.size() > UPPER_BOUND && parent.keys.size() >= 2) {
-                    return;
-                }
-                parent.removeMatain();
-            } else if (next != null && next.parent == parent && (next.keys.size() <= UNDER_BOUND || next.keys.size() <= 2)) {
-                removeKeyAndValue(key);
-                keys.addAll(next.keys);
-                datas.addAll(next.datas);
-                next.parent = null;
-                next.keys = null;
-                next.datas = null;
-                parent.childen.remove(next);
-                if (next.next != null) {
-                    BPlusNode temp = next;
-                    temp.next.pre = this;
-                    next = temp.next;
-                    temp.pre = null;
-                    temp.next = null;
-                } else {
-                    tail = this;
-                    next.pre = null;
-                    next = null;
-                }
-                parent.keys.remove(parent.childen.indexOf(this));
-                if (parent.keys.size() > UPPER_BOUND && parent.keys.size() >= 2) {
-                    return;
-                }
-                parent.removeMatain();
-            }
-
-        }
-
-        private void removeMatain() {
-            if (!(childen.size() < UNDER_BOUND || childen.size() < 2)) {
-                return;
-            }
-            //8:如果父节点是根节点,就将合并后的叶子节点链表替换为父节点即可
-            if (isRoot) {
-                if (childen.size() > 2) {
-                    return;
-                }
-                root = childen.get(0);
-                root.parent = null;
-                root.isRoot = true;
-                keys = null;
-                childen = null;
-                height--;
-                return;
-            }
-            //9:说明父亲节点是非叶子节点,也就是说父亲节点在中间层
-            int index = parent.childen.indexOf(this);
-            int leftIndex = index - 1;
-            int rightIndex = index + 1;
-            BPlusNode leftBro = null;
-            BPlusNode rightBro = null;
-            if (leftIndex >= 0) {
-                leftBro = parent.childen.get(leftIndex);
-            }
-            if (rightIndex < parent.childen.size()) {
-                rightBro = parent.childen.get(rightIndex);
-            }
-            if (leftBro != null && leftBro.childen.size() > UNDER_BOUND && leftBro.childen.size() > 2) {
-                //10:删掉左边的最大的孩子,然后将其变成当前节点的孩子
-                BPlusNode brrow = leftBro.childen.get(leftBro.childen.size() - 1);
-                leftBro.childen.remove(leftBro.childen.size() - 1);
-                brrow.parent = this;
-                childen.add(0, brrow);
-                //11:从父亲节点中拿到左兄弟的下标
-                int preIndex = parent.childen.indexOf(leftBro);
-                keys.add(0, parent.keys.get(preIndex));
-                parent.keys.set(preIndex, leftBro.keys.remove(leftBro.keys.size() - 1));
-            } else if (rightBro != null && rightBro.childen.size() > UNDER_BOUND && rightBro.childen.size() > 2) {
-                //12:左边借不了再试试右边能否满足借值条件
-                BPlusNode brrow = rightBro.childen.get(0);
-                rightBro.childen.remove(0);
-                brrow.parent = this;
-                childen.add(0, brrow);
-                int nextIndex = parent.childen.indexOf(this);
-                keys.add(parent.keys.get(nextIndex));
-                parent.keys.set(nextIndex, leftBro.keys.remove(0));
-            } else if (leftBro != null && leftBro.childen.size() <= UNDER_BOUND && leftBro.childen.size() <= 2) {
-                //13:左右都无法满足借值条件则合并当前节点与左叶子节点
-                leftBro.childen.addAll(childen);
-                for (int i = 0; i < leftBro.childen.size(); i++) {
-                    leftBro.childen.get(i).parent = this;
-                }
-                int indexPost = parent.childen.indexOf(leftBro);
-                leftBro.keys.add(parent.keys.get(indexPost));
-                leftBro.keys.addAll(keys);
-                childen = leftBro.childen;
-                keys = leftBro.keys;
-                parent.childen.remove(leftBro);
-                leftBro.parent = null;
-                leftBro.keys = null;
-                leftBro.childen = null;
-                parent.keys.remove(parent.childen.indexOf(this));
-                if (parent.isRoot && (parent.childen.size() >= UNDER_BOUND && parent.childen.size() >= 2)) {
-                    return;
-                }
-                parent.removeMatain();
-            } else if (rightBro != null && rightBro.childen.size() <= UNDER_BOUND && rightBro.childen.size() <= 2) {
-                childen.addAll(rightBro.childen);
-                for (BPlusNode child : rightBro.childen) {
-                    child.parent = this;
-                }
-                int preIndex = parent.childen.indexOf(this);
-                keys.add(parent.keys.get(preIndex));
-                keys.addAll(rightBro.keys);
-                parent.childen.remove(rightBro);
-                rightBro.parent = null;
-                rightBro.keys = null;
-                rightBro.childen = null;
-                parent.keys.remove(parent.childen.indexOf(this));
-                if (parent.childen.size() >= UNDER_BOUND && parent.childen.size() >= 2) {
-                    return;
-                }
-                parent.removeMatain();
-            }
-        }
-
-        private void removeKeyAndValue(K key) {
-            int left = 0;
-            int right = keys.size() - 1;
-            while (left <= right) {
-                int mid = left + ((right - left) >> 1);
-                int compare = key.compareTo(keys.get(mid));
-                if (compare == 0) {
-                    keys.remove(mid);
-                    datas.remove(mid);
-                    break;
-                } else if (compare > 0) {
-                    left = mid + 1;
-                } else {
-                    right = mid - 1;
-                }
-            }
-        }
-
     }
 }
@@ -0,0 +1,291 @@
+package com.dsimpl.balanceTree;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * BPlusTree的运行指标,由{@link BPlusTree#enableMetrics()}开启,{@link BPlusTree#disableMetrics()}关闭
+ * 1: 关闭时树中的metrics字段为null,热路径上只多一次null判断;二分查找的比较次数先累加在局部变量中,每个节点只更新一次计数器
+ * 2: 计数器是普通的long字段,只由操作树的线程递增(BPlusTree本身不是线程安全的),JMX与JFR在其他线程读取到的是近似值
+ * 3: 分裂与合并同时作为JFR事件提交,只在录制开启了对应事件时才有开销;每秒一次记录全部计数器、树高与元素个数的周期事件
+ *    在registerMBean时注册:JFR与MBeanServer都强引用指标对象以及整棵树,只开启指标而不注册时,树可以直接被回收
+ * 4: 叶子节点填充率直方图在读取时遍历叶子节点链表计算,不在写操作中维护
+ */
+public class BPlusTreeMetrics implements BPlusTreeMetricsMBean {
+    public static final int FILL_BUCKETS = 10;
+    private final BPlusTree<?, ?> tree;
+    private final Runnable periodicHook = this::emitStatistics;
+    private ObjectName objectName;
+    long operations;
+    long leafSplits;
+    long internalSplits;
+    long leafMerges;
+    long internalMerges;
+    long borrowsFromLeft;
+    long borrowsFromRight;
+    long comparisons;
+    long nodeVisits;
+
+    BPlusTreeMetrics(BPlusTree<?, ?> tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * 以com.dsimpl.balanceTree:type=BPlusTree,name={name}注册到平台MBeanServer,同时注册JFR周期事件;
+     * 注册后树被全局引用,丢弃树之前必须调用{@link BPlusTree#disableMetrics()}注销
+     */
+    public synchronized void registerMBean(String name) {
+        if (objectName != null) {
+            throw new IllegalStateException("already registered as " + objectName);
+        }
+        try {
+            ObjectName objectName = new ObjectName("com.dsimpl.balanceTree:type=BPlusTree,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+            FlightRecorder.addPeriodicEvent(StatisticsEvent.class, periodicHook);
+        } catch (JMException e) {
+            throw new IllegalStateException("failed to register metrics MBean " + name, e);
+        }
+    }
+
+    synchronized void close() {
+        FlightRecorder.removePeriodicEvent(periodicHook);
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                throw new IllegalStateException("failed to unregister metrics MBean " + objectName, e);
+            } finally {
+                objectName = null;
+            }
+        }
+    }
+
+    /**
+     * 一次节点内的查找,compares为查找过程中关键字比较的次数
+     */
+    void visit(int compares) {
+        nodeVisits++;
+        comparisons += compares;
+    }
+
+    void split(boolean leaf, int newNodes) {
+        if (leaf) {
+            leafSplits += newNodes;
+        } else {
+            internalSplits += newNodes;
+        }
+        SplitEvent event = new SplitEvent();
+        if (event.shouldCommit()) {
+            event.leaf = leaf;
+            event.newNodes = newNodes;
+            event.height = tree.height();
+            event.commit();
+        }
+    }
+
+    void merge(boolean leaf) {
+        if (leaf) {
+            leafMerges++;
+        } else {
+            internalMerges++;
+        }
+        MergeEvent event = new MergeEvent();
+        if (event.shouldCommit()) {
+            event.leaf = leaf;
+            event.height = tree.height();
+            event.commit();
+        }
+    }
+
+    void borrow(boolean fromLeft) {
+        if (fromLeft) {
+            borrowsFromLeft++;
+        } else {
+            borrowsFromRight++;
+        }
+    }
+
+    @Override
+    public long getOperations() {
+        return operations;
+    }
+
+    @Override
+    public long getLeafSplits() {
+        return leafSplits;
+    }
+
+    @Override
+    public long getInternalSplits() {
+        return internalSplits;
+    }
+
+    @Override
+    public long getLeafMerges() {
+        return leafMerges;
+    }
+
+    @Override
+    public long getInternalMerges() {
+        return internalMerges;
+    }
+
+    @Override
+    public long getBorrowsFromLeft() {
+        return borrowsFromLeft;
+    }
+
+    @Override
+    public long getBorrowsFromRight() {
+        return borrowsFromRight;
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    @Override
+    public long getNodeVisits() {
+        return nodeVisits;
+    }
+
+    @Override
+    public double getComparisonsPerOperation() {
+        long operations = this.operations;
+        return operations == 0 ? 0 : (double) comparisons / operations;
+    }
+
+    @Override
+    public double getNodeVisitsPerOperation() {
+        long operations = this.operations;
+        return operations == 0 ? 0 : (double) nodeVisits / operations;
+    }
+
+    @Override
+    public int getHeight() {
+        return tree.height();
+    }
+
+    @Override
+    public int getSize() {
+        return tree.size();
+    }
+
+    @Override
+    public long[] getLeafFillHistogram() {
+        return tree.leafFillHistogram(FILL_BUCKETS);
+    }
+
+    @Override
+    public double getAverageLeafFillFactor() {
+        long[] histogram = getLeafFillHistogram();
+        long leaves = 0;
+        for (long count : histogram) {
+            leaves += count;
+        }
+        return leaves == 0 ? 0 : (double) tree.size() / (leaves * tree.UPPER_BOUND);
+    }
+
+    @Override
+    public void reset() {
+        operations = 0;
+        leafSplits = 0;
+        internalSplits = 0;
+        leafMerges = 0;
+        internalMerges = 0;
+        borrowsFromLeft = 0;
+        borrowsFromRight = 0;
+        comparisons = 0;
+        nodeVisits = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BPlusTreeMetrics{operations=" + operations + ", leafSplits=" + leafSplits + ", internalSplits=" + internalSplits
+                + ", leafMerges=" + leafMerges + ", internalMerges=" + internalMerges + ", borrowsFromLeft=" + borrowsFromLeft
+                + ", borrowsFromRight=" + borrowsFromRight + ", comparisons=" + comparisons + ", nodeVisits=" + nodeVisits
+                + ", height=" + tree.height() + "}";
+    }
+
+    private void emitStatistics() {
+        StatisticsEvent event = new StatisticsEvent();
+        event.name = objectName == null ? null : ObjectName.unquote(objectName.getKeyProperty("name"));
+        event.operations = operations;
+        event.leafSplits = leafSplits;
+        event.internalSplits = internalSplits;
+        event.leafMerges = leafMerges;
+        event.internalMerges = internalMerges;
+        event.borrowsFromLeft = borrowsFromLeft;
+        event.borrowsFromRight = borrowsFromRight;
+        event.comparisons = comparisons;
+        event.nodeVisits = nodeVisits;
+        event.height = tree.height();
+        event.size = tree.size();
+        event.commit();
+    }
+
+    @Name("com.dsimpl.balanceTree.Split")
+    @Label("B+ Tree Split")
+    @Category("B+ Tree")
+    static final class SplitEvent extends Event {
+        @Label("Leaf")
+        boolean leaf;
+        @Label("New Nodes")
+        int newNodes;
+        @Label("Height")
+        int height;
+    }
+
+    @Name("com.dsimpl.balanceTree.Merge")
+    @Label("B+ Tree Merge")
+    @Category("B+ Tree")
+    static final class MergeEvent extends Event {
+        @Label("Leaf")
+        boolean leaf;
+        @Label("Height")
+        int height;
+    }
+
+    @Name("com.dsimpl.balanceTree.Statistics")
+    @Label("B+ Tree Statistics")
+    @Category("B+ Tree")
+    @Period("1 s")
+    static final class StatisticsEvent extends Event {
+        @Label("MBean Name")
+        String name;
+        @Label("Operations")
+        long operations;
+        @Label("Leaf Splits")
+        long leafSplits;
+        @Label("Internal Splits")
+        long internalSplits;
+        @Label("Leaf Merges")
+        long leafMerges;
+        @Label("Internal Merges")
+        long internalMerges;
+        @Label("Borrows From Left")
+        long borrowsFromLeft;
+        @Label("Borrows From Right")
+        long borrowsFromRight;
+        @Label("Comparisons")
+        long comparisons;
+        @Label("Node Visits")
+        long nodeVisits;
+        @Label("Height")
+        int height;
+        @Label("Size")
+        int size;
+    }
+}
@@ -0,0 +1,41 @@
+package com.dsimpl.balanceTree;
+
+/**
+ * {@link BPlusTreeMetrics}暴露给JMX的只读属性
+ */
+public interface BPlusTreeMetricsMBean {
+    long getOperations();
+
+    long getLeafSplits();
+
+    long getInternalSplits();
+
+    long getLeafMerges();
+
+    long getInternalMerges();
+
+    long getBorrowsFromLeft();
+
+    long getBorrowsFromRight();
+
+    long getComparisons();
+
+    long getNodeVisits();
+
+    double getComparisonsPerOperation();
+
+    double getNodeVisitsPerOperation();
+
+    int getHeight();
+
+    int getSize();
+
+    /**
+     * @return 叶子节点填充率的直方图,第i个元素为填充率落在[i * 10%, (i + 1) * 10%)中的叶子节点个数,满节点计入最后一个
+     */
+    long[] getLeafFillHistogram();
+
+    double getAverageLeafFillFactor();
+
+    void reset();
+}
@@ -0,0 +1,776 @@
+package com.dsimpl.balanceTree;
+
+import java.util.Arrays;
+
+/**
+ * 写优化的缓冲B+树(B^ε树),适合随机关键字的大量写入
+ * 1: 除根节点外每个节点都带有一个按关键字排序的消息缓冲区,保存父节点转交给这棵子树、还没有下推的写操作,
+ *    put的消息为数据,remove的消息为墓碑;同一关键字较新的消息覆盖较旧的消息
+ * 2: put/remove只在根节点找到孩子并把消息放进孩子的缓冲区,不访问更下层的节点;一个非叶子节点所有孩子缓冲区中的消息总数
+ *    超过bufferCapacity时,把消息最多的那个孩子的缓冲区整批下推:孩子是非叶子节点时把消息分给它的孩子,必要时继续下推;
+ *    孩子是叶子节点时与叶子节点中的元素归并,这一批消息引起的分裂或者合并一次完成
+ * 3: 消息离根节点越近越新,get/floorKey/ceilingKey下降时先查看途经节点的缓冲区,遇到的第一条消息就是该关键字的最新状态
+ * 4: put/remove是盲写,不读取叶子节点,所以remove不返回旧值;元素个数只有在消息到达叶子节点后才能确定,size()会先下推全部消息
+ * 与{@link BPlusTree}相同,关键字大于等于分隔关键字的元素位于其右边的子树中
+ */
+public class BufferedBPlusTree<K extends Comparable<K>, V> {
+    //默认每个非叶子节点最多缓冲degree * DEFAULT_BUFFER_FACTOR条消息,即平均每个孩子DEFAULT_BUFFER_FACTOR条
+    public static final int DEFAULT_BUFFER_FACTOR = 16;
+    //删除消息
+    private static final Object TOMBSTONE = new Object();
+    public final int degree;
+    public final int UPPER_BOUND;
+    public final int UNDER_BOUND;
+    public final int bufferCapacity;
+    private Node root;
+    //已经到达叶子节点的元素个数
+    private int size;
+    private int height = 1;
+    //归并叶子节点与消息、合并两个缓冲区时使用的临时数组
+    private Object[] mergeKeys = new Object[0];
+    private Object[] mergeValues = new Object[0];
+    //根节点是叶子节点时,把一次put/remove包装成只有一条消息的批次
+    private final Object[] singleKey = new Object[1];
+    private final Object[] singleValue = new Object[1];
+
+    public BufferedBPlusTree(int degree) {
+        this(degree, Math.max(degree, 3) * DEFAULT_BUFFER_FACTOR);
+    }
+
+    /**
+     * @param bufferCapacity 每个非叶子节点的孩子缓冲区中消息总数的上限,越大每次下推的批次越大,写入越快,
+     *                       但每个节点的缓冲区也越大,查询在每一层多做的二分查找越长
+     */
+    public BufferedBPlusTree(int degree, int bufferCapacity) {
+        if (bufferCapacity < 1) {
+            throw new IllegalArgumentException("bufferCapacity must be positive: " + bufferCapacity);
+        }
+        this.degree = Math.max(degree, 3);
+        this.UPPER_BOUND = this.degree - 1;
+        this.UNDER_BOUND = UPPER_BOUND / 2;
+        this.bufferCapacity = bufferCapacity;
+        this.root = new Node(true, UPPER_BOUND);
+    }
+
+    public void put(K key, V value) {
+        if (key == null) {
+            return;
+        }
+        write(key, value);
+    }
+
+    /**
+     * 删除是一条墓碑消息,不检查关键字是否存在
+     */
+    public void remove(K key) {
+        if (key == null) {
+            return;
+        }
+        write(key, TOMBSTONE);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        Object value = lookup(key);
+        return value == TOMBSTONE ? null : (V) value;
+    }
+
+    public boolean containsKey(K key) {
+        return key != null && lookup(key) != TOMBSTONE;
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    public K floorKey(K key) {
+        return key == null ? null : lower(key, true);
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    public K ceilingKey(K key) {
+        return key == null ? null : higher(key, true);
+    }
+
+    public K firstKey() {
+        return higher(null, true);
+    }
+
+    public K lastKey() {
+        return lower(null, true);
+    }
+
+    /**
+     * 会先下推全部缓冲的消息
+     */
+    public int size() {
+        flush();
+        return size;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * 把所有缓冲区中的消息下推到叶子节点,之后树中只剩下已经生效的元素
+     */
+    public void flush() {
+        while (!root.isLeaf() && !flushAll(root)) {
+            fixRoot();
+        }
+        fixRoot();
+    }
+
+    private void write(K key, Object message) {
+        if (root.isLeaf()) {
+            singleKey[0] = key;
+            singleValue[0] = message;
+            applyToLeaf(root, singleKey, singleValue, 0, 1);
+            singleKey[0] = null;
+            singleValue[0] = null;
+        } else {
+            Node child = root.children[childIndex(root, key)];
+            if (insertPending(child, key, message)) {
+                root.buffered++;
+            }
+            while (root.buffered > bufferCapacity) {
+                flushChild(root, largestChild(root));
+            }
+        }
+        fixRoot();
+    }
+
+    /**
+     * @return 关键字的最新状态:数据,或者TOMBSTONE表示不存在
+     */
+    private Object lookup(K key) {
+        Node node = root;
+        while (true) {
+            if (node.pending > 0) {
+                int index = search(node.pendingKeys, node.pending, key);
+                if (index >= 0) {
+                    return node.pendingValues[index];
+                }
+            }
+            if (node.isLeaf()) {
+                int index = search(node.keys, node.size, key);
+                return index >= 0 ? node.values[index] : TOMBSTONE;
+            }
+            node = node.children[childIndex(node, key)];
+        }
+    }
+
+    /**
+     * 先找出任意一层中小于(等于)key的最大关键字,不管它是数据还是墓碑,再从根节点确认它的最新状态;
+     * 已经被删除时从它继续向左找,key为null表示不设上界
+     */
+    @SuppressWarnings("unchecked")
+    private K lower(K key, boolean inclusive) {
+        while (true) {
+            Object candidate = lowerAny(root, key, inclusive);
+            if (candidate == null || lookup((K) candidate) != TOMBSTONE) {
+                return (K) candidate;
+            }
+            key = (K) candidate;
+            inclusive = false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private K higher(K key, boolean inclusive) {
+        while (true) {
+            Object candidate = higherAny(root, key, inclusive);
+            if (candidate == null || lookup((K) candidate) != TOMBSTONE) {
+                return (K) candidate;
+            }
+            key = (K) candidate;
+            inclusive = false;
+        }
+    }
+
+    /**
+     * node的缓冲区与子树中小于(等于)key的最大关键字,子树中没有时退回到左边相邻的孩子
+     */
+    private Object lowerAny(Node node, K key, boolean inclusive) {
+        Object pending = node.pending > 0 ? floorIn(node.pendingKeys, node.pending, key, inclusive) : null;
+        Object below = null;
+        if (node.isLeaf()) {
+            below = floorIn(node.keys, node.size, key, inclusive);
+        } else {
+            for (int c = key == null ? node.size : childIndex(node, key); c >= 0 && below == null; c--) {
+                below = lowerAny(node.children[c], key, inclusive);
+            }
+        }
+        if (pending == null) {
+            return below;
+        }
+        return below == null || compare(pending, below) > 0 ? pending : below;
+    }
+
+    private Object higherAny(Node node, K key, boolean inclusive) {
+        Object pending = node.pending > 0 ? ceilingIn(node.pendingKeys, node.pending, key, inclusive) : null;
+        Object above = null;
+        if (node.isLeaf()) {
+            above = ceilingIn(node.keys, node.size, key, inclusive);
+        } else {
+            for (int c = key == null ? 0 : childIndex(node, key); c <= node.size && above == null; c++) {
+                above = higherAny(node.children[c], key, inclusive);
+            }
+        }
+        if (pending == null) {
+            return above;
+        }
+        return above == null || compare(pending, above) < 0 ? pending : above;
+    }
+
+    private Object floorIn(Object[] keys, int count, K key, boolean inclusive) {
+        if (key == null) {
+            return count > 0 ? keys[count - 1] : null;
+        }
+        int index = search(keys, count, key);
+        index = index >= 0 ? (inclusive ? index : index - 1) : -index - 2;
+        return index >= 0 ? keys[index] : null;
+    }
+
+    private Object ceilingIn(Object[] keys, int count, K key, boolean inclusive) {
+        if (key == null) {
+            return count > 0 ? keys[0] : null;
+        }
+        int index = search(keys, count, key);
+        index = index >= 0 ? (inclusive ? index : index + 1) : -index - 1;
+        return index < count ? keys[index] : null;
+    }
+
+    /**
+     * 下推node.children[c]缓冲区中的全部消息,孩子的缓冲区因此超过上限时继续下推,最后修复孩子的分裂或者不足下界
+     */
+    private void flushChild(Node node, int c) {
+        Node child = node.children[c];
+        node.buffered -= pushDown(child);
+        if (!child.isLeaf()) {
+            flushOverflow(child);
+        }
+        fixChild(node, c);
+    }
+
+    /**
+     * 缓冲的消息超过上限时不断下推消息最多的孩子;孩子合并使node只剩一个孩子时停止,
+     * 这时node自己低于下界,要先由它的父节点修复,否则无法再修复它的孩子
+     */
+    private void flushOverflow(Node node) {
+        while (node.buffered > bufferCapacity && node.size > 0) {
+            flushChild(node, largestChild(node));
+        }
+    }
+
+    /**
+     * 清空整棵子树的缓冲区,孩子在修复时可能与还没有处理完的兄弟节点合并,所以按fixChild返回的下标继续;
+     * 与flushOverflow相同,非根节点只剩一个孩子时先返回,由父节点修复后再回来处理
+     * @return 子树中的消息是否已经全部下推,根节点只剩一个没有处理完的孩子时返回false,降低一层后重新开始
+     */
+    private boolean flushAll(Node node) {
+        boolean complete = true;
+        for (int c = 0; c <= node.size && (node == root || node.size > 0); ) {
+            Node child = node.children[c];
+            node.buffered -= pushDown(child);
+            complete = child.isLeaf() || flushAll(child);
+            c = fixChild(node, c);
+        }
+        return node.size > 0 || (node == root && complete);
+    }
+
+    /**
+     * 把node缓冲区中的消息交给node本身:叶子节点与消息归并,非叶子节点把消息分给对应的孩子
+     * @return 离开node缓冲区的消息个数
+     */
+    private int pushDown(Node node) {
+        int count = node.pending;
+        if (count == 0) {
+            return 0;
+        }
+        if (node.isLeaf()) {
+            applyToLeaf(node, node.pendingKeys, node.pendingValues, 0, count);
+        } else {
+            //缓冲区有序,只在剩下的分隔关键字中定位每一段消息所属的孩子,段内的消息只与该孩子的右边界比较一次
+            int c = 0;
+            for (int from = 0; from < count; ) {
+                c = childIndex(node, c, node.pendingKeys[from]);
+                int to = from + 1;
+                if (c == node.size) {
+                    to = count;
+                } else {
+                    while (to < count && compare(node.pendingKeys[to], node.keys[c]) < 0) {
+                        to++;
+                    }
+                }
+                node.buffered += mergePending(node.children[c], node.pendingKeys, node.pendingValues, from, to);
+                from = to;
+            }
+        }
+        Arrays.fill(node.pendingKeys, 0, count, null);
+        Arrays.fill(node.pendingValues, 0, count, null);
+        node.pending = 0;
+        return count;
+    }
+
+    private int largestChild(Node node) {
+        int largest = 0;
+        for (int c = 1; c <= node.size; c++) {
+            if (node.children[c].pending > node.children[largest].pending) {
+                largest = c;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * 把叶子节点的元素与有序的消息messageKeys[from, to)归并,消息覆盖同一关键字的旧数据,墓碑删除旧数据;
+     * 结果可能超过上界或者低于下界,由调用方修复
+     */
+    private void applyToLeaf(Node leaf, Object[] messageKeys, Object[] messages, int from, int to) {
+        ensureMergeCapacity(leaf.size + to - from);
+        int i = 0;
+        int n = 0;
+        for (int j = from; j < to; j++) {
+            //每条消息二分查找自己的位置,中间不受影响的旧元素整段复制,不逐个比较
+            int index = lowerBound(leaf.keys, i, leaf.size, messageKeys[j]);
+            System.arraycopy(leaf.keys, i, mergeKeys, n, index - i);
+            System.arraycopy(leaf.values, i, mergeValues, n, index - i);
+            n += index - i;
+            i = index;
+            if (i < leaf.size && compare(leaf.keys[i], messageKeys[j]) == 0) {
+                i++;
+                size--;
+            }
+            if (messages[j] != TOMBSTONE) {
+                mergeKeys[n] = messageKeys[j];
+                mergeValues[n++] = messages[j];
+                size++;
+            }
+        }
+        System.arraycopy(leaf.keys, i, mergeKeys, n, leaf.size - i);
+        System.arraycopy(leaf.values, i, mergeValues, n, leaf.size - i);
+        n += leaf.size - i;
+        ensureKeys(leaf, n);
+        System.arraycopy(mergeKeys, 0, leaf.keys, 0, n);
+        System.arraycopy(mergeValues, 0, leaf.values, 0, n);
+        if (n < leaf.size) {
+            Arrays.fill(leaf.keys, n, leaf.size, null);
+            Arrays.fill(leaf.values, n, leaf.size, null);
+        }
+        leaf.size = n;
+        Arrays.fill(mergeKeys, 0, n, null);
+        Arrays.fill(mergeValues, 0, n, null);
+    }
+
+    /**
+     * 把一条消息放进node的缓冲区
+     * @return 缓冲区中原来没有这个关键字时返回true
+     */
+    private boolean insertPending(Node node, Object key, Object message) {
+        int index = search(node.pendingKeys, node.pending, key);
+        if (index >= 0) {
+            node.pendingValues[index] = message;
+            return false;
+        }
+        index = -index - 1;
+        ensurePending(node, node.pending + 1);
+        System.arraycopy(node.pendingKeys, index, node.pendingKeys, index + 1, node.pending - index);
+        System.arraycopy(node.pendingValues, index, node.pendingValues, index + 1, node.pending - index);
+        node.pendingKeys[index] = key;
+        node.pendingValues[index] = message;
+        node.pending++;
+        return true;
+    }
+
+    /**
+     * 把来自上层、更新的消息keys[from, to)并入node的缓冲区,关键字相同时保留新消息
+     * @return node缓冲区增加的消息个数
+     */
+    private int mergePending(Node node, Object[] keys, Object[] messages, int from, int to) {
+        int count = to - from;
+        if (node.pending == 0) {
+            ensurePending(node, count);
+            System.arraycopy(keys, from, node.pendingKeys, 0, count);
+            System.arraycopy(messages, from, node.pendingValues, 0, count);
+            node.pending = count;
+            return count;
+        }
+        //从后向前原地归并,旧消息中不受影响的部分整段移动;被新消息覆盖的旧消息在前面留下空位,最后整体前移
+        int before = node.pending;
+        ensurePending(node, before + count);
+        Object[] pendingKeys = node.pendingKeys;
+        Object[] pendingValues = node.pendingValues;
+        int write = before + count;
+        int i = before;
+        for (int j = to - 1; j >= from; j--) {
+            int index = lowerBound(pendingKeys, 0, i, keys[j]);
+            int end = index < i && compare(pendingKeys[index], keys[j]) == 0 ? index + 1 : index;
+            write -= i - end;
+            System.arraycopy(pendingKeys, end, pendingKeys, write, i - end);
+            System.arraycopy(pendingValues, end, pendingValues, write, i - end);
+            pendingKeys[--write] = keys[j];
+            pendingValues[write] = messages[j];
+            i = index;
+        }
+        int n = i + before + count - write;
+        if (write > i) {
+            System.arraycopy(pendingKeys, write, pendingKeys, i, before + count - write);
+            System.arraycopy(pendingValues, write, pendingValues, i, before + count - write);
+            Arrays.fill(pendingKeys, n, before + count, null);
+            Arrays.fill(pendingValues, n, before + count, null);
+        }
+        node.pending = n;
+        return n - before;
+    }
+
+    /**
+     * 修复刚被下推过的孩子node.children[c]:超过上界时分裂,低于下界时与相邻的兄弟节点合并或者重新分配
+     * @return flushAll接下来要处理的孩子下标;与兄弟节点合并或者重新分配后,两个节点都可能含有没有处理完的内容,从左边的节点重新开始
+     */
+    private int fixChild(Node node, int c) {
+        Node child = node.children[c];
+        if (child.size > UPPER_BOUND) {
+            return c + split(node, c);
+        }
+        if (child.size >= UNDER_BOUND || node.size == 0) {
+            return c + 1;
+        }
+        int l = c > 0 ? c - 1 : 0;
+        Node left = node.children[l];
+        Node right = node.children[l + 1];
+        if (child.isLeaf()) {
+            int total = left.size + right.size;
+            if (total <= UPPER_BOUND) {
+                ensureKeys(left, total);
+                System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+                System.arraycopy(right.values, 0, left.values, left.size, right.size);
+                left.size = total;
+                appendPending(left, right);
+                removeChild(node, l);
+                return l;
+            }
+            int leftCount = total / 2;
+            if (left.size > leftCount) {
+                int moved = left.size - leftCount;
+                ensureKeys(right, right.size + moved);
+                System.arraycopy(right.keys, 0, right.keys, moved, right.size);
+                System.arraycopy(right.values, 0, right.values, moved, right.size);
+                System.arraycopy(left.keys, leftCount, right.keys, 0, moved);
+                System.arraycopy(left.values, leftCount, right.values, 0, moved);
+                Arrays.fill(left.keys, leftCount, left.size, null);
+                Arrays.fill(left.values, leftCount, left.size, null);
+            } else {
+                int moved = leftCount - left.size;
+                ensureKeys(left, leftCount);
+                System.arraycopy(right.keys, 0, left.keys, left.size, moved);
+                System.arraycopy(right.values, 0, left.values, left.size, moved);
+                System.arraycopy(right.keys, moved, right.keys, 0, right.size - moved);
+                System.arraycopy(right.values, moved, right.values, 0, right.size - moved);
+                Arrays.fill(right.keys, right.size - moved, right.size, null);
+                Arrays.fill(right.values, right.size - moved, right.size, null);
+            }
+            right.size = total - leftCount;
+            left.size = leftCount;
+            node.keys[l] = right.keys[0];
+        } else {
+            Object separator = node.keys[l];
+            int total = left.size + right.size + 1;
+            if (total <= UPPER_BOUND) {
+                ensureKeys(left, total);
+                left.keys[left.size] = separator;
+                System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+                System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+                left.size = total;
+                left.buffered += right.buffered;
+                appendPending(left, right);
+                removeChild(node, l);
+                return l;
+            }
+            //中间的关键字成为新的分隔关键字,左边保留mid个关键字
+            int mid = total / 2;
+            if (left.size > mid) {
+                int moved = left.size - mid;
+                ensureKeys(right, right.size + moved);
+                System.arraycopy(right.keys, 0, right.keys, moved, right.size);
+                System.arraycopy(right.children, 0, right.children, moved, right.size + 1);
+                right.keys[moved - 1] = separator;
+                System.arraycopy(left.keys, mid + 1, right.keys, 0, moved - 1);
+                System.arraycopy(left.children, mid + 1, right.children, 0, moved);
+                node.keys[l] = left.keys[mid];
+                Arrays.fill(left.keys, mid, left.size, null);
+                Arrays.fill(left.children, mid + 1, left.size + 1, null);
+                right.size += moved;
+            } else {
+                int moved = mid - left.size;
+                ensureKeys(left, mid);
+                left.keys[left.size] = separator;
+                System.arraycopy(right.keys, 0, left.keys, left.size + 1, moved - 1);
+                System.arraycopy(right.children, 0, left.children, left.size + 1, moved);
+                node.keys[l] = right.keys[moved - 1];
+                System.arraycopy(right.keys, moved, right.keys, 0, right.size - moved);
+                System.arraycopy(right.children, moved, right.children, 0, right.size + 1 - moved);
+                Arrays.fill(right.keys, right.size - moved, right.size, null);
+                Arrays.fill(right.children, right.size + 1 - moved, right.size + 1, null);
+                right.size -= moved;
+            }
+            left.size = mid;
+            left.buffered = childPending(left);
+            right.buffered = childPending(right);
+        }
+        //分隔关键字变了,两个节点缓冲区中的消息按新的分隔关键字重新划分
+        appendPending(left, right);
+        splitPending(left, right, node.keys[l]);
+        return l;
+    }
+
+    /**
+     * 把超过上界的孩子node.children[c]平均分成若干个节点,叶子节点按元素、非叶子节点按孩子分配
+     * @return 分裂后的节点个数
+     */
+    private int split(Node node, int c) {
+        Node child = node.children[c];
+        boolean leaf = child.isLeaf();
+        int units = leaf ? child.size : child.size + 1;
+        int limit = leaf ? UPPER_BOUND : degree;
+        int pieces = (units + limit - 1) / limit;
+        Node[] siblings = new Node[pieces - 1];
+        Object[] separators = new Object[pieces - 1];
+        int first = units / pieces + (units % pieces > 0 ? 1 : 0);
+        int offset = first;
+        for (int p = 1; p < pieces; p++) {
+            int length = units / pieces + (p < units % pieces ? 1 : 0);
+            Node sibling = new Node(leaf, UPPER_BOUND);
+            if (leaf) {
+                System.arraycopy(child.keys, offset, sibling.keys, 0, length);
+                System.arraycopy(child.values, offset, sibling.values, 0, length);
+                sibling.size = length;
+                separators[p - 1] = child.keys[offset];
+            } else {
+                System.arraycopy(child.keys, offset, sibling.keys, 0, length - 1);
+                System.arraycopy(child.children, offset, sibling.children, 0, length);
+                sibling.size = length - 1;
+                sibling.buffered = childPending(sibling);
+                separators[p - 1] = child.keys[offset - 1];
+            }
+            siblings[p - 1] = sibling;
+            offset += length;
+        }
+        if (leaf) {
+            Arrays.fill(child.keys, first, child.size, null);
+            Arrays.fill(child.values, first, child.size, null);
+            child.size = first;
+        } else {
+            Arrays.fill(child.keys, first - 1, child.size, null);
+            Arrays.fill(child.children, first, child.size + 1, null);
+            child.size = first - 1;
+            child.buffered = childPending(child);
+        }
+        for (int p = pieces - 2; p >= 0; p--) {
+            splitPending(child, siblings[p], separators[p]);
+        }
+        int added = pieces - 1;
+        ensureKeys(node, node.size + added);
+        System.arraycopy(node.keys, c, node.keys, c + added, node.size - c);
+        System.arraycopy(node.children, c + 1, node.children, c + 1 + added, node.size - c);
+        System.arraycopy(separators, 0, node.keys, c, added);
+        System.arraycopy(siblings, 0, node.children, c + 1, added);
+        node.size += added;
+        return pieces;
+    }
+
+    /**
+     * 根节点没有缓冲区:超过上界时在上面加一层再分裂,只剩一个孩子时先把孩子缓冲区中的消息交给孩子再降低一层
+     */
+    private void fixRoot() {
+        while (true) {
+            if (root.size > UPPER_BOUND) {
+                Node newRoot = new Node(false, UPPER_BOUND);
+                newRoot.children[0] = root;
+                root = newRoot;
+                height++;
+                split(newRoot, 0);
+            } else if (!root.isLeaf() && root.size == 0) {
+                Node child = root.children[0];
+                pushDown(child);
+                if (!child.isLeaf()) {
+                    flushOverflow(child);
+                }
+                root = child;
+                height--;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void removeChild(Node node, int index) {
+        System.arraycopy(node.keys, index + 1, node.keys, index, node.size - index - 1);
+        System.arraycopy(node.children, index + 2, node.children, index + 1, node.size - index - 1);
+        node.keys[node.size - 1] = null;
+        node.children[node.size] = null;
+        node.size--;
+    }
+
+    /**
+     * 把right缓冲区中的消息全部接到left缓冲区的后面,调用方保证它们都大于left中的消息
+     */
+    private void appendPending(Node left, Node right) {
+        if (right.pending == 0) {
+            return;
+        }
+        ensurePending(left, left.pending + right.pending);
+        System.arraycopy(right.pendingKeys, 0, left.pendingKeys, left.pending, right.pending);
+        System.arraycopy(right.pendingValues, 0, left.pendingValues, left.pending, right.pending);
+        Arrays.fill(right.pendingKeys, 0, right.pending, null);
+        Arrays.fill(right.pendingValues, 0, right.pending, null);
+        left.pending += right.pending;
+        right.pending = 0;
+    }
+
+    /**
+     * 把left缓冲区中大于等于separator的消息移到缓冲区为空的right中
+     */
+    private void splitPending(Node left, Node right, Object separator) {
+        int from = lowerBound(left.pendingKeys, 0, left.pending, separator);
+        int count = left.pending - from;
+        if (count == 0) {
+            return;
+        }
+        ensurePending(right, count);
+        System.arraycopy(left.pendingKeys, from, right.pendingKeys, 0, count);
+        System.arraycopy(left.pendingValues, from, right.pendingValues, 0, count);
+        Arrays.fill(left.pendingKeys, from, left.pending, null);
+        Arrays.fill(left.pendingValues, from, left.pending, null);
+        right.pending = count;
+        left.pending = from;
+    }
+
+    private int childPending(Node node) {
+        int count = 0;
+        for (int c = 0; c <= node.size; c++) {
+            count += node.children[c].pending;
+        }
+        return count;
+    }
+
+    private void ensureKeys(Node node, int capacity) {
+        if (node.keys.length >= capacity) {
+            return;
+        }
+        int length = Math.max(capacity, node.keys.length * 2);
+        node.keys = Arrays.copyOf(node.keys, length);
+        if (node.isLeaf()) {
+            node.values = Arrays.copyOf(node.values, length);
+        } else {
+            node.children = Arrays.copyOf(node.children, length + 1);
+        }
+    }
+
+    private void ensurePending(Node node, int capacity) {
+        if (node.pendingKeys.length >= capacity) {
+            return;
+        }
+        int length = Math.max(capacity, Math.max(node.pendingKeys.length * 2, bufferCapacity / degree));
+        node.pendingKeys = Arrays.copyOf(node.pendingKeys, length);
+        node.pendingValues = Arrays.copyOf(node.pendingValues, length);
+    }
+
+    private void ensureMergeCapacity(int capacity) {
+        if (mergeKeys.length < capacity) {
+            int length = Math.max(capacity, mergeKeys.length * 2);
+            mergeKeys = new Object[length];
+            mergeValues = new Object[length];
+        }
+    }
+
+    /**
+     * @return 关键字所在孩子的下标,即分隔关键字中小于等于key的个数
+     */
+    private int childIndex(Node node, Object key) {
+        int index = search(node.keys, node.size, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * 已知关键字不小于前from个分隔关键字时,只在剩下的分隔关键字中查找
+     */
+    private int childIndex(Node node, int from, Object key) {
+        int index = lowerBound(node.keys, from, node.size, key);
+        return index < node.size && compare(node.keys[index], key) == 0 ? index + 1 : index;
+    }
+
+    private int search(Object[] keys, int count, Object key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(keys[mid], key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return keys[from, to)中第一个大于等于key的下标
+     */
+    private int lowerBound(Object[] keys, int from, int to, Object key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(keys[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object left, Object right) {
+        return ((K) left).compareTo((K) right);
+    }
+
+    /**
+     * 叶子节点的children为null,非叶子节点的values为null,非叶子节点有size + 1个孩子;
+     * 数组在一批消息归并或者分配孩子时可以暂时超过上界,分裂后多出的部分清空但不缩容
+     */
+    private static final class Node {
+        Object[] keys;
+        Object[] values;
+        Node[] children;
+        int size;
+        //父节点转交给这棵子树、还没有下推的消息,按关键字排序
+        Object[] pendingKeys = new Object[0];
+        Object[] pendingValues = new Object[0];
+        int pending;
+        //非叶子节点所有孩子缓冲区中的消息总数
+        int buffered;
+
+        Node(boolean leaf, int capacity) {
+            keys = new Object[capacity];
+            if (leaf) {
+                values = new Object[capacity];
+            } else {
+                children = new Node[capacity + 1];
+            }
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+    }
+}
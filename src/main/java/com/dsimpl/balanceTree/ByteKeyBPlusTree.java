@@ -0,0 +1,582 @@
+package com.dsimpl.balanceTree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 关键字为变长byte[](按无符号字节字典序比较)的B+树,针对有很长公共前缀的关键字(例如URL)做了压缩,
+ * 结构与{@link LongObjectBPlusTree}相同:没有父指针,插入与删除时用路径栈记录途经的节点
+ * 1: 前缀压缩:每个节点只保存一次节点内所有关键字的公共前缀,关键字只保存前缀之后的部分,
+ *    查找时先与前缀比较一次,再在后缀上二分查找
+ * 2: 后缀截断:叶子节点分裂或者借元素时,上移到父节点的分隔关键字不是右边第一个关键字的完整拷贝,
+ *    而是满足 左边最大关键字 < 分隔关键字 <= 右边最小关键字 的最短前缀
+ * 两者结合后非叶子节点中的关键字通常只有几个字节,同样的内存可以使用更大的度数,树的高度更低
+ * String关键字按UTF-8编码后存储,UTF-8的无符号字节序与码点顺序一致
+ */
+public class ByteKeyBPlusTree<V> {
+    private static final byte[] EMPTY = new byte[0];
+    public int degree;
+    public int UPPER_BOUND;
+    public int UNDER_BOUND;
+    private Node root;
+    private Node head;
+    private Node tail;
+    private int size;
+    private int levels = 1;
+    //路径栈:pathNodes[i]为第i层经过的非叶子节点,pathIndexes[i]为在该节点中选择的孩子下标
+    private Node[] pathNodes = new Node[8];
+    private int[] pathIndexes = new int[8];
+    private int pathDepth;
+
+    public ByteKeyBPlusTree(int degree) {
+        this.degree = Math.max(degree, 3);
+        this.UPPER_BOUND = this.degree - 1;
+        this.UNDER_BOUND = UPPER_BOUND / 2;
+        this.root = new Node(true, this.degree);
+        head = root;
+        tail = root;
+    }
+
+    public void put(byte[] key, V value) {
+        if (key == null) {
+            return;
+        }
+        Node leaf = findLeaf(key);
+        int index = leaf.search(key);
+        if (index >= 0) {
+            leaf.values[index] = value;
+            return;
+        }
+        leaf.insertEntry(-index - 1, key, value);
+        size++;
+        if (leaf.size > UPPER_BOUND) {
+            splitLeaf(leaf);
+        }
+    }
+
+    public void put(String key, V value) {
+        put(encode(key), value);
+    }
+
+    public V get(byte[] key) {
+        if (key == null) {
+            return null;
+        }
+        Node leaf = findLeaf(key);
+        int index = leaf.search(key);
+        return index >= 0 ? valueAt(leaf, index) : null;
+    }
+
+    public V get(String key) {
+        return get(encode(key));
+    }
+
+    public boolean containsKey(byte[] key) {
+        return key != null && findLeaf(key).search(key) >= 0;
+    }
+
+    public boolean containsKey(String key) {
+        return containsKey(encode(key));
+    }
+
+    /**
+     * @return 删除成功返回true,关键字不存在返回false
+     */
+    public boolean remove(byte[] key) {
+        if (key == null) {
+            return false;
+        }
+        Node leaf = findLeaf(key);
+        int index = leaf.search(key);
+        if (index < 0) {
+            return false;
+        }
+        leaf.removeEntry(index);
+        size--;
+        if (pathDepth > 0 && leaf.size < UNDER_BOUND) {
+            rebalanceLeaf(leaf);
+        }
+        return true;
+    }
+
+    public boolean remove(String key) {
+        return remove(encode(key));
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    public byte[] floorKey(byte[] key) {
+        if (key == null) {
+            return null;
+        }
+        Node leaf = findLeaf(key);
+        int index = leaf.upperBound(key) - 1;
+        if (index >= 0) {
+            return leaf.key(index);
+        }
+        //由于叶子节点是有序链表,所以这个节点中不存在,那就一定是上一个节点的最后一个元素
+        return leaf.pre == null ? null : leaf.pre.key(leaf.pre.size - 1);
+    }
+
+    public String floorKey(String key) {
+        return decode(floorKey(encode(key)));
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    public byte[] ceilingKey(byte[] key) {
+        if (key == null) {
+            return null;
+        }
+        Node leaf = findLeaf(key);
+        int index = leaf.lowerBound(key);
+        if (index < leaf.size) {
+            return leaf.key(index);
+        }
+        return leaf.next == null ? null : leaf.next.key(0);
+    }
+
+    public String ceilingKey(String key) {
+        return decode(ceilingKey(encode(key)));
+    }
+
+    public byte[] firstKey() {
+        return size == 0 ? null : head.key(0);
+    }
+
+    public byte[] lastKey() {
+        return size == 0 ? null : tail.key(tail.size - 1);
+    }
+
+    /**
+     * 按关键字升序把(start, end]中的元素交给consumer,区间语义与{@link BPlusTree#range}一致
+     * @return 返回访问的元素个数
+     */
+    public int range(byte[] start, byte[] end, EntryConsumer<? super V> consumer) {
+        if (start == null || end == null || Arrays.compareUnsigned(start, end) >= 0) {
+            return 0;
+        }
+        Node cur = findLeaf(start);
+        int index = cur.upperBound(start);
+        int count = 0;
+        while (cur != null) {
+            for (; index < cur.size; index++) {
+                byte[] key = cur.key(index);
+                if (Arrays.compareUnsigned(key, end) > 0) {
+                    return count;
+                }
+                consumer.accept(key, valueAt(cur, index));
+                count++;
+            }
+            cur = cur.next;
+            index = 0;
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int height() {
+        return size == 0 ? 0 : levels;
+    }
+
+    /**
+     * 从根节点下降到关键字所在的叶子节点,同时记录路径栈
+     */
+    private Node findLeaf(byte[] key) {
+        Node cur = root;
+        int depth = 0;
+        while (!cur.isLeaf) {
+            int childIndex = cur.upperBound(key);
+            if (depth == pathNodes.length) {
+                pathNodes = Arrays.copyOf(pathNodes, depth << 1);
+                pathIndexes = Arrays.copyOf(pathIndexes, depth << 1);
+            }
+            pathNodes[depth] = cur;
+            pathIndexes[depth] = childIndex;
+            depth++;
+            cur = cur.children[childIndex];
+        }
+        pathDepth = depth;
+        return cur;
+    }
+
+    /**
+     * 叶子节点超过上界后分裂,原节点保留左半部分,只分配右兄弟节点
+     */
+    private void splitLeaf(Node leaf) {
+        Node right = new Node(true, degree);
+        int mid = leaf.size >>> 1;
+        right.moveFrom(leaf, mid, leaf.size - mid);
+        //处理叶子节点链表
+        right.next = leaf.next;
+        right.pre = leaf;
+        if (leaf.next != null) {
+            leaf.next.pre = right;
+        } else {
+            tail = right;
+        }
+        leaf.next = right;
+        insertIntoParent(pathDepth - 1, leaf, separator(leaf, right), right);
+    }
+
+    private void insertIntoParent(int level, Node left, byte[] separator, Node right) {
+        if (level < 0) {
+            //分裂的是根节点,树高加一
+            Node newRoot = new Node(false, degree);
+            newRoot.insertEntry(0, separator, null);
+            newRoot.children[0] = left;
+            newRoot.children[1] = right;
+            root = newRoot;
+            levels++;
+            return;
+        }
+        Node parent = pathNodes[level];
+        int index = pathIndexes[level];
+        System.arraycopy(parent.children, index + 1, parent.children, index + 2, parent.size - index);
+        parent.insertEntry(index, separator, null);
+        parent.children[index + 1] = right;
+        if (parent.size > UPPER_BOUND) {
+            splitInternal(parent, level);
+        }
+    }
+
+    private void splitInternal(Node node, int level) {
+        Node right = new Node(false, degree);
+        int mid = node.size >>> 1;
+        byte[] upKey = node.key(mid);
+        int rightSize = node.size - mid - 1;
+        System.arraycopy(node.children, mid + 1, right.children, 0, rightSize + 1);
+        Arrays.fill(node.children, mid + 1, node.size + 1, null);
+        right.moveFrom(node, mid + 1, rightSize);
+        node.removeEntry(mid);
+        node.compactPrefix();
+        insertIntoParent(level - 1, node, upKey, right);
+    }
+
+    /**
+     * 叶子节点低于下界:先向左右兄弟借,借不了再与兄弟合并
+     */
+    private void rebalanceLeaf(Node leaf) {
+        int level = pathDepth - 1;
+        Node parent = pathNodes[level];
+        int index = pathIndexes[level];
+        Node left = index > 0 ? parent.children[index - 1] : null;
+        Node right = index < parent.size ? parent.children[index + 1] : null;
+        if (left != null && left.size > UNDER_BOUND) {
+            leaf.insertEntry(0, left.key(left.size - 1), left.values[left.size - 1]);
+            left.removeEntry(left.size - 1);
+            parent.replaceKey(index - 1, separator(left, leaf));
+        } else if (right != null && right.size > UNDER_BOUND) {
+            leaf.insertEntry(leaf.size, right.key(0), right.values[0]);
+            right.removeEntry(0);
+            parent.replaceKey(index, separator(leaf, right));
+        } else if (left != null) {
+            mergeLeaf(left, leaf, parent, index - 1, level);
+        } else {
+            mergeLeaf(leaf, right, parent, index, level);
+        }
+    }
+
+    private void mergeLeaf(Node left, Node right, Node parent, int separatorIndex, int level) {
+        left.moveFrom(right, 0, right.size);
+        left.next = right.next;
+        if (right.next != null) {
+            right.next.pre = left;
+        } else {
+            tail = left;
+        }
+        parent.removeSeparator(separatorIndex);
+        rebalanceInternal(parent, level);
+    }
+
+    private void rebalanceInternal(Node node, int level) {
+        if (level == 0) {
+            //根节点只剩一个孩子时,孩子成为新的根节点
+            if (node.size == 0) {
+                root = node.children[0];
+                levels--;
+            }
+            return;
+        }
+        if (node.size >= UNDER_BOUND) {
+            return;
+        }
+        Node parent = pathNodes[level - 1];
+        int index = pathIndexes[level - 1];
+        Node left = index > 0 ? parent.children[index - 1] : null;
+        Node right = index < parent.size ? parent.children[index + 1] : null;
+        if (left != null && left.size > UNDER_BOUND) {
+            //父节点的分隔关键字下移,左兄弟最大的关键字上移,左兄弟最后一个孩子成为当前节点的第一个孩子
+            System.arraycopy(node.children, 0, node.children, 1, node.size + 1);
+            node.children[0] = left.children[left.size];
+            node.insertEntry(0, parent.key(index - 1), null);
+            parent.replaceKey(index - 1, left.key(left.size - 1));
+            left.children[left.size] = null;
+            left.removeEntry(left.size - 1);
+        } else if (right != null && right.size > UNDER_BOUND) {
+            node.children[node.size + 1] = right.children[0];
+            node.insertEntry(node.size, parent.key(index), null);
+            parent.replaceKey(index, right.key(0));
+            System.arraycopy(right.children, 1, right.children, 0, right.size);
+            right.children[right.size] = null;
+            right.removeEntry(0);
+        } else if (left != null) {
+            mergeInternal(left, node, parent, index - 1, level);
+        } else {
+            mergeInternal(node, right, parent, index, level);
+        }
+    }
+
+    private void mergeInternal(Node left, Node right, Node parent, int separatorIndex, int level) {
+        System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+        left.insertEntry(left.size, parent.key(separatorIndex), null);
+        left.moveFrom(right, 0, right.size);
+        parent.removeSeparator(separatorIndex);
+        rebalanceInternal(parent, level - 1);
+    }
+
+    /**
+     * 后缀截断:右边最小关键字中第一个与左边最大关键字不同的字节为止的前缀,
+     * 它大于左边所有关键字,且小于等于右边所有关键字
+     */
+    private static byte[] separator(Node left, Node right) {
+        byte[] last = left.key(left.size - 1);
+        byte[] first = right.key(0);
+        int mismatch = Arrays.mismatch(last, first);
+        return Arrays.copyOf(first, mismatch + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(Node node, int index) {
+        return (V) node.values[index];
+    }
+
+    private static byte[] encode(String key) {
+        return key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decode(byte[] key) {
+        return key == null ? null : new String(key, StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(byte[] key, V value);
+    }
+
+    private static final class Node {
+        private final boolean isLeaf;
+        //叶子节点中为关键字个数,非叶子节点中为分隔关键字个数(孩子个数为size + 1)
+        private int size;
+        //节点内所有关键字的公共前缀,第i个关键字为prefix + suffixes[i]
+        private byte[] prefix = EMPTY;
+        //多留一个位置,允许节点先插入再分裂
+        private final byte[][] suffixes;
+        private final Object[] values;
+        private final Node[] children;
+        private Node next;
+        private Node pre;
+
+        private Node(boolean isLeaf, int degree) {
+            this.isLeaf = isLeaf;
+            this.suffixes = new byte[degree][];
+            if (isLeaf) {
+                this.values = new Object[degree];
+                this.children = null;
+            } else {
+                this.values = null;
+                this.children = new Node[degree + 1];
+            }
+        }
+
+        /**
+         * @return 还原出的完整关键字
+         */
+        private byte[] key(int index) {
+            byte[] suffix = suffixes[index];
+            byte[] key = Arrays.copyOf(prefix, prefix.length + suffix.length);
+            System.arraycopy(suffix, 0, key, prefix.length, suffix.length);
+            return key;
+        }
+
+        /**
+         * 先与公共前缀比较:前缀不同时key要么小于、要么大于节点内所有关键字,不需要再二分查找
+         * @return 存在返回下标,不存在返回-(插入位置)-1
+         */
+        private int search(byte[] key) {
+            int prefixLength = prefix.length;
+            int length = Math.min(prefixLength, key.length);
+            int cmp = Arrays.compareUnsigned(key, 0, length, prefix, 0, length);
+            if (cmp < 0 || (cmp == 0 && key.length < prefixLength)) {
+                return -1;
+            }
+            if (cmp > 0) {
+                return -(size + 1);
+            }
+            int left = 0;
+            int right = size - 1;
+            while (left <= right) {
+                int mid = (left + right) >>> 1;
+                byte[] suffix = suffixes[mid];
+                int c = Arrays.compareUnsigned(suffix, 0, suffix.length, key, prefixLength, key.length);
+                if (c < 0) {
+                    left = mid + 1;
+                } else if (c > 0) {
+                    right = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(left + 1);
+        }
+
+        /**
+         * @return 第一个大于等于key的下标
+         */
+        private int lowerBound(byte[] key) {
+            int index = search(key);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        /**
+         * @return 第一个大于key的下标,在非叶子节点中即为孩子下标
+         */
+        private int upperBound(byte[] key) {
+            int index = search(key);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+
+        /**
+         * 插入完整关键字,关键字不以当前前缀开头时先缩短前缀,空节点直接以关键字作为前缀
+         */
+        private void insertEntry(int index, byte[] key, Object value) {
+            if (size == 0) {
+                prefix = key.clone();
+            } else {
+                int common = Arrays.mismatch(prefix, key);
+                if (common >= 0 && common < prefix.length) {
+                    shrinkPrefix(common);
+                }
+            }
+            System.arraycopy(suffixes, index, suffixes, index + 1, size - index);
+            suffixes[index] = Arrays.copyOfRange(key, prefix.length, key.length);
+            if (values != null) {
+                System.arraycopy(values, index, values, index + 1, size - index);
+                values[index] = value;
+            }
+            size++;
+        }
+
+        private void removeEntry(int index) {
+            System.arraycopy(suffixes, index + 1, suffixes, index, size - index - 1);
+            if (values != null) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                values[size - 1] = null;
+            }
+            size--;
+            suffixes[size] = null;
+        }
+
+        private void replaceKey(int index, byte[] key) {
+            int common = Arrays.mismatch(prefix, key);
+            if (common >= 0 && common < prefix.length) {
+                shrinkPrefix(common);
+            }
+            suffixes[index] = Arrays.copyOfRange(key, prefix.length, key.length);
+            compactPrefix();
+        }
+
+        /**
+         * 删除第index个分隔关键字以及它右侧的孩子
+         */
+        private void removeSeparator(int index) {
+            System.arraycopy(children, index + 2, children, index + 1, size - index - 1);
+            children[size] = null;
+            removeEntry(index);
+            compactPrefix();
+        }
+
+        /**
+         * 把src中[from, from + count)的关键字与数据追加到当前节点末尾并从src中移除,两边都重新计算公共前缀
+         */
+        private void moveFrom(Node src, int from, int count) {
+            int common;
+            if (size == 0) {
+                prefix = src.prefix;
+                common = prefix.length;
+            } else {
+                common = Arrays.mismatch(prefix, src.prefix);
+                common = common < 0 ? prefix.length : common;
+                if (common < prefix.length) {
+                    shrinkPrefix(common);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                byte[] suffix = src.suffixes[from + i];
+                if (common < src.prefix.length) {
+                    byte[] extended = Arrays.copyOfRange(src.prefix, common, src.prefix.length + suffix.length);
+                    System.arraycopy(suffix, 0, extended, src.prefix.length - common, suffix.length);
+                    suffix = extended;
+                }
+                suffixes[size + i] = suffix;
+                if (values != null) {
+                    values[size + i] = src.values[from + i];
+                }
+            }
+            size += count;
+            int srcEnd = from + count;
+            System.arraycopy(src.suffixes, srcEnd, src.suffixes, from, src.size - srcEnd);
+            Arrays.fill(src.suffixes, src.size - count, src.size, null);
+            if (src.values != null) {
+                System.arraycopy(src.values, srcEnd, src.values, from, src.size - srcEnd);
+                Arrays.fill(src.values, src.size - count, src.size, null);
+            }
+            src.size -= count;
+            compactPrefix();
+            src.compactPrefix();
+        }
+
+        /**
+         * 前缀缩短到length,多出来的字节补回每个后缀的开头
+         */
+        private void shrinkPrefix(int length) {
+            byte[] moved = Arrays.copyOfRange(prefix, length, prefix.length);
+            for (int i = 0; i < size; i++) {
+                byte[] suffix = suffixes[i];
+                byte[] extended = Arrays.copyOf(moved, moved.length + suffix.length);
+                System.arraycopy(suffix, 0, extended, moved.length, suffix.length);
+                suffixes[i] = extended;
+            }
+            prefix = Arrays.copyOf(prefix, length);
+        }
+
+        /**
+         * 关键字有序,第一个与最后一个关键字的公共前缀就是所有关键字的公共前缀,比当前前缀长时把多出的部分从后缀中移到前缀
+         */
+        private void compactPrefix() {
+            if (size == 0) {
+                return;
+            }
+            byte[] first = suffixes[0];
+            byte[] last = suffixes[size - 1];
+            int common = size == 1 ? first.length : Arrays.mismatch(first, last);
+            if (common < 0) {
+                common = first.length;
+            }
+            if (common == 0) {
+                return;
+            }
+            byte[] extended = Arrays.copyOf(prefix, prefix.length + common);
+            System.arraycopy(first, 0, extended, prefix.length, common);
+            prefix = extended;
+            for (int i = 0; i < size; i++) {
+                suffixes[i] = Arrays.copyOfRange(suffixes[i], common, suffixes[i].length);
+            }
+        }
+    }
+}
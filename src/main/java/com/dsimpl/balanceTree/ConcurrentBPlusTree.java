@@ -0,0 +1,544 @@
+package com.dsimpl.balanceTree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程安全的B+树,采用乐观锁耦合(optimistic lock coupling):
+ * 1: 每个节点有一个版本号,第二位表示加锁,加锁与解锁时版本号各加2,解锁后版本号一定与加锁前不同
+ * 2: 读操作(get/containsKey/floorKey/ceilingKey)不加任何锁,下降时先记录节点版本号,读完节点内容后
+ *    再校验版本号,版本号变化说明读到的可能是写了一半的数据,从根节点重新开始
+ * 3: 写操作同样乐观下降,只把需要修改的节点(叶子节点,分裂时还有父节点)升级为写锁,
+ *    下降过程中遇到已满的节点提前分裂,保证父节点一定有空位,分裂不会向上级联
+ * 4: 删除只从叶子节点中移除元素,不做合并,叶子节点可以为空,floorKey/ceilingKey会跳过空的子树
+ */
+public class ConcurrentBPlusTree<K extends Comparable<K>, V> {
+    private static final VarHandle VERSION;
+    private static final RestartException RESTART = new RestartException();
+
+    static {
+        try {
+            VERSION = MethodHandles.lookup().findVarHandle(ConcurrentBPlusTree.Node.class, "version", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public final int degree;
+    public final int UPPER_BOUND;
+    private volatile Node root;
+    private final LongAdder size = new LongAdder();
+
+    public ConcurrentBPlusTree(int degree) {
+        this.degree = Math.max(degree, 3);
+        this.UPPER_BOUND = this.degree - 1;
+        this.root = new Node(true, UPPER_BOUND);
+    }
+
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        while (true) {
+            try {
+                return doGet(key);
+            } catch (RestartException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    public boolean containsKey(K key) {
+        if (key == null) {
+            return false;
+        }
+        while (true) {
+            try {
+                return doContainsKey(key);
+            } catch (RestartException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    public K floorKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        return floorOrLast(key);
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    public K ceilingKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        return ceilingOrFirst(key);
+    }
+
+    public K firstKey() {
+        return ceilingOrFirst(null);
+    }
+
+    public K lastKey() {
+        return floorOrLast(null);
+    }
+
+    public void put(K key, V value) {
+        if (key == null) {
+            return;
+        }
+        while (true) {
+            try {
+                doPut(key, value);
+                return;
+            } catch (RestartException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    public void remove(K key) {
+        if (key == null) {
+            return;
+        }
+        while (true) {
+            try {
+                doRemove(key);
+                return;
+            } catch (RestartException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * 并发修改时只是一个近似值
+     */
+    public int size() {
+        return size.intValue();
+    }
+
+    /**
+     * 读取根节点的版本号后需要确认它仍然是根节点,否则根节点分裂后会从旧根(左半部分)开始下降
+     */
+    private void checkRoot(Node node, Node root) {
+        if (node != root) {
+            throw RESTART;
+        }
+    }
+
+    private V doGet(K key) {
+        Node node = root;
+        long version = readLock(node);
+        checkRoot(node, root);
+        while (!node.isLeaf) {
+            Node child = node.child(node.upperBound(key));
+            long childVersion = readLock(child);
+            check(node, version);
+            node = child;
+            version = childVersion;
+        }
+        int index = node.search(key);
+        V value = index >= 0 ? node.value(index) : null;
+        check(node, version);
+        return value;
+    }
+
+    private boolean doContainsKey(K key) {
+        Node node = root;
+        long version = readLock(node);
+        checkRoot(node, root);
+        while (!node.isLeaf) {
+            Node child = node.child(node.upperBound(key));
+            long childVersion = readLock(child);
+            check(node, version);
+            node = child;
+            version = childVersion;
+        }
+        boolean contains = node.search(key) >= 0;
+        check(node, version);
+        return contains;
+    }
+
+    private K floorOrLast(K key) {
+        while (true) {
+            try {
+                Node node = root;
+                long version = readLock(node);
+                checkRoot(node, root);
+                return floor(node, version, key);
+            } catch (RestartException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private K ceilingOrFirst(K key) {
+        while (true) {
+            try {
+                Node node = root;
+                long version = readLock(node);
+                checkRoot(node, root);
+                return ceiling(node, version, key);
+            } catch (RestartException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * 在子树中查找小于等于key的最大关键字,key为null表示查找最大关键字;
+     * 子树中没有时向左侧的兄弟子树继续查找,每次从子树返回后都重新校验当前节点的版本号,
+     * 保证返回时子树仍然挂在原来的位置上
+     */
+    private K floor(Node node, long version, K key) {
+        if (node.isLeaf) {
+            int index = (key == null ? node.count() : node.upperBound(key)) - 1;
+            K result = index >= 0 ? node.key(index) : null;
+            check(node, version);
+            return result;
+        }
+        int childIndex = key == null ? node.count() : node.upperBound(key);
+        for (int i = childIndex; i >= 0; i--) {
+            Node child = node.child(i);
+            check(node, version);
+            K result = floor(child, readLock(child), key);
+            check(node, version);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private K ceiling(Node node, long version, K key) {
+        if (node.isLeaf) {
+            int count = node.count();
+            int index = key == null ? 0 : node.lowerBound(key);
+            K result = index < count ? node.key(index) : null;
+            check(node, version);
+            return result;
+        }
+        int count = node.count();
+        int childIndex = key == null ? 0 : node.upperBound(key);
+        for (int i = childIndex; i <= count; i++) {
+            Node child = node.child(i);
+            check(node, version);
+            K result = ceiling(child, readLock(child), key);
+            check(node, version);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private void doPut(K key, V value) {
+        Node node = root;
+        long version = readLock(node);
+        checkRoot(node, root);
+        Node parent = null;
+        long parentVersion = 0;
+        while (true) {
+            if (node.count() == UPPER_BOUND && !(node.isLeaf && node.search(key) >= 0)) {
+                //1:节点已满,锁住父节点与当前节点后提前分裂,然后从根节点重新开始
+                splitFull(parent, parentVersion, node, version);
+                throw RESTART;
+            }
+            if (node.isLeaf) {
+                break;
+            }
+            if (parent != null) {
+                check(parent, parentVersion);
+            }
+            Node child = node.child(node.upperBound(key));
+            check(node, version);
+            parent = node;
+            parentVersion = version;
+            node = child;
+            version = readLock(child);
+        }
+        //2:叶子节点有空位,只锁住叶子节点,同时确认父节点没有发生变化
+        upgrade(node, version);
+        if (parent != null && parent.version != parentVersion) {
+            writeUnlock(node);
+            throw RESTART;
+        }
+        int index = node.search(key);
+        if (index >= 0) {
+            node.values[index] = value;
+        } else {
+            node.insertEntry(-index - 1, key, value);
+            size.increment();
+        }
+        writeUnlock(node);
+    }
+
+    private void splitFull(Node parent, long parentVersion, Node node, long version) {
+        if (parent != null) {
+            upgrade(parent, parentVersion);
+        }
+        try {
+            upgrade(node, version);
+        } catch (RestartException e) {
+            if (parent != null) {
+                writeUnlock(parent);
+            }
+            throw e;
+        }
+        if (parent == null && node != root) {
+            writeUnlock(node);
+            throw RESTART;
+        }
+        Node right = new Node(node.isLeaf, UPPER_BOUND);
+        K separator = node.isLeaf ? node.splitLeaf(right) : node.splitInternal(right);
+        if (parent != null) {
+            parent.insertChild(separator, right);
+            writeUnlock(node);
+            writeUnlock(parent);
+        } else {
+            Node newRoot = new Node(false, UPPER_BOUND);
+            newRoot.keys[0] = separator;
+            newRoot.children[0] = node;
+            newRoot.children[1] = right;
+            newRoot.count = 1;
+            root = newRoot;
+            writeUnlock(node);
+        }
+    }
+
+    private void doRemove(K key) {
+        Node node = root;
+        long version = readLock(node);
+        checkRoot(node, root);
+        Node parent = null;
+        long parentVersion = 0;
+        while (!node.isLeaf) {
+            if (parent != null) {
+                check(parent, parentVersion);
+            }
+            Node child = node.child(node.upperBound(key));
+            check(node, version);
+            parent = node;
+            parentVersion = version;
+            node = child;
+            version = readLock(child);
+        }
+        upgrade(node, version);
+        if (parent != null && parent.version != parentVersion) {
+            writeUnlock(node);
+            throw RESTART;
+        }
+        int index = node.search(key);
+        if (index >= 0) {
+            node.removeEntry(index);
+            size.decrement();
+        }
+        writeUnlock(node);
+    }
+
+    /**
+     * 读取节点版本号,节点正在被修改时重新开始
+     */
+    private long readLock(Node node) {
+        long version = (long) VERSION.getAcquire(node);
+        if ((version & 0b10) != 0) {
+            throw RESTART;
+        }
+        return version;
+    }
+
+    /**
+     * 读完节点内容后校验版本号,保证读到的是一致的数据
+     */
+    private void check(Node node, long version) {
+        VarHandle.acquireFence();
+        if (node.version != version) {
+            throw RESTART;
+        }
+    }
+
+    private void upgrade(Node node, long version) {
+        if (!VERSION.compareAndSet(node, version, version + 0b10)) {
+            throw RESTART;
+        }
+    }
+
+    private void writeUnlock(Node node) {
+        VERSION.setRelease(node, node.version + 0b10);
+    }
+
+    private static final class RestartException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private RestartException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final class Node {
+        private final boolean isLeaf;
+        private volatile long version;
+        //叶子节点中为关键字个数,非叶子节点中为分隔关键字个数(孩子个数为count + 1)
+        private int count;
+        private final Object[] keys;
+        private final Object[] values;
+        private final Node[] children;
+
+        @SuppressWarnings("unchecked")
+        private Node(boolean isLeaf, int capacity) {
+            this.isLeaf = isLeaf;
+            this.keys = new Object[capacity];
+            if (isLeaf) {
+                this.values = new Object[capacity];
+                this.children = null;
+            } else {
+                this.values = null;
+                this.children = (Node[]) new ConcurrentBPlusTree<?, ?>.Node[capacity + 1];
+            }
+        }
+
+        /**
+         * 乐观读取时count可能是写了一半的值,截断到数组范围内,结果是否有效由版本号校验保证
+         */
+        private int count() {
+            return Math.min(Math.max(count, 0), keys.length);
+        }
+
+        @SuppressWarnings("unchecked")
+        private K key(int index) {
+            Object key = keys[index];
+            if (key == null) {
+                throw RESTART;
+            }
+            return (K) key;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V value(int index) {
+            return (V) values[index];
+        }
+
+        private Node child(int index) {
+            Node child = children[Math.min(index, children.length - 1)];
+            if (child == null) {
+                throw RESTART;
+            }
+            return child;
+        }
+
+        private int search(K key) {
+            int left = 0;
+            int right = count() - 1;
+            while (left <= right) {
+                int mid = (left + right) >>> 1;
+                int compare = key.compareTo(key(mid));
+                if (compare > 0) {
+                    left = mid + 1;
+                } else if (compare < 0) {
+                    right = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(left + 1);
+        }
+
+        /**
+         * @return 第一个大于等于key的下标
+         */
+        private int lowerBound(K key) {
+            int left = 0;
+            int right = count();
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (key.compareTo(key(mid)) > 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+
+        /**
+         * @return 第一个大于key的下标,在非叶子节点中即为孩子下标
+         */
+        private int upperBound(K key) {
+            int left = 0;
+            int right = count();
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (key.compareTo(key(mid)) >= 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+
+        private void insertEntry(int index, K key, V value) {
+            System.arraycopy(keys, index, keys, index + 1, count - index);
+            System.arraycopy(values, index, values, index + 1, count - index);
+            keys[index] = key;
+            values[index] = value;
+            count++;
+        }
+
+        private void removeEntry(int index) {
+            System.arraycopy(keys, index + 1, keys, index, count - index - 1);
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+            count--;
+            keys[count] = null;
+            values[count] = null;
+        }
+
+        private void insertChild(K separator, Node child) {
+            int index = upperBound(separator);
+            System.arraycopy(keys, index, keys, index + 1, count - index);
+            System.arraycopy(children, index + 1, children, index + 2, count - index);
+            keys[index] = separator;
+            children[index + 1] = child;
+            count++;
+        }
+
+        /**
+         * 当前节点保留左半部分,右半部分移动到right中
+         * @return 返回需要插入父节点的分隔关键字
+         */
+        private K splitLeaf(Node right) {
+            int mid = count >>> 1;
+            right.count = count - mid;
+            System.arraycopy(keys, mid, right.keys, 0, right.count);
+            System.arraycopy(values, mid, right.values, 0, right.count);
+            for (int i = mid; i < count; i++) {
+                keys[i] = null;
+                values[i] = null;
+            }
+            count = mid;
+            return right.key(0);
+        }
+
+        private K splitInternal(Node right) {
+            int mid = count >>> 1;
+            K separator = key(mid);
+            right.count = count - mid - 1;
+            System.arraycopy(keys, mid + 1, right.keys, 0, right.count);
+            System.arraycopy(children, mid + 1, right.children, 0, right.count + 1);
+            for (int i = mid; i < count; i++) {
+                keys[i] = null;
+                children[i + 1] = null;
+            }
+            count = mid;
+            return separator;
+        }
+    }
+}
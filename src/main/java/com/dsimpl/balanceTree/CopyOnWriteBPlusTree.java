@@ -0,0 +1,490 @@
+package com.dsimpl.balanceTree;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 路径复制(copy-on-write)的B+树,可以在O(1)时间内取得整棵树的只读快照
+ * 1: 节点创建后不再修改,写操作只复制根节点到目标叶子节点路径上的节点,其余子树在新旧版本之间共享
+ * 2: 节点没有父指针,叶子节点之间也没有链表,否则修改一个叶子节点就要复制整条链表,范围遍历改为从根节点递归下降
+ * 3: 每次写操作完成后用一次volatile写发布新的版本(根节点、元素个数、层数),读操作与快照只读取某一个版本,
+ *    不需要加锁,也不会看到写了一半的数据;写操作之间用对象锁串行
+ * 4: 树本身只引用最新的版本,旧版本只被快照引用,没有快照引用后其中不再共享的节点由垃圾回收器回收
+ * 与{@link BPlusTree}相同,关键字大于等于分隔关键字的元素位于其右边的子树中
+ */
+public class CopyOnWriteBPlusTree<K extends Comparable<K>, V> {
+    public final int degree;
+    public final int UPPER_BOUND;
+    public final int UNDER_BOUND;
+    private volatile Snapshot current;
+    //以下字段只在持有对象锁的写操作中使用,用来把分裂与删除的结果从下层带回上层;写操作结束时清空,compareTo抛出异常时也是如此
+    private Node splitSibling;
+    private K splitKey;
+    private boolean replaced;
+    private V removedValue;
+
+    public CopyOnWriteBPlusTree(int degree) {
+        this.degree = Math.max(degree, 3);
+        this.UPPER_BOUND = this.degree - 1;
+        this.UNDER_BOUND = UPPER_BOUND / 2;
+        this.current = new Snapshot(new Node(new Object[0], new Object[0], null), 0, 1, 0);
+    }
+
+    /**
+     * @return 当前版本的只读快照,之后的写操作不会影响快照中的内容
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (key == null) {
+            return;
+        }
+        Snapshot version = current;
+        replaced = false;
+        try {
+            Node root = insert(version.root, key, value);
+            int height = version.height;
+            if (splitSibling != null) {
+                root = new Node(new Object[]{splitKey}, null, new Node[]{root, splitSibling});
+                height++;
+            }
+            current = new Snapshot(root, replaced ? version.size : version.size + 1, height, version.version + 1);
+        } finally {
+            splitSibling = null;
+            splitKey = null;
+        }
+    }
+
+    /**
+     * @return 被删除的数据,关键字不存在时返回null并且不产生新的版本
+     */
+    public synchronized V remove(K key) {
+        if (key == null) {
+            return null;
+        }
+        Snapshot version = current;
+        Node root;
+        V value;
+        try {
+            root = delete(version.root, key);
+            value = removedValue;
+        } finally {
+            removedValue = null;
+        }
+        if (root == version.root) {
+            return null;
+        }
+        int height = version.height;
+        //根节点只剩一个孩子时降低一层
+        if (!root.isLeaf() && root.keys.length == 0) {
+            root = root.children[0];
+            height--;
+        }
+        current = new Snapshot(root, version.size - 1, height, version.version + 1);
+        return value;
+    }
+
+    public V get(K key) {
+        return current.get(key);
+    }
+
+    public boolean containsKey(K key) {
+        return current.containsKey(key);
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    public K floorKey(K key) {
+        return current.floorKey(key);
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    public K ceilingKey(K key) {
+        return current.ceilingKey(key);
+    }
+
+    public K firstKey() {
+        return current.firstKey();
+    }
+
+    public K lastKey() {
+        return current.lastKey();
+    }
+
+    public Map<K, V> range(K start, K end) {
+        return current.range(start, end);
+    }
+
+    public int size() {
+        return current.size;
+    }
+
+    public int height() {
+        return current.height;
+    }
+
+    /**
+     * 在node的子树中插入元素,返回替换node的新节点;新节点超过上界时分裂,右半部分与分隔关键字放在splitSibling/splitKey中
+     */
+    private Node insert(Node node, K key, V value) {
+        if (node.isLeaf()) {
+            int index = search(node, key);
+            if (index >= 0) {
+                replaced = true;
+                Object[] values = node.values.clone();
+                values[index] = value;
+                return new Node(node.keys, values, null);
+            }
+            index = -index - 1;
+            Object[] keys = insertAt(node.keys, index, key);
+            Object[] values = insertAt(node.values, index, value);
+            if (keys.length <= UPPER_BOUND) {
+                return new Node(keys, values, null);
+            }
+            int mid = keys.length / 2;
+            splitSibling = new Node(copyRange(keys, mid, keys.length), copyRange(values, mid, values.length), null);
+            splitKey = keyAt(keys, mid);
+            return new Node(copyRange(keys, 0, mid), copyRange(values, 0, mid), null);
+        }
+        int childIndex = childIndex(node, key);
+        Node child = insert(node.children[childIndex], key, value);
+        if (splitSibling == null) {
+            Node[] children = node.children.clone();
+            children[childIndex] = child;
+            return new Node(node.keys, null, children);
+        }
+        Object[] keys = insertAt(node.keys, childIndex, splitKey);
+        Node[] children = new Node[node.children.length + 1];
+        System.arraycopy(node.children, 0, children, 0, childIndex);
+        children[childIndex] = child;
+        children[childIndex + 1] = splitSibling;
+        System.arraycopy(node.children, childIndex + 1, children, childIndex + 2, node.children.length - childIndex - 1);
+        splitSibling = null;
+        splitKey = null;
+        if (keys.length <= UPPER_BOUND) {
+            return new Node(keys, null, children);
+        }
+        //中间的关键字上移到父节点,左右两部分各自保留自己的孩子
+        int mid = keys.length / 2;
+        splitSibling = new Node(copyRange(keys, mid + 1, keys.length), null, copyRange(children, mid + 1, children.length));
+        splitKey = keyAt(keys, mid);
+        return new Node(copyRange(keys, 0, mid), null, copyRange(children, 0, mid + 1));
+    }
+
+    /**
+     * 在node的子树中删除关键字,关键字不存在时原样返回node,调用方据此判断是否需要复制路径;
+     * 返回的节点可能低于下界,由父节点与相邻兄弟节点合并或者重新分配
+     */
+    private Node delete(Node node, K key) {
+        if (node.isLeaf()) {
+            int index = search(node, key);
+            if (index < 0) {
+                return node;
+            }
+            removedValue = valueAt(node, index);
+            return new Node(removeAt(node.keys, index), removeAt(node.values, index), null);
+        }
+        int childIndex = childIndex(node, key);
+        Node child = delete(node.children[childIndex], key);
+        if (child == node.children[childIndex]) {
+            return node;
+        }
+        if (child.keys.length >= UNDER_BOUND) {
+            Node[] children = node.children.clone();
+            children[childIndex] = child;
+            return new Node(node.keys, null, children);
+        }
+        //优先与左兄弟节点处理,最左边的孩子与右兄弟节点处理,separator为两者之间分隔关键字的下标
+        int separator = childIndex > 0 ? childIndex - 1 : childIndex;
+        Node left = separator == childIndex ? child : node.children[separator];
+        Node right = separator == childIndex ? node.children[childIndex + 1] : child;
+        K separatorKey = keyAt(node.keys, separator);
+        Object[] keys;
+        Object[] values = null;
+        Node[] children = null;
+        if (child.isLeaf()) {
+            keys = concat(left.keys, right.keys);
+            values = concat(left.values, right.values);
+        } else {
+            keys = concat(insertAt(left.keys, left.keys.length, separatorKey), right.keys);
+            children = concat(left.children, right.children);
+        }
+        Object[] parentKeys;
+        Node[] parentChildren;
+        if (keys.length <= UPPER_BOUND) {
+            //合并为一个节点,父节点删除分隔关键字与右边的孩子
+            parentKeys = removeAt(node.keys, separator);
+            parentChildren = removeAt(node.children, separator + 1);
+            parentChildren[separator] = new Node(keys, values, children);
+        } else {
+            //两个节点的元素之和超过上界,平均分配到两个新节点中并替换分隔关键字
+            int mid = keys.length / 2;
+            parentKeys = node.keys.clone();
+            parentChildren = node.children.clone();
+            if (child.isLeaf()) {
+                parentKeys[separator] = keys[mid];
+                parentChildren[separator] = new Node(copyRange(keys, 0, mid), copyRange(values, 0, mid), null);
+                parentChildren[separator + 1] = new Node(copyRange(keys, mid, keys.length), copyRange(values, mid, values.length), null);
+            } else {
+                parentKeys[separator] = keys[mid];
+                parentChildren[separator] = new Node(copyRange(keys, 0, mid), null, copyRange(children, 0, mid + 1));
+                parentChildren[separator + 1] = new Node(copyRange(keys, mid + 1, keys.length), null, copyRange(children, mid + 1, children.length));
+            }
+        }
+        return new Node(parentKeys, null, parentChildren);
+    }
+
+    private int search(Node node, K key) {
+        int low = 0;
+        int high = node.keys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = keyAt(node.keys, mid).compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return 关键字所在孩子的下标,即分隔关键字中小于等于key的个数
+     */
+    private int childIndex(Node node, K key) {
+        int index = search(node, key);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K keyAt(Object[] keys, int index) {
+        return (K) keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(Node leaf, int index) {
+        return (V) leaf.values[index];
+    }
+
+    private static Object[] insertAt(Object[] array, int index, Object element) {
+        Object[] result = new Object[array.length + 1];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = element;
+        System.arraycopy(array, index, result, index + 1, array.length - index);
+        return result;
+    }
+
+    private static <T> T[] removeAt(T[] array, int index) {
+        T[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+        return result;
+    }
+
+    private static <T> T[] copyRange(T[] array, int from, int to) {
+        return Arrays.copyOfRange(array, from, to);
+    }
+
+    private static <T> T[] concat(T[] left, T[] right) {
+        T[] result = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, result, left.length, right.length);
+        return result;
+    }
+
+    /**
+     * 某一时刻整棵树的只读视图,持有该版本的根节点,之后的写操作只会生成新的节点,不会修改快照中的任何节点
+     * 快照不需要显式释放,不再被引用后与其独占的旧节点一起被垃圾回收
+     */
+    public final class Snapshot {
+        private final Node root;
+        private final int size;
+        private final int height;
+        private final long version;
+
+        private Snapshot(Node root, int size, int height, long version) {
+            this.root = root;
+            this.size = size;
+            this.height = height;
+            this.version = version;
+        }
+
+        /**
+         * @return 生成该快照之前完成的写操作次数,不产生修改的删除不计入
+         */
+        public long version() {
+            return version;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int height() {
+            return height;
+        }
+
+        public V get(K key) {
+            if (key == null) {
+                return null;
+            }
+            Node leaf = findLeaf(key);
+            int index = search(leaf, key);
+            return index >= 0 ? valueAt(leaf, index) : null;
+        }
+
+        public boolean containsKey(K key) {
+            return key != null && search(findLeaf(key), key) >= 0;
+        }
+
+        public K floorKey(K key) {
+            return key == null ? null : floorKey(root, key);
+        }
+
+        public K ceilingKey(K key) {
+            return key == null ? null : ceilingKey(root, key);
+        }
+
+        public K firstKey() {
+            Node node = root;
+            while (!node.isLeaf()) {
+                node = node.children[0];
+            }
+            return node.keys.length == 0 ? null : keyAt(node.keys, 0);
+        }
+
+        public K lastKey() {
+            Node node = root;
+            while (!node.isLeaf()) {
+                node = node.children[node.children.length - 1];
+            }
+            return node.keys.length == 0 ? null : keyAt(node.keys, node.keys.length - 1);
+        }
+
+        /**
+         * 区间语义与{@link BPlusTree#range}一致:(start, end],结果按关键字升序排列
+         */
+        public Map<K, V> range(K start, K end) {
+            Map<K, V> result = new LinkedHashMap<>();
+            if (start != null && end != null && start.compareTo(end) < 0) {
+                scan(root, start, end, result::put);
+            }
+            return result;
+        }
+
+        /**
+         * 按关键字升序遍历(start, end]中的元素,start/end为null表示该方向不设边界,不会把结果收集到集合中
+         */
+        public void forEach(K start, K end, BiConsumer<? super K, ? super V> action) {
+            if (start == null || end == null || start.compareTo(end) < 0) {
+                scan(root, start, end, action);
+            }
+        }
+
+        private Node findLeaf(K key) {
+            Node node = root;
+            while (!node.isLeaf()) {
+                node = node.children[childIndex(node, key)];
+            }
+            return node;
+        }
+
+        /**
+         * 没有叶子节点链表,子树中不存在满足条件的关键字时退回到左边相邻子树的最大关键字,
+         * 除根节点外每个节点都不为空,所以只需要看相邻的一个子树
+         */
+        private K floorKey(Node node, K key) {
+            if (node.isLeaf()) {
+                int index = search(node, key);
+                index = index >= 0 ? index : -index - 2;
+                return index >= 0 ? keyAt(node.keys, index) : null;
+            }
+            int childIndex = childIndex(node, key);
+            K result = floorKey(node.children[childIndex], key);
+            if (result != null || childIndex == 0) {
+                return result;
+            }
+            Node sibling = node.children[childIndex - 1];
+            while (!sibling.isLeaf()) {
+                sibling = sibling.children[sibling.children.length - 1];
+            }
+            return keyAt(sibling.keys, sibling.keys.length - 1);
+        }
+
+        private K ceilingKey(Node node, K key) {
+            if (node.isLeaf()) {
+                int index = search(node, key);
+                index = index >= 0 ? index : -index - 1;
+                return index < node.keys.length ? keyAt(node.keys, index) : null;
+            }
+            int childIndex = childIndex(node, key);
+            K result = ceilingKey(node.children[childIndex], key);
+            if (result != null || childIndex == node.children.length - 1) {
+                return result;
+            }
+            Node sibling = node.children[childIndex + 1];
+            while (!sibling.isLeaf()) {
+                sibling = sibling.children[0];
+            }
+            return keyAt(sibling.keys, 0);
+        }
+
+        /**
+         * @return 遇到大于end的关键字时返回false,通知上层停止遍历
+         */
+        private boolean scan(Node node, K start, K end, BiConsumer<? super K, ? super V> action) {
+            if (node.isLeaf()) {
+                int index = 0;
+                if (start != null) {
+                    index = search(node, start);
+                    index = index >= 0 ? index + 1 : -index - 1;
+                }
+                for (; index < node.keys.length; index++) {
+                    K key = keyAt(node.keys, index);
+                    if (end != null && key.compareTo(end) > 0) {
+                        return false;
+                    }
+                    action.accept(key, valueAt(node, index));
+                }
+                return true;
+            }
+            int childIndex = start == null ? 0 : childIndex(node, start);
+            for (; childIndex < node.children.length; childIndex++) {
+                if (childIndex > 0 && end != null && keyAt(node.keys, childIndex - 1).compareTo(end) > 0) {
+                    return false;
+                }
+                if (!scan(node.children[childIndex], start, end, action)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 不可变节点,叶子节点的children为null,非叶子节点的values为null,非叶子节点的孩子比关键字多一个
+     */
+    private static final class Node {
+        final Object[] keys;
+        final Object[] values;
+        final Node[] children;
+
+        Node(Object[] keys, Object[] values, Node[] children) {
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.dsimpl.balanceTree;
+
+import com.dsimpl.balanceTree.storage.Serializer;
+import com.dsimpl.balanceTree.storage.WriteAheadLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存中的{@link BPlusTree}加上预写日志,崩溃后可以恢复到最后一次持久化的修改
+ * 1: 数据目录中有两个文件:快照tree.snapshot是某个时刻整棵树的{@link BPlusTree#writeSnapshot}结果,
+ *    日志tree.wal按顺序记录此后的每个put/remove,见{@link WriteAheadLog}
+ * 2: 写操作在写锁内先追加日志记录再修改树,日志中的顺序与树的修改顺序一致;读操作持有读锁,可以并发进行
+ * 3: 持久化级别:
+ *    SYNC: put/remove返回前记录已经force到磁盘,同时等待的多个写线程共享一次force(组提交)
+ *    BATCHED: 后台线程每隔flushInterval写出并force一次,崩溃最多丢失最后一个间隔内的修改
+ *    ASYNC: 后台线程定期写出但不force,只能防止进程崩溃,操作系统崩溃时可能丢失页缓存中的修改
+ * 4: 日志超过checkpointBytes后由后台线程做检查点:写出新的快照,force后原子地替换旧快照,再清空日志,
+ *    检查点期间写操作被阻塞;也可以调用checkpoint()主动进行
+ * 5: 打开时读取快照并重放日志,日志末尾写了一半的记录被截断
+ * 后台写日志失败后,之后的写操作都抛出UncheckedIOException
+ */
+public final class DurableBPlusTree<K extends Comparable<K>, V> implements Closeable {
+    //BATCHED与ASYNC写出日志的默认间隔
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+    //日志超过这个字节数后做检查点
+    public static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+    private static final String SNAPSHOT_FILE = "tree.snapshot";
+    private static final String SNAPSHOT_TEMP_FILE = "tree.snapshot.tmp";
+    private static final String LOG_FILE = "tree.wal";
+
+    public enum Durability {
+        SYNC, BATCHED, ASYNC
+    }
+
+    private final BPlusTree<K, V> tree;
+    private final Path directory;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final Durability durability;
+    private final long checkpointBytes;
+    private final WriteAheadLog<K, V> log;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService scheduler;
+    private final long replayed;
+    private volatile boolean closed;
+
+    /**
+     * 打开或者创建数据目录,使用默认的写出间隔与检查点大小
+     */
+    public DurableBPlusTree(Path directory, int degree, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                            Durability durability) throws IOException {
+        this(directory, degree, keySerializer, valueSerializer, durability, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * @param flushIntervalMillis BATCHED与ASYNC写出日志的间隔,SYNC下只用于检查日志大小
+     * @param checkpointBytes     日志超过这个字节数后做检查点,不大于0时只在调用checkpoint()时进行
+     */
+    public DurableBPlusTree(Path directory, int degree, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                            Durability durability, long flushIntervalMillis, long checkpointBytes) throws IOException {
+        if (flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("flushIntervalMillis must be positive: " + flushIntervalMillis);
+        }
+        this.tree = new BPlusTree<>(degree);
+        this.directory = directory;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.durability = durability;
+        this.checkpointBytes = checkpointBytes;
+        Files.createDirectories(directory);
+        //上次检查点没有完成时留下的临时快照,旧快照与日志仍然完整
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_TEMP_FILE));
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                tree.readSnapshot(channel, keySerializer, valueSerializer);
+            }
+        }
+        this.log = new WriteAheadLog<>(directory.resolve(LOG_FILE), keySerializer, valueSerializer);
+        try {
+            replayed = log.replay(new WriteAheadLog.Replayer<>() {
+                @Override
+                public void put(K key, V value) {
+                    tree.put(key, value);
+                }
+
+                @Override
+                public void remove(K key) {
+                    tree.remove(key);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "durable-bplustree-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::background, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return 原来的数据,关键字不存在时返回null
+     */
+    public V put(K key, V value) {
+        if (key == null) {
+            return null;
+        }
+        long lsn;
+        V previous;
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            lsn = log.appendPut(key, value);
+            previous = tree.put(key, value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        //在锁外等待force,其他写线程可以继续追加,由同一次force带走
+        if (durability == Durability.SYNC) {
+            log.sync(lsn);
+        }
+        return previous;
+    }
+
+    /**
+     * @return 被删除的数据,关键字不存在时返回null且不写日志
+     */
+    public V remove(K key) {
+        if (key == null) {
+            return null;
+        }
+        long lsn;
+        V previous;
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (!tree.containsKey(key)) {
+                return null;
+            }
+            lsn = log.appendRemove(key);
+            previous = tree.remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (durability == Durability.SYNC) {
+            log.sync(lsn);
+        }
+        return previous;
+    }
+
+    public V get(K key) {
+        lock.readLock().lock();
+        try {
+            return tree.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean containsKey(K key) {
+        lock.readLock().lock();
+        try {
+            return tree.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    public K floorKey(K key) {
+        lock.readLock().lock();
+        try {
+            return tree.floorKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    public K ceilingKey(K key) {
+        lock.readLock().lock();
+        try {
+            return tree.ceilingKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return tree.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Durability durability() {
+        return durability;
+    }
+
+    /**
+     * @return 打开时从日志中重放的记录条数
+     */
+    public long replayedRecords() {
+        return replayed;
+    }
+
+    /**
+     * @return 日志当前的字节数,包括还没有写出的记录
+     */
+    public long logBytes() {
+        return log.bytes();
+    }
+
+    /**
+     * 把已经追加的日志记录写出并force,BATCHED与ASYNC下用于确认之前的修改已经持久化
+     */
+    public void flush() {
+        checkOpen();
+        log.flush(true);
+    }
+
+    /**
+     * 写出新的快照并清空日志;期间持有读锁,读操作可以继续,写操作等待检查点完成
+     */
+    public void checkpoint() throws IOException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            Path temp = directory.resolve(SNAPSHOT_TEMP_FILE);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                tree.writeSnapshot(channel, keySerializer, valueSerializer);
+                channel.force(true);
+            }
+            Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory();
+            //新快照已经包含全部修改,此时崩溃重放旧日志也只是重复同样的修改
+            log.reset();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 停止后台线程,写出并force剩余的日志记录;不做检查点,下次打开时重放日志
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private void background() {
+        try {
+            if (durability != Durability.SYNC) {
+                log.flush(durability == Durability.BATCHED);
+            }
+            if (checkpointBytes > 0 && log.bytes() > checkpointBytes) {
+                checkpoint();
+            }
+        } catch (IOException | RuntimeException e) {
+            //写日志失败时日志进入失败状态,之后的写操作会抛出异常;检查点失败时旧快照与日志仍然完整,下次调度再试
+        }
+    }
+
+    /**
+     * 让重命名本身持久化,不支持打开目录的平台上忽略
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //Windows等平台不能打开目录
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("tree is closed");
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.dsimpl.balanceTree;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 用平面合并(flat combining)让多个线程共享一棵{@link BPlusTree}:
+ * 1: 固定个数的发布槽位,线程按自身的哈希值选择起始槽位,CAS占用一个空闲槽位后写入操作并标记为待处理
+ * 2: 发布后尝试获取合并锁,拿到锁的线程成为合并者,收集所有待处理的操作,按关键字排序后依次作用到树上,
+ *    把结果写回各自的槽位;没有拿到锁的线程短暂自旋等待结果,之后阻塞在合并锁上,获得锁时结果通常已经写回
+ * 3: 同一批中的操作都是并发发生的,排序不影响线性一致性;有序地访问树使相邻的操作落在相同的路径与叶子节点上,
+ *    树的root、size等字段只被合并者一个线程读写,不会在各个核心的缓存之间来回传递
+ * 4: 等待使用ReentrantLock而不是synchronized,虚拟线程阻塞时会让出载体线程;槽位在操作完成后立即释放,
+ *    不与线程绑定,因此大量短生命周期的虚拟线程也只占用固定个数的槽位;槽位都被占用时直接在合并锁内执行
+ */
+public class FlatCombiningBPlusTree<K extends Comparable<K>, V> {
+    private static final VarHandle STATE;
+    private static final int FREE = 0;
+    private static final int CLAIMED = 1;
+    private static final int PENDING = 2;
+    private static final int DONE = 3;
+    private static final int PUT = 0;
+    private static final int REMOVE = 1;
+    private static final int GET = 2;
+    private static final int CONTAINS = 3;
+    private static final int FLOOR = 4;
+    private static final int CEILING = 5;
+    //发布操作后自旋等待的次数,之后阻塞在合并锁上
+    private static final int SPINS = 256;
+    //合并者连续扫描槽位的最多轮数,后一轮处理前一轮期间新发布的操作
+    private static final int MAX_PASSES = 3;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Slot.class, "state", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final BPlusTree<K, V> tree;
+    private final ReentrantLock combinerLock = new ReentrantLock();
+    private final Slot[] slots;
+    private final int slotMask;
+    //合并者使用的排序缓冲区,只在持有合并锁时访问
+    private final Slot[] batch;
+    private volatile int size;
+    private long batches;
+    private long combined;
+
+    /**
+     * 槽位个数为可用处理器个数的4倍
+     */
+    public FlatCombiningBPlusTree(int degree) {
+        this(degree, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param slots 发布槽位的个数,向上取整为2的幂;同时等待的线程超过它时,多出的线程直接在合并锁内执行操作
+     */
+    public FlatCombiningBPlusTree(int degree, int slots) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("slots must be positive: " + slots);
+        }
+        this.tree = new BPlusTree<>(degree);
+        int capacity = slots == 1 ? 1 : Integer.highestOneBit(slots - 1) << 1;
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.slots[i] = new Slot();
+        }
+        this.slotMask = capacity - 1;
+        this.batch = new Slot[capacity];
+    }
+
+    /**
+     * @return 原来的数据,关键字不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (key == null) {
+            return null;
+        }
+        return (V) execute(PUT, key, value);
+    }
+
+    /**
+     * @return 被删除的数据,关键字不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(K key) {
+        if (key == null) {
+            return null;
+        }
+        return (V) execute(REMOVE, key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        return (V) execute(GET, key, null);
+    }
+
+    public boolean containsKey(K key) {
+        if (key == null) {
+            return false;
+        }
+        return (Boolean) execute(CONTAINS, key, null);
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    @SuppressWarnings("unchecked")
+    public K floorKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        return (K) execute(FLOOR, key, null);
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    @SuppressWarnings("unchecked")
+    public K ceilingKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        return (K) execute(CEILING, key, null);
+    }
+
+    /**
+     * @return 最近一批操作完成后的元素个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return 合并者处理过的批数,与combinedOperations一起估计平均每批合并了多少个操作;不加锁读取,只是近似值
+     */
+    public long combinedBatches() {
+        return batches;
+    }
+
+    public long combinedOperations() {
+        return combined;
+    }
+
+    private Object execute(int op, K key, V value) {
+        Slot slot = claim();
+        if (slot == null) {
+            //槽位都被占用,退化为普通的加锁执行
+            combinerLock.lock();
+            try {
+                Object result = apply(op, key, value);
+                size = tree.size();
+                return result;
+            } finally {
+                combinerLock.unlock();
+            }
+        }
+        slot.op = op;
+        slot.key = key;
+        slot.value = value;
+        STATE.setRelease(slot, PENDING);
+        for (int spin = 0; spin < SPINS && (int) STATE.getAcquire(slot) != DONE; spin++) {
+            if (!combinerLock.isLocked() && combinerLock.tryLock()) {
+                try {
+                    combine();
+                } finally {
+                    combinerLock.unlock();
+                }
+                break;
+            }
+            Thread.onSpinWait();
+        }
+        if ((int) STATE.getAcquire(slot) != DONE) {
+            combinerLock.lock();
+            try {
+                //自己发布的操作在获得锁之前已经是待处理状态,合并后一定完成
+                if ((int) STATE.getAcquire(slot) != DONE) {
+                    combine();
+                }
+            } finally {
+                combinerLock.unlock();
+            }
+        }
+        Object result = slot.result;
+        RuntimeException failure = slot.failure;
+        slot.key = null;
+        slot.value = null;
+        slot.result = null;
+        slot.failure = null;
+        STATE.setRelease(slot, FREE);
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    /**
+     * 从线程哈希值决定的位置开始找一个空闲槽位,所有槽位都被占用时返回null
+     */
+    private Slot claim() {
+        int start = (System.identityHashCode(Thread.currentThread()) * 0x9E3779B9) & slotMask;
+        for (int i = 0; i <= slotMask; i++) {
+            Slot slot = slots[(start + i) & slotMask];
+            if ((int) STATE.getOpaque(slot) == FREE && STATE.compareAndSet(slot, FREE, CLAIMED)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 持有合并锁时调用:收集待处理的操作,按关键字排序后作用到树上
+     */
+    private void combine() {
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            int count = 0;
+            for (Slot slot : slots) {
+                if ((int) STATE.getAcquire(slot) == PENDING) {
+                    batch[count++] = slot;
+                }
+            }
+            if (count == 0) {
+                break;
+            }
+            try {
+                sortByKey(count);
+            } catch (RuntimeException e) {
+                //关键字无法比较时不再排序,按当前顺序执行,这样的操作会在apply中失败,异常同样交给各自的线程
+            }
+            for (int i = 0; i < count; i++) {
+                Slot slot = batch[i];
+                try {
+                    slot.result = apply(slot.op, slot.key, slot.value);
+                } catch (RuntimeException e) {
+                    //异常交给发布操作的线程抛出,不影响同一批的其他操作
+                    slot.failure = e;
+                }
+                batch[i] = null;
+                STATE.setRelease(slot, DONE);
+            }
+            size = tree.size();
+            batches++;
+            combined += count;
+        }
+    }
+
+    /**
+     * 一批最多与槽位个数相同,使用稳定的插入排序,相同关键字的操作保持扫描顺序;
+     * compareTo抛出异常时把正在插入的槽位放回空位,batch中仍然是这一批的全部槽位
+     */
+    @SuppressWarnings("unchecked")
+    private void sortByKey(int count) {
+        for (int i = 1; i < count; i++) {
+            Slot slot = batch[i];
+            K key = (K) slot.key;
+            int j = i - 1;
+            try {
+                while (j >= 0 && ((K) batch[j].key).compareTo(key) > 0) {
+                    batch[j + 1] = batch[j];
+                    j--;
+                }
+            } finally {
+                batch[j + 1] = slot;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object apply(int op, Object key, Object value) {
+        K k = (K) key;
+        switch (op) {
+            case PUT:
+                return tree.put(k, (V) value);
+            case REMOVE:
+                return tree.remove(k);
+            case GET:
+                return tree.get(k);
+            case CONTAINS:
+                return tree.containsKey(k);
+            case FLOOR:
+                return tree.floorKey(k);
+            case CEILING:
+                return tree.ceilingKey(k);
+            default:
+                throw new IllegalStateException("unknown operation " + op);
+        }
+    }
+
+    /**
+     * 发布槽位,state由VarHandle访问,其余字段的可见性由state的release/acquire保证;
+     * long字段在对象布局中排在最前面,相邻分配的槽位之间隔开一个缓存行,避免各线程写自己的槽位时互相失效
+     */
+    private static final class Slot {
+        @SuppressWarnings("unused")
+        private long p0, p1, p2, p3, p4, p5, p6, p7;
+        private volatile int state;
+        private int op;
+        private Object key;
+        private Object value;
+        private Object result;
+        private RuntimeException failure;
+    }
+}
@@ -0,0 +1,119 @@
+package com.dsimpl.balanceTree;
+
+/**
+ * int/long关键字在节点内的查找,供IntBPlusTree、LongBPlusTree等基本类型的树使用
+ * 1: 运行时加载了jdk.incubator.vector模块(--add-modules jdk.incubator.vector)时使用Vector API:
+ *    先用无分支的二分把范围缩小到一个向量的宽度,再一次比较整块关键字,用掩码中为true的位数得到下标
+ * 2: 没有加载该模块、向量宽度太窄,或者以-Ddsimpl.vectorSearch=false关闭时,使用无分支的二分查找:
+ *    每一步只根据比较结果选择下一段的起点,JIT编译为条件传送,不会因为分支预测失败而清空流水线
+ * 3: keys中只有前size个元素有效,之后的元素可能是删除或者移动后留下的旧值,不会被计入结果
+ */
+public final class KeySearch {
+    private static final boolean VECTORIZED = Boolean.parseBoolean(System.getProperty("dsimpl.vectorSearch", "true"))
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && VectorKeySearch.supported();
+
+    private KeySearch() {
+    }
+
+    /**
+     * @return 当前是否使用Vector API
+     */
+    public static boolean vectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * @return 存在返回下标,不存在返回-(插入位置)-1
+     */
+    public static int search(int[] keys, int size, int key) {
+        int index = lowerBound(keys, size, key);
+        return index < size && keys[index] == key ? index : -(index + 1);
+    }
+
+    public static int search(long[] keys, int size, long key) {
+        int index = lowerBound(keys, size, key);
+        return index < size && keys[index] == key ? index : -(index + 1);
+    }
+
+    /**
+     * @return 第一个大于等于key的下标,即小于key的元素个数
+     */
+    public static int lowerBound(int[] keys, int size, int key) {
+        return VECTORIZED ? VectorKeySearch.lowerBound(keys, size, key) : scalarLowerBound(keys, size, key);
+    }
+
+    /**
+     * @return 第一个大于key的下标,即小于等于key的元素个数,在非叶子节点中即为孩子下标
+     */
+    public static int upperBound(int[] keys, int size, int key) {
+        return VECTORIZED ? VectorKeySearch.upperBound(keys, size, key) : scalarUpperBound(keys, size, key);
+    }
+
+    public static int lowerBound(long[] keys, int size, long key) {
+        return VECTORIZED ? VectorKeySearch.lowerBound(keys, size, key) : scalarLowerBound(keys, size, key);
+    }
+
+    public static int upperBound(long[] keys, int size, long key) {
+        return VECTORIZED ? VectorKeySearch.upperBound(keys, size, key) : scalarUpperBound(keys, size, key);
+    }
+
+    /**
+     * 结果始终在[base, base + n]中,每一步把n减半,最后比较一次决定是base还是base + 1
+     */
+    static int scalarLowerBound(int[] keys, int size, int key) {
+        if (size == 0) {
+            return 0;
+        }
+        int base = 0;
+        int n = size;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = keys[base + half] < key ? base + half : base;
+            n -= half;
+        }
+        return base + (keys[base] < key ? 1 : 0);
+    }
+
+    static int scalarUpperBound(int[] keys, int size, int key) {
+        if (size == 0) {
+            return 0;
+        }
+        int base = 0;
+        int n = size;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = keys[base + half] <= key ? base + half : base;
+            n -= half;
+        }
+        return base + (keys[base] <= key ? 1 : 0);
+    }
+
+    static int scalarLowerBound(long[] keys, int size, long key) {
+        if (size == 0) {
+            return 0;
+        }
+        int base = 0;
+        int n = size;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = keys[base + half] < key ? base + half : base;
+            n -= half;
+        }
+        return base + (keys[base] < key ? 1 : 0);
+    }
+
+    static int scalarUpperBound(long[] keys, int size, long key) {
+        if (size == 0) {
+            return 0;
+        }
+        int base = 0;
+        int n = size;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = keys[base + half] <= key ? base + half : base;
+            n -= half;
+        }
+        return base + (keys[base] <= key ? 1 : 0);
+    }
+}
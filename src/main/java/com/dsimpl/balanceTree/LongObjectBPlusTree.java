@@ -0,0 +1,397 @@
+package com.dsimpl.balanceTree;
+
+import java.util.Arrays;
+
+/**
+ * 关键字为long、数据为V的B+树,语义与{@link BPlusTree}一致(put/get/remove/floorKey/ceilingKey/range)
+ * 1: 节点中直接使用long[]保存关键字,查找时直接比较,不存在装箱对象与compareTo的虚调用;节点内的查找见{@link KeySearch}
+ * 2: 没有父指针,插入与删除时用路径栈记录根节点到叶子节点途经的节点以及孩子下标
+ * 3: 不存在的数据与关键字分别以noEntryValue/noEntryKey表示
+ */
+public class LongObjectBPlusTree<V> {
+    public int degree;
+    public int UPPER_BOUND;
+    public int UNDER_BOUND;
+    private Node root;
+    private Node head;
+    private Node tail;
+    private int size;
+    private int levels = 1;
+    private final long noEntryKey;
+    private final V noEntryValue;
+    //路径栈:pathNodes[i]为第i层经过的非叶子节点,pathIndexes[i]为在该节点中选择的孩子下标
+    private Node[] pathNodes = new Node[8];
+    private int[] pathIndexes = new int[8];
+    private int pathDepth;
+
+    public LongObjectBPlusTree(int degree) {
+        this(degree, Long.MIN_VALUE, null);
+    }
+
+    public LongObjectBPlusTree(int degree, long noEntryKey, V noEntryValue) {
+        this.degree = Math.max(degree, 3);
+        this.UPPER_BOUND = this.degree - 1;
+        this.UNDER_BOUND = UPPER_BOUND / 2;
+        this.noEntryKey = noEntryKey;
+        this.noEntryValue = noEntryValue;
+        this.root = new Node(true, this.degree);
+        head = root;
+        tail = root;
+    }
+
+    public void put(long key, V value) {
+        Node leaf = findLeaf(key);
+        int index = leaf.search(key);
+        if (index >= 0) {
+            leaf.values[index] = value;
+            return;
+        }
+        leaf.insertEntry(-index - 1, key, value);
+        size++;
+        if (leaf.size > UPPER_BOUND) {
+            splitLeaf(leaf);
+        }
+    }
+
+    public V get(long key) {
+        Node leaf = findLeaf(key);
+        int index = leaf.search(key);
+        return index >= 0 ? valueAt(leaf, index) : noEntryValue;
+    }
+
+    public boolean containsKey(long key) {
+        return findLeaf(key).search(key) >= 0;
+    }
+
+    /**
+     * @return 删除成功返回true,关键字不存在返回false
+     */
+    public boolean remove(long key) {
+        Node leaf = findLeaf(key);
+        int index = leaf.search(key);
+        if (index < 0) {
+            return false;
+        }
+        leaf.removeEntry(index);
+        size--;
+        if (pathDepth > 0 && leaf.size < UNDER_BOUND) {
+            rebalanceLeaf(leaf);
+        }
+        return true;
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回noEntryKey
+     */
+    public long floorKey(long key) {
+        Node leaf = findLeaf(key);
+        int index = leaf.upperBound(key) - 1;
+        if (index >= 0) {
+            return leaf.keys[index];
+        }
+        //由于叶子节点是有序链表,所以这个节点中不存在,那就一定是上一个节点的最后一个元素
+        return leaf.pre == null ? noEntryKey : leaf.pre.keys[leaf.pre.size - 1];
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回noEntryKey
+     */
+    public long ceilingKey(long key) {
+        Node leaf = findLeaf(key);
+        int index = leaf.lowerBound(key);
+        if (index < leaf.size) {
+            return leaf.keys[index];
+        }
+        return leaf.next == null ? noEntryKey : leaf.next.keys[0];
+    }
+
+    public long firstKey() {
+        return size == 0 ? noEntryKey : head.keys[0];
+    }
+
+    public long lastKey() {
+        return size == 0 ? noEntryKey : tail.keys[tail.size - 1];
+    }
+
+    /**
+     * 按关键字升序把(start, end]中的元素交给consumer,区间语义与{@link BPlusTree#range}一致
+     * @return 返回访问的元素个数
+     */
+    public int range(long start, long end, EntryConsumer<? super V> consumer) {
+        if (start >= end) {
+            return 0;
+        }
+        Node cur = findLeaf(start);
+        int index = cur.upperBound(start);
+        int count = 0;
+        while (cur != null) {
+            for (; index < cur.size; index++) {
+                if (cur.keys[index] > end) {
+                    return count;
+                }
+                consumer.accept(cur.keys[index], valueAt(cur, index));
+                count++;
+            }
+            cur = cur.next;
+            index = 0;
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int height() {
+        return size == 0 ? 0 : levels;
+    }
+
+    /**
+     * 从根节点下降到关键字所在的叶子节点,同时记录路径栈
+     */
+    private Node findLeaf(long key) {
+        Node cur = root;
+        int depth = 0;
+        while (!cur.isLeaf) {
+            int childIndex = cur.upperBound(key);
+            if (depth == pathNodes.length) {
+                pathNodes = Arrays.copyOf(pathNodes, depth << 1);
+                pathIndexes = Arrays.copyOf(pathIndexes, depth << 1);
+            }
+            pathNodes[depth] = cur;
+            pathIndexes[depth] = childIndex;
+            depth++;
+            cur = cur.children[childIndex];
+        }
+        pathDepth = depth;
+        return cur;
+    }
+
+    /**
+     * 叶子节点超过上界后分裂,原节点保留左半部分,只分配右兄弟节点
+     */
+    private void splitLeaf(Node leaf) {
+        Node right = new Node(true, degree);
+        int mid = leaf.size >>> 1;
+        right.size = leaf.size - mid;
+        System.arraycopy(leaf.keys, mid, right.keys, 0, right.size);
+        System.arraycopy(leaf.values, mid, right.values, 0, right.size);
+        Arrays.fill(leaf.values, mid, leaf.size, null);
+        leaf.size = mid;
+        //处理叶子节点链表
+        right.next = leaf.next;
+        right.pre = leaf;
+        if (leaf.next != null) {
+            leaf.next.pre = right;
+        } else {
+            tail = right;
+        }
+        leaf.next = right;
+        insertIntoParent(pathDepth - 1, leaf, right.keys[0], right);
+    }
+
+    private void insertIntoParent(int level, Node left, long separator, Node right) {
+        if (level < 0) {
+            //分裂的是根节点,树高加一
+            Node newRoot = new Node(false, degree);
+            newRoot.keys[0] = separator;
+            newRoot.children[0] = left;
+            newRoot.children[1] = right;
+            newRoot.size = 1;
+            root = newRoot;
+            levels++;
+            return;
+        }
+        Node parent = pathNodes[level];
+        int index = pathIndexes[level];
+        System.arraycopy(parent.keys, index, parent.keys, index + 1, parent.size - index);
+        System.arraycopy(parent.children, index + 1, parent.children, index + 2, parent.size - index);
+        parent.keys[index] = separator;
+        parent.children[index + 1] = right;
+        parent.size++;
+        if (parent.size > UPPER_BOUND) {
+            splitInternal(parent, level);
+        }
+    }
+
+    private void splitInternal(Node node, int level) {
+        Node right = new Node(false, degree);
+        int mid = node.size >>> 1;
+        long upKey = node.keys[mid];
+        right.size = node.size - mid - 1;
+        System.arraycopy(node.keys, mid + 1, right.keys, 0, right.size);
+        System.arraycopy(node.children, mid + 1, right.children, 0, right.size + 1);
+        Arrays.fill(node.children, mid + 1, node.size + 1, null);
+        node.size = mid;
+        insertIntoParent(level - 1, node, upKey, right);
+    }
+
+    /**
+     * 叶子节点低于下界:先向左右兄弟借,借不了再与兄弟合并
+     */
+    private void rebalanceLeaf(Node leaf) {
+        int level = pathDepth - 1;
+        Node parent = pathNodes[level];
+        int index = pathIndexes[level];
+        Node left = index > 0 ? parent.children[index - 1] : null;
+        Node right = index < parent.size ? parent.children[index + 1] : null;
+        if (left != null && left.size > UNDER_BOUND) {
+            leaf.insertEntry(0, left.keys[left.size - 1], left.values[left.size - 1]);
+            left.removeEntry(left.size - 1);
+            parent.keys[index - 1] = leaf.keys[0];
+        } else if (right != null && right.size > UNDER_BOUND) {
+            leaf.insertEntry(leaf.size, right.keys[0], right.values[0]);
+            right.removeEntry(0);
+            parent.keys[index] = right.keys[0];
+        } else if (left != null) {
+            mergeLeaf(left, leaf, parent, index - 1, level);
+        } else {
+            mergeLeaf(leaf, right, parent, index, level);
+        }
+    }
+
+    private void mergeLeaf(Node left, Node right, Node parent, int separatorIndex, int level) {
+        System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+        System.arraycopy(right.values, 0, left.values, left.size, right.size);
+        left.size += right.size;
+        left.next = right.next;
+        if (right.next != null) {
+            right.next.pre = left;
+        } else {
+            tail = left;
+        }
+        parent.removeSeparator(separatorIndex);
+        rebalanceInternal(parent, level);
+    }
+
+    private void rebalanceInternal(Node node, int level) {
+        if (level == 0) {
+            //根节点只剩一个孩子时,孩子成为新的根节点
+            if (node.size == 0) {
+                root = node.children[0];
+                levels--;
+            }
+            return;
+        }
+        if (node.size >= UNDER_BOUND) {
+            return;
+        }
+        Node parent = pathNodes[level - 1];
+        int index = pathIndexes[level - 1];
+        Node left = index > 0 ? parent.children[index - 1] : null;
+        Node right = index < parent.size ? parent.children[index + 1] : null;
+        if (left != null && left.size > UNDER_BOUND) {
+            //父节点的分隔关键字下移,左兄弟最大的关键字上移,左兄弟最后一个孩子成为当前节点的第一个孩子
+            System.arraycopy(node.keys, 0, node.keys, 1, node.size);
+            System.arraycopy(node.children, 0, node.children, 1, node.size + 1);
+            node.keys[0] = parent.keys[index - 1];
+            node.children[0] = left.children[left.size];
+            node.size++;
+            parent.keys[index - 1] = left.keys[left.size - 1];
+            left.children[left.size] = null;
+            left.size--;
+        } else if (right != null && right.size > UNDER_BOUND) {
+            node.keys[node.size] = parent.keys[index];
+            node.children[node.size + 1] = right.children[0];
+            node.size++;
+            parent.keys[index] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            System.arraycopy(right.children, 1, right.children, 0, right.size);
+            right.children[right.size] = null;
+            right.size--;
+        } else if (left != null) {
+            mergeInternal(left, node, parent, index - 1, level);
+        } else {
+            mergeInternal(node, right, parent, index, level);
+        }
+    }
+
+    private void mergeInternal(Node left, Node right, Node parent, int separatorIndex, int level) {
+        left.keys[left.size] = parent.keys[separatorIndex];
+        System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+        System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+        left.size += right.size + 1;
+        parent.removeSeparator(separatorIndex);
+        rebalanceInternal(parent, level - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(Node node, int index) {
+        return (V) node.values[index];
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    private static final class Node {
+        private final boolean isLeaf;
+        //叶子节点中为关键字个数,非叶子节点中为分隔关键字个数(孩子个数为size + 1)
+        private int size;
+        //多留一个位置,允许节点先插入再分裂
+        private final long[] keys;
+        private final Object[] values;
+        private final Node[] children;
+        private Node next;
+        private Node pre;
+
+        private Node(boolean isLeaf, int degree) {
+            this.isLeaf = isLeaf;
+            this.keys = new long[degree];
+            if (isLeaf) {
+                this.values = new Object[degree];
+                this.children = null;
+            } else {
+                this.values = null;
+                this.children = new Node[degree + 1];
+            }
+        }
+
+        /**
+         * @return 存在返回下标,不存在返回-(插入位置)-1
+         */
+        private int search(long key) {
+            return KeySearch.search(keys, size, key);
+        }
+
+        /**
+         * @return 第一个大于等于key的下标
+         */
+        private int lowerBound(long key) {
+            return KeySearch.lowerBound(keys, size, key);
+        }
+
+        /**
+         * @return 第一个大于key的下标,在非叶子节点中即为孩子下标
+         */
+        private int upperBound(long key) {
+            return KeySearch.upperBound(keys, size, key);
+        }
+
+        private void insertEntry(int index, long key, Object value) {
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(values, index, values, index + 1, size - index);
+            keys[index] = key;
+            values[index] = value;
+            size++;
+        }
+
+        private void removeEntry(int index) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            values[size] = null;
+        }
+
+        /**
+         * 删除第index个分隔关键字以及它右侧的孩子
+         */
+        private void removeSeparator(int index) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(children, index + 2, children, index + 1, size - index - 1);
+            children[size] = null;
+            size--;
+        }
+    }
+}
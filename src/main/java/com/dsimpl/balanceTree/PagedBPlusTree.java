@@ -0,0 +1,605 @@
+package com.dsimpl.balanceTree;
+
+import com.dsimpl.balanceTree.storage.BufferPool;
+import com.dsimpl.balanceTree.storage.PageFile;
+import com.dsimpl.balanceTree.storage.Serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 持久化在单个文件中的B+树,每个节点占用{@link PageFile}中的一个固定大小的页面
+ * 1: 节点之间的孩子引用以及叶子节点链表的next/pre都保存为页号,而不是对象引用
+ * 2: 关键字与数据通过可替换的{@link Serializer}编码,节点按编码后的字节数而不是元素个数判断是否需要分裂与合并
+ * 3: 打开已有文件时只读取文件头与根节点页面,其余节点在访问时才从映射的页面中解码
+ * 4: 没有父指针,插入与删除时用路径栈记录根节点到叶子节点途经的节点以及孩子下标
+ * 5: 页面经过固定帧数的{@link BufferPool}读写,读取节点时pin页面、解码后立即unpin,写入节点时pin、编码后unpin并标记为脏页,
+ *    节点对象是页面内容的副本,所以下降路径与分裂合并过程中的节点不需要一直固定;被修改的页面在淘汰或者flush时写回文件
+ * 页面格式: 节点类型(1字节) + 元素个数(4字节) + next页号(8字节) + pre页号(8字节),
+ * 叶子节点随后依次存放关键字与数据,非叶子节点随后存放第一个孩子页号,再依次存放分隔关键字与右侧孩子页号
+ */
+public class PagedBPlusTree<K extends Comparable<K>, V> implements Closeable {
+    //默认缓存的页面个数
+    public static final int DEFAULT_BUFFER_FRAMES = 1024;
+    private static final int NODE_HEADER = 1 + 4 + 8 + 8;
+    private static final byte LEAF = 0;
+    private static final byte INTERNAL = 1;
+    //元数据区域中的偏移
+    private static final int ROOT_OFFSET = 0;
+    private static final int HEAD_OFFSET = 8;
+    private static final int TAIL_OFFSET = 16;
+    private static final int SIZE_OFFSET = 24;
+    private static final int HEIGHT_OFFSET = 32;
+
+    private final PageFile file;
+    private final BufferPool pool;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final ByteBuffer metadata;
+    private final int pageSize;
+    //单个元素最多占页面的四分之一,保证分裂后每一半都放得下,合并两个不足下界的节点也不会溢出
+    private final int maxEntrySize;
+    private final int minBytes;
+    private PageNode root;
+    private long head;
+    private long tail;
+    private long size;
+    private int height;
+    @SuppressWarnings("unchecked")
+    private PageNode[] pathNodes = (PageNode[]) new PagedBPlusTree<?, ?>.PageNode[8];
+    private int[] pathIndexes = new int[8];
+    private int pathDepth;
+
+    /**
+     * 打开或者创建持久化的B+树,打开已有文件时pageSize必须与创建时一致
+     */
+    public PagedBPlusTree(Path path, int pageSize, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        this(path, pageSize, keySerializer, valueSerializer, DEFAULT_BUFFER_FRAMES);
+    }
+
+    /**
+     * @param bufferFrames 缓存的页面个数,工作集不超过它时所有访问都在内存中完成
+     */
+    public PagedBPlusTree(Path path, int pageSize, Serializer<K> keySerializer, Serializer<V> valueSerializer, int bufferFrames) throws IOException {
+        if (bufferFrames < 1) {
+            throw new IllegalArgumentException("bufferFrames must be positive: " + bufferFrames);
+        }
+        this.file = new PageFile(path, pageSize);
+        this.pool = new BufferPool(file, bufferFrames);
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.metadata = file.metadata();
+        this.pageSize = pageSize;
+        this.maxEntrySize = (pageSize - NODE_HEADER) / 4;
+        this.minBytes = pageSize / 4;
+        if (file.isCreated()) {
+            root = new PageNode(file.allocate(), true);
+            head = root.pageId;
+            tail = root.pageId;
+            write(root);
+            writeMetadata();
+        } else {
+            head = metadata.getLong(HEAD_OFFSET);
+            tail = metadata.getLong(TAIL_OFFSET);
+            size = metadata.getLong(SIZE_OFFSET);
+            height = metadata.getInt(HEIGHT_OFFSET);
+            root = read(metadata.getLong(ROOT_OFFSET));
+        }
+    }
+
+    public void put(K key, V value) {
+        if (key == null) {
+            return;
+        }
+        int entrySize = keySerializer.size(key) + valueSerializer.size(value);
+        if (entrySize > maxEntrySize) {
+            throw new IllegalArgumentException("entry of " + entrySize + " bytes exceeds the limit of " + maxEntrySize + " bytes");
+        }
+        PageNode leaf = findLeaf(key);
+        int index = leaf.search(key);
+        if (index >= 0) {
+            leaf.bytes += valueSerializer.size(value) - valueSerializer.size(leaf.values.get(index));
+            leaf.values.set(index, value);
+        } else {
+            index = -index - 1;
+            leaf.keys.add(index, key);
+            leaf.values.add(index, value);
+            leaf.bytes += entrySize;
+            size++;
+            if (height == 0) {
+                height = 1;
+            }
+        }
+        if (leaf.bytes > pageSize) {
+            splitLeaf(leaf);
+        } else {
+            write(leaf);
+        }
+        writeMetadata();
+    }
+
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        PageNode leaf = findLeaf(key);
+        int index = leaf.search(key);
+        return index >= 0 ? leaf.values.get(index) : null;
+    }
+
+    public boolean containsKey(K key) {
+        if (key == null) {
+            return false;
+        }
+        return findLeaf(key).search(key) >= 0;
+    }
+
+    public void remove(K key) {
+        if (key == null) {
+            return;
+        }
+        PageNode leaf = findLeaf(key);
+        int index = leaf.search(key);
+        if (index < 0) {
+            return;
+        }
+        leaf.bytes -= keySerializer.size(key) + valueSerializer.size(leaf.values.get(index));
+        leaf.keys.remove(index);
+        leaf.values.remove(index);
+        size--;
+        if (size == 0) {
+            height = 0;
+        }
+        if (pathDepth > 0 && leaf.bytes < minBytes) {
+            rebalance(leaf, pathDepth);
+        } else {
+            write(leaf);
+        }
+        writeMetadata();
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    public K floorKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        PageNode leaf = findLeaf(key);
+        int index = leaf.upperBound(key) - 1;
+        if (index >= 0) {
+            return leaf.keys.get(index);
+        }
+        if (leaf.pre == PageFile.NO_PAGE) {
+            return null;
+        }
+        PageNode pre = read(leaf.pre);
+        return pre.keys.get(pre.keys.size() - 1);
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    public K ceilingKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        PageNode leaf = findLeaf(key);
+        int index = leaf.lowerBound(key);
+        if (index < leaf.keys.size()) {
+            return leaf.keys.get(index);
+        }
+        if (leaf.next == PageFile.NO_PAGE) {
+            return null;
+        }
+        return read(leaf.next).keys.get(0);
+    }
+
+    public K firstKey() {
+        return size == 0 ? null : read(head).keys.get(0);
+    }
+
+    public K lastKey() {
+        if (size == 0) {
+            return null;
+        }
+        PageNode last = read(tail);
+        return last.keys.get(last.keys.size() - 1);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @return 页面缓存,可以读取命中率等统计信息
+     */
+    public BufferPool bufferPool() {
+        return pool;
+    }
+
+    /**
+     * 把缓存中修改过的页面写回文件并刷到磁盘
+     */
+    public void flush() {
+        pool.flush();
+        file.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeMetadata();
+        pool.flush();
+        file.close();
+    }
+
+    private PageNode findLeaf(K key) {
+        PageNode cur = root;
+        int depth = 0;
+        while (!cur.isLeaf) {
+            int childIndex = cur.upperBound(key);
+            if (depth == pathNodes.length) {
+                pathNodes = Arrays.copyOf(pathNodes, depth << 1);
+                pathIndexes = Arrays.copyOf(pathIndexes, depth << 1);
+            }
+            pathNodes[depth] = cur;
+            pathIndexes[depth] = childIndex;
+            depth++;
+            cur = read(cur.children.get(childIndex));
+        }
+        pathDepth = depth;
+        return cur;
+    }
+
+    /**
+     * 按字节数把叶子节点分成两半,原节点保留左半部分,右半部分写入新分配的页面
+     */
+    private void splitLeaf(PageNode leaf) {
+        PageNode right = new PageNode(file.allocate(), true);
+        int mid = leaf.splitIndex();
+        List<K> movedKeys = leaf.keys.subList(mid, leaf.keys.size());
+        List<V> movedValues = leaf.values.subList(mid, leaf.values.size());
+        right.keys.addAll(movedKeys);
+        right.values.addAll(movedValues);
+        movedKeys.clear();
+        movedValues.clear();
+        leaf.recomputeBytes();
+        right.recomputeBytes();
+        right.next = leaf.next;
+        right.pre = leaf.pageId;
+        if (leaf.next != PageFile.NO_PAGE) {
+            PageNode next = read(leaf.next);
+            next.pre = right.pageId;
+            write(next);
+        } else {
+            tail = right.pageId;
+        }
+        leaf.next = right.pageId;
+        write(leaf);
+        write(right);
+        insertIntoParent(pathDepth - 1, leaf, right.keys.get(0), right);
+    }
+
+    private void insertIntoParent(int level, PageNode left, K separator, PageNode right) {
+        if (level < 0) {
+            PageNode newRoot = new PageNode(file.allocate(), false);
+            newRoot.children.add(left.pageId);
+            newRoot.children.add(right.pageId);
+            newRoot.keys.add(separator);
+            newRoot.recomputeBytes();
+            write(newRoot);
+            root = newRoot;
+            height++;
+            return;
+        }
+        PageNode parent = pathNodes[level];
+        int index = pathIndexes[level];
+        parent.keys.add(index, separator);
+        parent.children.add(index + 1, right.pageId);
+        parent.bytes += keySerializer.size(separator) + Long.BYTES;
+        if (parent.bytes > pageSize) {
+            splitInternal(parent, level);
+        } else {
+            write(parent);
+        }
+    }
+
+    private void splitInternal(PageNode node, int level) {
+        PageNode right = new PageNode(file.allocate(), false);
+        int mid = node.splitIndex();
+        K separator = node.keys.get(mid);
+        right.keys.addAll(node.keys.subList(mid + 1, node.keys.size()));
+        right.children.addAll(node.children.subList(mid + 1, node.children.size()));
+        node.keys.subList(mid, node.keys.size()).clear();
+        node.children.subList(mid + 1, node.children.size()).clear();
+        node.recomputeBytes();
+        right.recomputeBytes();
+        write(node);
+        write(right);
+        insertIntoParent(level - 1, node, separator, right);
+    }
+
+    /**
+     * 节点字节数低于下界:与左兄弟(没有则右兄弟)合并,合并后放不下一个页面时从兄弟节点借元素
+     * @param depth 节点所在的层,父节点为pathNodes[depth - 1]
+     */
+    private void rebalance(PageNode node, int depth) {
+        PageNode parent = pathNodes[depth - 1];
+        int index = pathIndexes[depth - 1];
+        PageNode left;
+        PageNode right;
+        int separatorIndex;
+        if (index > 0) {
+            left = read(parent.children.get(index - 1));
+            right = node;
+            separatorIndex = index - 1;
+        } else {
+            left = node;
+            right = read(parent.children.get(index + 1));
+            separatorIndex = index;
+        }
+        K separator = parent.keys.get(separatorIndex);
+        int separatorBytes = node.isLeaf ? 0 : keySerializer.size(separator);
+        if (left.bytes + right.bytes - NODE_HEADER + separatorBytes <= pageSize) {
+            merge(left, right, parent, separatorIndex);
+            if (depth - 1 == 0) {
+                if (parent.keys.isEmpty()) {
+                    //根节点只剩一个孩子时,孩子成为新的根节点
+                    root = left;
+                    height--;
+                    free(parent.pageId);
+                } else {
+                    write(parent);
+                }
+            } else if (parent.bytes < minBytes) {
+                rebalance(parent, depth - 1);
+            } else {
+                write(parent);
+            }
+            return;
+        }
+        redistribute(left, right, parent, separatorIndex, node == left);
+        write(left);
+        write(right);
+        if (parent.bytes > pageSize) {
+            splitInternal(parent, depth - 1);
+        } else {
+            write(parent);
+        }
+    }
+
+    private void merge(PageNode left, PageNode right, PageNode parent, int separatorIndex) {
+        if (left.isLeaf) {
+            left.keys.addAll(right.keys);
+            left.values.addAll(right.values);
+            left.next = right.next;
+            if (right.next != PageFile.NO_PAGE) {
+                PageNode next = read(right.next);
+                next.pre = left.pageId;
+                write(next);
+            } else {
+                tail = left.pageId;
+            }
+        } else {
+            left.keys.add(parent.keys.get(separatorIndex));
+            left.keys.addAll(right.keys);
+            left.children.addAll(right.children);
+        }
+        left.recomputeBytes();
+        parent.bytes -= keySerializer.size(parent.keys.get(separatorIndex)) + Long.BYTES;
+        parent.keys.remove(separatorIndex);
+        parent.children.remove(separatorIndex + 1);
+        write(left);
+        free(right.pageId);
+    }
+
+    /**
+     * 每次从较大的兄弟节点移动一个元素(非叶子节点经由父节点旋转),直到不足下界的节点达到下界
+     */
+    private void redistribute(PageNode left, PageNode right, PageNode parent, int separatorIndex, boolean fillLeft) {
+        PageNode target = fillLeft ? left : right;
+        while (target.bytes < minBytes) {
+            if (left.isLeaf) {
+                if (fillLeft) {
+                    left.keys.add(right.keys.remove(0));
+                    left.values.add(right.values.remove(0));
+                } else {
+                    right.keys.add(0, left.keys.remove(left.keys.size() - 1));
+                    right.values.add(0, left.values.remove(left.values.size() - 1));
+                }
+                left.recomputeBytes();
+                right.recomputeBytes();
+                parent.keys.set(separatorIndex, right.keys.get(0));
+            } else {
+                K separator = parent.keys.get(separatorIndex);
+                if (fillLeft) {
+                    left.keys.add(separator);
+                    left.children.add(right.children.remove(0));
+                    parent.keys.set(separatorIndex, right.keys.remove(0));
+                } else {
+                    right.keys.add(0, separator);
+                    right.children.add(0, left.children.remove(left.children.size() - 1));
+                    parent.keys.set(separatorIndex, left.keys.remove(left.keys.size() - 1));
+                }
+                left.recomputeBytes();
+                right.recomputeBytes();
+            }
+        }
+        parent.recomputeBytes();
+    }
+
+    private PageNode read(long pageId) {
+        if (root != null && pageId == root.pageId) {
+            return root;
+        }
+        ByteBuffer page = pool.pin(pageId);
+        try {
+            PageNode node = new PageNode(pageId, page.get() == LEAF);
+            int count = page.getInt();
+            node.next = page.getLong();
+            node.pre = page.getLong();
+            if (node.isLeaf) {
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(keySerializer.read(page));
+                    node.values.add(valueSerializer.read(page));
+                }
+            } else {
+                node.children.add(page.getLong());
+                for (int i = 0; i < count; i++) {
+                    node.keys.add(keySerializer.read(page));
+                    node.children.add(page.getLong());
+                }
+            }
+            node.bytes = page.position();
+            return node;
+        } finally {
+            pool.unpin(pageId, false);
+        }
+    }
+
+    /**
+     * 节点编码后覆盖整个页面,所以页面不在缓存中时不需要先从文件读取
+     */
+    private void write(PageNode node) {
+        ByteBuffer page = pool.pinNew(node.pageId);
+        try {
+            page.put(node.isLeaf ? LEAF : INTERNAL);
+            page.putInt(node.keys.size());
+            page.putLong(node.next);
+            page.putLong(node.pre);
+            if (node.isLeaf) {
+                for (int i = 0; i < node.keys.size(); i++) {
+                    keySerializer.write(node.keys.get(i), page);
+                    valueSerializer.write(node.values.get(i), page);
+                }
+            } else {
+                page.putLong(node.children.get(0));
+                for (int i = 0; i < node.keys.size(); i++) {
+                    keySerializer.write(node.keys.get(i), page);
+                    page.putLong(node.children.get(i + 1));
+                }
+            }
+        } finally {
+            pool.unpin(node.pageId, true);
+        }
+    }
+
+    /**
+     * 先丢弃缓存中的页面再释放,否则之后写回的旧内容会覆盖文件中的空闲链表指针
+     */
+    private void free(long pageId) {
+        pool.discard(pageId);
+        file.free(pageId);
+    }
+
+    private void writeMetadata() {
+        metadata.putLong(ROOT_OFFSET, root.pageId);
+        metadata.putLong(HEAD_OFFSET, head);
+        metadata.putLong(TAIL_OFFSET, tail);
+        metadata.putLong(SIZE_OFFSET, size);
+        metadata.putInt(HEIGHT_OFFSET, height);
+    }
+
+    /**
+     * 页面解码后的节点,修改后需要调用write写回页面
+     */
+    private final class PageNode {
+        private final long pageId;
+        private final boolean isLeaf;
+        private final List<K> keys = new ArrayList<>();
+        private final List<V> values;
+        private final List<Long> children;
+        private long next = PageFile.NO_PAGE;
+        private long pre = PageFile.NO_PAGE;
+        //编码后占用的字节数
+        private int bytes = NODE_HEADER;
+
+        private PageNode(long pageId, boolean isLeaf) {
+            this.pageId = pageId;
+            this.isLeaf = isLeaf;
+            this.values = isLeaf ? new ArrayList<>() : null;
+            this.children = isLeaf ? null : new ArrayList<>();
+        }
+
+        private void recomputeBytes() {
+            int total = NODE_HEADER;
+            for (int i = 0; i < keys.size(); i++) {
+                total += keySerializer.size(keys.get(i));
+                total += isLeaf ? valueSerializer.size(values.get(i)) : Long.BYTES;
+            }
+            bytes = isLeaf ? total : total + Long.BYTES;
+        }
+
+        /**
+         * @return 按字节数找到的分裂位置,叶子节点从该位置起移动到右兄弟,非叶子节点该位置的关键字上移到父节点
+         */
+        private int splitIndex() {
+            int half = bytes / 2;
+            int total = NODE_HEADER;
+            int index = keys.size() - 1;
+            for (int i = 0; i < keys.size(); i++) {
+                total += keySerializer.size(keys.get(i));
+                total += isLeaf ? valueSerializer.size(values.get(i)) : Long.BYTES;
+                if (total >= half) {
+                    index = isLeaf ? i + 1 : i;
+                    break;
+                }
+            }
+            return Math.max(1, Math.min(index, keys.size() - 1));
+        }
+
+        private int search(K key) {
+            int left = 0;
+            int right = keys.size() - 1;
+            while (left <= right) {
+                int mid = (left + right) >>> 1;
+                int compare = key.compareTo(keys.get(mid));
+                if (compare > 0) {
+                    left = mid + 1;
+                } else if (compare < 0) {
+                    right = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(left + 1);
+        }
+
+        private int lowerBound(K key) {
+            int left = 0;
+            int right = keys.size();
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (key.compareTo(keys.get(mid)) > 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+
+        private int upperBound(K key) {
+            int left = 0;
+            int right = keys.size();
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (key.compareTo(keys.get(mid)) >= 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+    }
+}
@@ -0,0 +1,657 @@
+package com.dsimpl.balanceTree;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * 按关键字范围分片的线程安全B+树,每个分片是一棵独立加锁的{@link BPlusTree},不同分片上的读写互不阻塞
+ * 1: 分片i负责[bounds(i - 1), bounds(i))的关键字,与非叶子节点一样大于等于分隔关键字的进入右侧;
+ *    路由表是不可变的列表,通过volatile引用整体替换,查找分片是对边界列表的二分查找,不加锁
+ * 2: 初始边界取自样本关键字的分位点;运行中分片超过maxShardSize,或者一个统计窗口内收到的写操作
+ *    超过平均份额的HOT_FACTOR倍或者超过全部写操作的一半时,按中位数一分为二
+ * 3: 合并有单独的低水位:相邻两个分片合计少于maxShardSize的十六分之一,并且都已经冷却(观察了足够多的写操作,
+ *    收到的份额不到平均份额的1/HOT_FACTOR)时才合并,刚分裂出的分片不会马上被合并回去;
+ *    合并检查在某个分片的统计窗口结束时进行,而不是每次删除都尝试
+ * 4: 分裂与合并持有相关分片的写锁,用bulkLoad重建新的分片后发布新的路由表,再把旧分片标记为失效;
+ *    按旧路由表找到失效分片的操作在加锁后发现失效,重新查找分片;同一时刻只有一个线程修改路由表
+ * 5: floorKey/ceilingKey在当前分片中不存在结果时依次查找左侧/右侧的分片,firstKey/lastKey/range同样跨分片进行,
+ *    每次只持有一个分片的读锁,跨分片的结果不是某一时刻的快照,与ConcurrentSkipListMap的遍历一样是弱一致的
+ * 6: putAll/removeAll先按分片分组,再在ForkJoin公共池中并行地对各个分片批量执行
+ */
+public class ShardedBPlusTree<K extends Comparable<K>, V> {
+    //单个分片默认的元素个数上限
+    public static final int DEFAULT_MAX_SHARD_SIZE = 1 << 20;
+    //统计窗口内写操作超过平均份额的倍数时认为分片过热,不到平均份额的1/HOT_FACTOR时认为分片已经冷却
+    private static final int HOT_FACTOR = 4;
+    //每个分片统计热度的窗口,按分片收到的写操作个数计算
+    private static final int HOT_WINDOW = 8192;
+    //小于这个元素个数的分片不会因为过热而分裂,分裂出的分片太小没有意义
+    private static final int MIN_SPLIT_SIZE = 4096;
+    private static final int NONE = 0;
+    private static final int SPLIT = 1;
+    private static final int MERGE = 2;
+
+    private final int degree;
+    private final int maxShardSize;
+    private final int maxShards;
+    //相邻两个分片合计少于这个元素个数时才可能合并,远小于按大小分裂出的分片
+    private final int mergeThreshold;
+    private volatile Routing routing;
+    private final ReentrantLock rebalanceLock = new ReentrantLock();
+    private final LongAdder writes = new LongAdder();
+
+    /**
+     * 从一个分片开始,随数据增长分裂
+     */
+    public ShardedBPlusTree(int degree) {
+        this(degree, List.of(), 1);
+    }
+
+    /**
+     * @param sample 用于确定初始边界的样本关键字,不需要有序
+     * @param shards 初始分片个数,样本中不同的关键字不够时会少于这个数
+     */
+    public ShardedBPlusTree(int degree, Collection<? extends K> sample, int shards) {
+        this(degree, sample, shards, DEFAULT_MAX_SHARD_SIZE, Math.max(shards, Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    /**
+     * @param maxShardSize 分片的元素个数上限,超过后分裂
+     * @param maxShards    分片个数的上限,达到后不再因为过热分裂,但仍然会因为超过maxShardSize分裂
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedBPlusTree(int degree, Collection<? extends K> sample, int shards, int maxShardSize, int maxShards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be positive: " + shards);
+        }
+        if (maxShardSize < 2) {
+            throw new IllegalArgumentException("maxShardSize must be at least 2: " + maxShardSize);
+        }
+        this.degree = degree;
+        this.maxShardSize = maxShardSize;
+        this.maxShards = maxShards;
+        this.mergeThreshold = maxShardSize / 16;
+        Object[] sorted = sample.stream().filter(key -> key != null).sorted().distinct().toArray();
+        List<K> bounds = new ArrayList<>();
+        for (int i = 1; i < shards && sorted.length > 0; i++) {
+            K bound = (K) sorted[(int) ((long) i * sorted.length / shards)];
+            if (bounds.isEmpty() || bounds.get(bounds.size() - 1).compareTo(bound) < 0) {
+                bounds.add(bound);
+            }
+        }
+        List<Shard> initial = new ArrayList<>(bounds.size() + 1);
+        for (int i = 0; i <= bounds.size(); i++) {
+            initial.add(new Shard(new BPlusTree<>(degree)));
+        }
+        this.routing = new Routing(initial, bounds);
+    }
+
+    public V get(K key) {
+        if (key == null) {
+            return null;
+        }
+        while (true) {
+            Shard shard = routing.shardFor(key);
+            shard.lock.readLock().lock();
+            try {
+                if (!shard.retired) {
+                    return shard.tree.get(key);
+                }
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+    }
+
+    public boolean containsKey(K key) {
+        if (key == null) {
+            return false;
+        }
+        while (true) {
+            Shard shard = routing.shardFor(key);
+            shard.lock.readLock().lock();
+            try {
+                if (!shard.retired) {
+                    return shard.tree.containsKey(key);
+                }
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return 原来的数据,关键字不存在时返回null
+     */
+    public V put(K key, V value) {
+        if (key == null) {
+            return null;
+        }
+        while (true) {
+            Shard shard = routing.shardFor(key);
+            V previous;
+            int action;
+            shard.lock.writeLock().lock();
+            try {
+                if (shard.retired) {
+                    continue;
+                }
+                previous = shard.tree.put(key, value);
+                action = recordWrite(shard);
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+            rebalance(shard, action);
+            return previous;
+        }
+    }
+
+    /**
+     * @return 被删除的数据,关键字不存在时返回null
+     */
+    public V remove(K key) {
+        if (key == null) {
+            return null;
+        }
+        while (true) {
+            Shard shard = routing.shardFor(key);
+            V previous;
+            int action;
+            shard.lock.writeLock().lock();
+            try {
+                if (shard.retired) {
+                    continue;
+                }
+                previous = shard.tree.remove(key);
+                action = recordWrite(shard);
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+            rebalance(shard, action);
+            return previous;
+        }
+    }
+
+    /**
+     * @return 返回小于等于给定元素中最大的元素,不存在返回null
+     */
+    public K floorKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        restart:
+        while (true) {
+            Routing current = routing;
+            for (int i = current.indexFor(key); i >= 0; i--) {
+                Shard shard = current.shards.get(i);
+                shard.lock.readLock().lock();
+                try {
+                    if (shard.retired) {
+                        continue restart;
+                    }
+                    K floor = shard.tree.floorKey(key);
+                    if (floor != null) {
+                        return floor;
+                    }
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return 返回大于等于给定元素中最小的元素,不存在返回null
+     */
+    public K ceilingKey(K key) {
+        if (key == null) {
+            return null;
+        }
+        restart:
+        while (true) {
+            Routing current = routing;
+            for (int i = current.indexFor(key); i < current.shards.size(); i++) {
+                Shard shard = current.shards.get(i);
+                shard.lock.readLock().lock();
+                try {
+                    if (shard.retired) {
+                        continue restart;
+                    }
+                    K ceiling = shard.tree.ceilingKey(key);
+                    if (ceiling != null) {
+                        return ceiling;
+                    }
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return 最小的关键字,树为空时返回null
+     */
+    public K firstKey() {
+        restart:
+        while (true) {
+            Routing current = routing;
+            for (Shard shard : current.shards) {
+                shard.lock.readLock().lock();
+                try {
+                    if (shard.retired) {
+                        continue restart;
+                    }
+                    if (!shard.tree.isEmpty()) {
+                        return shard.tree.firstKey();
+                    }
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return 最大的关键字,树为空时返回null
+     */
+    public K lastKey() {
+        restart:
+        while (true) {
+            Routing current = routing;
+            for (int i = current.shards.size() - 1; i >= 0; i--) {
+                Shard shard = current.shards.get(i);
+                shard.lock.readLock().lock();
+                try {
+                    if (shard.retired) {
+                        continue restart;
+                    }
+                    if (!shard.tree.isEmpty()) {
+                        return shard.tree.lastKey();
+                    }
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 区间语义与{@link BPlusTree#range}一致:(start, end],start/end为null表示不设边界
+     * @return 按关键字升序复制出的元素,各分片内部是加读锁时的状态
+     */
+    public List<Map.Entry<K, V>> range(K start, K end) {
+        List<Map.Entry<K, V>> result = new ArrayList<>();
+        if (start != null && end != null && start.compareTo(end) >= 0) {
+            return result;
+        }
+        restart:
+        while (true) {
+            result.clear();
+            Routing current = routing;
+            int from = start == null ? 0 : current.indexFor(start);
+            int to = end == null ? current.shards.size() - 1 : current.indexFor(end);
+            for (int i = from; i <= to; i++) {
+                Shard shard = current.shards.get(i);
+                shard.lock.readLock().lock();
+                try {
+                    if (shard.retired) {
+                        continue restart;
+                    }
+                    for (Map.Entry<K, V> entry : shard.tree.subMap(start, false, end, true).entrySet()) {
+                        result.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+                    }
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 按分片分组后并行写入,每个分片内部使用{@link BPlusTree#putAll}按关键字顺序批量合并
+     */
+    public void putAll(Map<? extends K, ? extends V> batch) {
+        List<TreeMap<K, V>> groups = new ArrayList<>();
+        Routing current = newGroups(groups);
+        for (Map.Entry<? extends K, ? extends V> entry : batch.entrySet()) {
+            if (entry.getKey() != null) {
+                groups.get(current.indexFor(entry.getKey())).put(entry.getKey(), entry.getValue());
+            }
+        }
+        IntStream.range(0, groups.size()).parallel().forEach(i -> {
+            TreeMap<K, V> group = groups.get(i);
+            if (group.isEmpty()) {
+                return;
+            }
+            Shard shard = current.shards.get(i);
+            boolean rebalance = false;
+            shard.lock.writeLock().lock();
+            try {
+                if (!shard.retired) {
+                    shard.tree.putAll(group);
+                    writes.add(group.size());
+                    rebalance = shard.tree.size() > maxShardSize;
+                    group.clear();
+                }
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+            //分组后分片被分裂或合并,剩下的元素按新的路由表逐个写入
+            for (Map.Entry<K, V> entry : group.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            if (rebalance) {
+                split(shard);
+            }
+        });
+    }
+
+    /**
+     * 按分片分组后并行删除
+     * @return 实际删除的元素个数
+     */
+    public int removeAll(Collection<? extends K> keys) {
+        List<TreeMap<K, V>> groups = new ArrayList<>();
+        Routing current = newGroups(groups);
+        for (K key : keys) {
+            if (key != null) {
+                groups.get(current.indexFor(key)).put(key, null);
+            }
+        }
+        int total = IntStream.range(0, groups.size()).parallel().map(i -> {
+            TreeMap<K, V> group = groups.get(i);
+            if (group.isEmpty()) {
+                return 0;
+            }
+            Shard shard = current.shards.get(i);
+            int removed = 0;
+            shard.lock.writeLock().lock();
+            try {
+                if (!shard.retired) {
+                    int before = shard.tree.size();
+                    for (K key : group.keySet()) {
+                        shard.tree.remove(key);
+                    }
+                    removed = before - shard.tree.size();
+                    writes.add(group.size());
+                    group.clear();
+                }
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+            for (K key : group.keySet()) {
+                if (remove(key) != null) {
+                    removed++;
+                }
+            }
+            return removed;
+        }).sum();
+        //批量删除后可能留下很小的分片,按与单个删除相同的条件合并
+        mergeColdShards();
+        return total;
+    }
+
+    /**
+     * 不加锁地累加各分片的元素个数,并发修改时只是一个近似值
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : routing.shards) {
+            size += shard.tree.size();
+        }
+        return size;
+    }
+
+    public int shardCount() {
+        return routing.shards.size();
+    }
+
+    /**
+     * @return 各分片的下边界,第一个分片没有下边界,因此比shardCount少一个
+     */
+    public List<K> shardBounds() {
+        return routing.bounds;
+    }
+
+    /**
+     * 在写锁内调用,累计分片的写操作个数
+     * @return 释放写锁后需要进行的调整:分片过大或者过热时SPLIT,统计窗口结束时MERGE检查是否有冷却的小分片
+     */
+    private int recordWrite(Shard shard) {
+        writes.increment();
+        if (shard.tree.size() > maxShardSize) {
+            return SPLIT;
+        }
+        if (++shard.windowWrites < HOT_WINDOW) {
+            return NONE;
+        }
+        long total = writes.sum();
+        long global = total - shard.windowStart;
+        int shards = routing.shards.size();
+        //平均份额的HOT_FACTOR倍在分片很少时超过全部写操作,因此收到一半以上的写操作同样认为过热
+        boolean hot = shards < maxShards && shard.tree.size() >= MIN_SPLIT_SIZE
+                && ((long) shard.windowWrites * shards > global * HOT_FACTOR || (long) shard.windowWrites * 2 > global);
+        shard.windowWrites = 0;
+        shard.windowStart = total;
+        return hot ? SPLIT : MERGE;
+    }
+
+    private void rebalance(Shard shard, int action) {
+        if (action == SPLIT) {
+            split(shard);
+        } else if (action == MERGE) {
+            mergeColdShards();
+        }
+    }
+
+    /**
+     * 分片从统计窗口开始以来已经观察了足够多的写操作,并且收到的份额不到平均份额的1/HOT_FACTOR;
+     * 不加锁读取统计字段,只用于挑选候选,合并时在写锁内重新判断
+     */
+    private boolean isCold(Shard shard, long total, int shards) {
+        long global = total - shard.windowStart;
+        return global >= (long) HOT_WINDOW * shards && (long) shard.windowWrites * shards * HOT_FACTOR < global;
+    }
+
+    /**
+     * 按中位数把分片一分为二,另一个线程正在修改路由表时放弃,之后的写操作会再次触发
+     */
+    private void split(Shard shard) {
+        if (!rebalanceLock.tryLock()) {
+            return;
+        }
+        try {
+            shard.lock.writeLock().lock();
+            try {
+                BPlusTree<K, V> tree = shard.tree;
+                if (shard.retired || tree.size() < 2) {
+                    return;
+                }
+                K median = tree.select(tree.size() / 2);
+                Shard left = new Shard(build(tree.headMap(median, false)));
+                Shard right = new Shard(build(tree.tailMap(median, true)));
+                Routing current = routing;
+                int index = current.indexOf(shard);
+                List<Shard> shards = new ArrayList<>(current.shards);
+                shards.set(index, left);
+                shards.add(index + 1, right);
+                List<K> bounds = new ArrayList<>(current.bounds);
+                bounds.add(index, median);
+                publish(new Routing(shards, bounds), shard);
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     * 从左到右合并所有满足低水位并且都已冷却的相邻分片对,另一个线程正在修改路由表时放弃,之后的统计窗口会再次触发
+     */
+    private void mergeColdShards() {
+        if (!rebalanceLock.tryLock()) {
+            return;
+        }
+        try {
+            int index = 0;
+            while (index + 1 < routing.shards.size()) {
+                if (!merge(index)) {
+                    index++;
+                }
+            }
+        } finally {
+            rebalanceLock.unlock();
+        }
+    }
+
+    /**
+     * 持有rebalanceLock时调用,把下标为index与index + 1的两个分片合并为一个
+     * @return 是否合并,合计不少于低水位或者其中一个分片还没有冷却时返回false
+     */
+    private boolean merge(int index) {
+        Routing current = routing;
+        Shard left = current.shards.get(index);
+        Shard right = current.shards.get(index + 1);
+        long total = writes.sum();
+        int shardCount = current.shards.size();
+        if (left.tree.size() + right.tree.size() >= mergeThreshold
+                || !isCold(left, total, shardCount) || !isCold(right, total, shardCount)) {
+            return false;
+        }
+        //分片按下标顺序加锁,其他线程同一时刻最多持有一个分片的锁,不会死锁
+        left.lock.writeLock().lock();
+        right.lock.writeLock().lock();
+        try {
+            total = writes.sum();
+            if (left.tree.size() + right.tree.size() >= mergeThreshold
+                    || !isCold(left, total, shardCount) || !isCold(right, total, shardCount)) {
+                return false;
+            }
+            BPlusTree<K, V> merged = new BPlusTree<>(degree);
+            Iterator<Map.Entry<K, V>> leftEntries = left.tree.entrySet().iterator();
+            Iterator<Map.Entry<K, V>> rightEntries = right.tree.entrySet().iterator();
+            merged.bulkLoad(new Iterator<Map.Entry<K, V>>() {
+                @Override
+                public boolean hasNext() {
+                    return leftEntries.hasNext() || rightEntries.hasNext();
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    return leftEntries.hasNext() ? leftEntries.next() : rightEntries.next();
+                }
+            });
+            List<Shard> shards = new ArrayList<>(current.shards);
+            shards.set(index, new Shard(merged));
+            shards.remove(index + 1);
+            List<K> bounds = new ArrayList<>(current.bounds);
+            bounds.remove(index);
+            publish(new Routing(shards, bounds), left, right);
+            return true;
+        } finally {
+            right.lock.writeLock().unlock();
+            left.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 先发布新的路由表再标记旧分片失效,此后加锁的线程要么看到失效标记重新查找,要么已经能读到新的路由表
+     */
+    @SafeVarargs
+    private void publish(Routing next, Shard... retired) {
+        routing = next;
+        for (Shard shard : retired) {
+            shard.retired = true;
+        }
+    }
+
+    private BPlusTree<K, V> build(Map<K, V> entries) {
+        BPlusTree<K, V> tree = new BPlusTree<>(degree);
+        tree.bulkLoad(entries.entrySet().iterator());
+        return tree;
+    }
+
+    /**
+     * 为当前路由表的每个分片准备一个空的分组
+     */
+    private Routing newGroups(List<TreeMap<K, V>> groups) {
+        Routing current = routing;
+        for (int i = 0; i < current.shards.size(); i++) {
+            groups.add(new TreeMap<>());
+        }
+        return current;
+    }
+
+    /**
+     * 不可变的路由表,shards.get(i)负责[bounds.get(i - 1), bounds.get(i))
+     */
+    private final class Routing {
+        private final List<Shard> shards;
+        private final List<K> bounds;
+
+        private Routing(List<Shard> shards, List<K> bounds) {
+            this.shards = List.copyOf(shards);
+            this.bounds = List.copyOf(bounds);
+        }
+
+        /**
+         * @return 不大于key的边界个数,即key所在分片的下标
+         */
+        private int indexFor(K key) {
+            int left = 0;
+            int right = bounds.size();
+            while (left < right) {
+                int mid = (left + right) >>> 1;
+                if (bounds.get(mid).compareTo(key) <= 0) {
+                    left = mid + 1;
+                } else {
+                    right = mid;
+                }
+            }
+            return left;
+        }
+
+        private Shard shardFor(K key) {
+            return shards.get(indexFor(key));
+        }
+
+        private int indexOf(Shard shard) {
+            for (int i = 0; i < shards.size(); i++) {
+                if (shards.get(i) == shard) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final class Shard {
+        private final BPlusTree<K, V> tree;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        //被分裂或者合并替换后为true,由写锁保护
+        private boolean retired;
+        //热度统计窗口,由写锁保护
+        private int windowWrites;
+        private long windowStart;
+
+        private Shard(BPlusTree<K, V> tree) {
+            this.tree = tree;
+            this.windowStart = writes.sum();
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package com.dsimpl.balanceTree;
 
 public interface TreeMethodInterface<K extends Comparable<K>, V> {
-    void put();
-    V get(K key);
-    void remove(K key);
-    boolean containsKey(K key);
+    V put(K key, V value);
+    V get(Object key);
+    V remove(Object key);
+    boolean containsKey(Object key);
     K floorKey(K key);
     K ceilingKey(K key);
     K firstKey();
@@ -0,0 +1,97 @@
+package com.dsimpl.balanceTree;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link KeySearch}的Vector API实现,只有在jdk.incubator.vector模块已加载时才会被KeySearch引用和加载
+ * 1: 先做无分支的二分,直到剩余范围[base, base + n]不超过一个向量的宽度
+ * 2: 从start = min(base, keys.length - 宽度)处整块装入,start到base之间的元素都小于key,可以一起计数,
+ *    因此结果为start加上前end - start个通道中比较为true的个数,超过end的通道与通道下标的掩码求与后被排除
+ */
+final class VectorKeySearch {
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONG_SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final int INT_LANES = INT_SPECIES.length();
+    private static final int LONG_LANES = LONG_SPECIES.length();
+    //各通道的值为通道下标,与有效元素个数比较得到低位的掩码
+    private static final IntVector INT_IOTA = IntVector.zero(INT_SPECIES).addIndex(1);
+    private static final LongVector LONG_IOTA = LongVector.zero(LONG_SPECIES).addIndex(1);
+
+    private VectorKeySearch() {
+    }
+
+    /**
+     * @return 向量至少能同时比较4个int与2个long时才值得使用
+     */
+    static boolean supported() {
+        return INT_LANES >= 4 && LONG_LANES >= 2;
+    }
+
+    static int lowerBound(int[] keys, int size, int key) {
+        if (keys.length < INT_LANES) {
+            return KeySearch.scalarLowerBound(keys, size, key);
+        }
+        int base = 0;
+        int n = size;
+        while (n > INT_LANES) {
+            int half = n >>> 1;
+            base = keys[base + half] < key ? base + half : base;
+            n -= half;
+        }
+        int start = Math.min(base, keys.length - INT_LANES);
+        VectorMask<Integer> valid = INT_IOTA.lt(base + n - start);
+        return start + IntVector.fromArray(INT_SPECIES, keys, start).lt(key).and(valid).trueCount();
+    }
+
+    static int upperBound(int[] keys, int size, int key) {
+        if (keys.length < INT_LANES) {
+            return KeySearch.scalarUpperBound(keys, size, key);
+        }
+        int base = 0;
+        int n = size;
+        while (n > INT_LANES) {
+            int half = n >>> 1;
+            base = keys[base + half] <= key ? base + half : base;
+            n -= half;
+        }
+        int start = Math.min(base, keys.length - INT_LANES);
+        VectorMask<Integer> valid = INT_IOTA.lt(base + n - start);
+        return start + IntVector.fromArray(INT_SPECIES, keys, start).compare(VectorOperators.LE, key).and(valid).trueCount();
+    }
+
+    static int lowerBound(long[] keys, int size, long key) {
+        if (keys.length < LONG_LANES) {
+            return KeySearch.scalarLowerBound(keys, size, key);
+        }
+        int base = 0;
+        int n = size;
+        while (n > LONG_LANES) {
+            int half = n >>> 1;
+            base = keys[base + half] < key ? base + half : base;
+            n -= half;
+        }
+        int start = Math.min(base, keys.length - LONG_LANES);
+        VectorMask<Long> valid = LONG_IOTA.lt(base + n - start);
+        return start + LongVector.fromArray(LONG_SPECIES, keys, start).lt(key).and(valid).trueCount();
+    }
+
+    static int upperBound(long[] keys, int size, long key) {
+        if (keys.length < LONG_LANES) {
+            return KeySearch.scalarUpperBound(keys, size, key);
+        }
+        int base = 0;
+        int n = size;
+        while (n > LONG_LANES) {
+            int half = n >>> 1;
+            base = keys[base + half] <= key ? base + half : base;
+            n -= half;
+        }
+        int start = Math.min(base, keys.length - LONG_LANES);
+        VectorMask<Long> valid = LONG_IOTA.lt(base + n - start);
+        return start + LongVector.fromArray(LONG_SPECIES, keys, start).compare(VectorOperators.LE, key).and(valid).trueCount();
+    }
+}
@@ -0,0 +1,264 @@
+package com.dsimpl.balanceTree.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * {@link PageFile}之上固定帧数的页面缓存,页面读写经过这里而不是直接访问映射的文件,缓存的大小与淘汰顺序由上层控制
+ * 1: 每个帧缓存一个页面,使用前pin、使用后unpin,pin计数不为0的帧不会被淘汰;unpin时标记页面是否被修改
+ * 2: 没有空闲帧时按CLOCK算法淘汰:时钟指针依次扫过各帧,跳过被pin的帧,最近被访问过的帧清除访问位后再给一次机会
+ * 3: 被修改的帧在淘汰或者flush时写回文件,页号到帧的映射是开放寻址的long -> int哈希表,查找时不装箱
+ * 4: 不是线程安全的,与使用它的树一样由单个线程访问
+ */
+public class BufferPool {
+    private static final long EMPTY = -1;
+    private final PageFile file;
+    private final int pageSize;
+    private final ByteBuffer[] frames;
+    private final long[] pageIds;
+    private final int[] pinCounts;
+    private final boolean[] dirty;
+    private final boolean[] referenced;
+    //页号到帧下标的哈希表,容量为2的幂并且不小于帧数的两倍
+    private final long[] tableKeys;
+    private final int[] tableFrames;
+    private final int tableMask;
+    private int used;
+    private int hand;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    /**
+     * @param frames 缓存的页面个数,占用frames * pageSize字节的堆外内存
+     */
+    public BufferPool(PageFile file, int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("frames must be positive: " + frames);
+        }
+        this.file = file;
+        this.pageSize = file.pageSize();
+        this.frames = new ByteBuffer[frames];
+        this.pageIds = new long[frames];
+        this.pinCounts = new int[frames];
+        this.dirty = new boolean[frames];
+        this.referenced = new boolean[frames];
+        Arrays.fill(pageIds, EMPTY);
+        int capacity = Integer.highestOneBit(Math.max(frames, 2) * 2 - 1) << 1;
+        this.tableKeys = new long[capacity];
+        this.tableFrames = new int[capacity];
+        this.tableMask = capacity - 1;
+        Arrays.fill(tableKeys, EMPTY);
+    }
+
+    /**
+     * 固定页面并返回它的内容,不在缓存中时从文件读取
+     * @return 帧的缓冲区,position为0,limit为pageSize,在unpin之前有效
+     */
+    public ByteBuffer pin(long pageId) {
+        int frame = lookup(pageId);
+        if (frame >= 0) {
+            hits++;
+        } else {
+            misses++;
+            frame = load(pageId);
+            file.read(pageId, frames[frame].clear());
+        }
+        return fix(frame);
+    }
+
+    /**
+     * 固定一个将被整体覆盖的页面,例如新分配的页面,不在缓存中时不读取文件
+     */
+    public ByteBuffer pinNew(long pageId) {
+        int frame = lookup(pageId);
+        if (frame < 0) {
+            frame = load(pageId);
+        }
+        return fix(frame);
+    }
+
+    /**
+     * @param modified 页面在固定期间是否被修改,被修改的页面在淘汰或者flush时写回文件
+     */
+    public void unpin(long pageId, boolean modified) {
+        int frame = lookup(pageId);
+        if (frame < 0 || pinCounts[frame] == 0) {
+            throw new IllegalStateException("page " + pageId + " is not pinned");
+        }
+        pinCounts[frame]--;
+        dirty[frame] |= modified;
+    }
+
+    /**
+     * 丢弃页面的缓存而不写回,页面被释放时调用,避免之后写回的旧内容覆盖文件中的空闲链表
+     */
+    public void discard(long pageId) {
+        int frame = lookup(pageId);
+        if (frame < 0) {
+            return;
+        }
+        if (pinCounts[frame] > 0) {
+            throw new IllegalStateException("page " + pageId + " is pinned");
+        }
+        remove(pageId);
+        pageIds[frame] = EMPTY;
+        dirty[frame] = false;
+        referenced[frame] = false;
+    }
+
+    /**
+     * 把所有被修改的页面写回文件,不包括文件本身的force
+     */
+    public void flush() {
+        for (int frame = 0; frame < used; frame++) {
+            if (dirty[frame]) {
+                writeBack(frame);
+            }
+        }
+    }
+
+    public int frames() {
+        return frames.length;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    /**
+     * @return 命中率,没有访问过时为0
+     */
+    public double hitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return 写回文件的页面次数,包括淘汰与flush
+     */
+    public long writeBacks() {
+        return writeBacks;
+    }
+
+    public void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        writeBacks = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{frames=" + frames.length + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", writeBacks=" + writeBacks + "}";
+    }
+
+    private ByteBuffer fix(int frame) {
+        pinCounts[frame]++;
+        referenced[frame] = true;
+        return frames[frame].clear();
+    }
+
+    /**
+     * 为页面找一个帧:先用还没有分配过的帧,之后按CLOCK选择,被丢弃的帧不需要淘汰可以直接使用
+     */
+    private int load(long pageId) {
+        int frame;
+        if (used < frames.length) {
+            frame = used++;
+            frames[frame] = ByteBuffer.allocateDirect(pageSize);
+        } else {
+            frame = victim();
+            if (pageIds[frame] != EMPTY) {
+                if (dirty[frame]) {
+                    writeBack(frame);
+                }
+                remove(pageIds[frame]);
+                evictions++;
+            }
+        }
+        pageIds[frame] = pageId;
+        dirty[frame] = false;
+        insert(pageId, frame);
+        return frame;
+    }
+
+    private int victim() {
+        //两圈之内一定能找到:第一圈清除所有未固定帧的访问位
+        for (int step = 0; step < frames.length * 2; step++) {
+            int frame = hand;
+            hand = hand + 1 == frames.length ? 0 : hand + 1;
+            if (pinCounts[frame] > 0) {
+                continue;
+            }
+            if (pageIds[frame] == EMPTY || !referenced[frame]) {
+                return frame;
+            }
+            referenced[frame] = false;
+        }
+        throw new IllegalStateException("all " + frames.length + " frames are pinned");
+    }
+
+    private void writeBack(int frame) {
+        file.write(pageIds[frame], frames[frame].clear());
+        dirty[frame] = false;
+        writeBacks++;
+    }
+
+    private int slot(long pageId) {
+        long hash = pageId * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & tableMask;
+    }
+
+    private int lookup(long pageId) {
+        for (int i = slot(pageId); ; i = (i + 1) & tableMask) {
+            long key = tableKeys[i];
+            if (key == pageId) {
+                return tableFrames[i];
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private void insert(long pageId, int frame) {
+        int i = slot(pageId);
+        while (tableKeys[i] != EMPTY) {
+            i = (i + 1) & tableMask;
+        }
+        tableKeys[i] = pageId;
+        tableFrames[i] = frame;
+    }
+
+    /**
+     * 线性探测的删除:把后面同一探测序列上的元素向前移动填补空位,不使用墓碑
+     */
+    private void remove(long pageId) {
+        int i = slot(pageId);
+        while (tableKeys[i] != pageId) {
+            i = (i + 1) & tableMask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & tableMask; tableKeys[j] != EMPTY; j = (j + 1) & tableMask) {
+            int home = slot(tableKeys[j]);
+            //home不在(hole, j]之间时,元素可以移动到hole
+            if (((j - home) & tableMask) >= ((j - hole) & tableMask)) {
+                tableKeys[hole] = tableKeys[j];
+                tableFrames[hole] = tableFrames[j];
+                hole = j;
+            }
+        }
+        tableKeys[hole] = EMPTY;
+    }
+}
@@ -0,0 +1,231 @@
+package com.dsimpl.balanceTree.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 由固定大小页面组成的文件,通过FileChannel按段映射为MappedByteBuffer访问
+ * 1: 第0页为文件头:魔数、页面大小、已分配页数、空闲页链表头,从METADATA_OFFSET开始的剩余部分留给上层保存元数据
+ * 2: 页面按段(PAGES_PER_SEGMENT个页面)延迟映射,打开文件时只映射第一段,因此打开已有文件几乎不需要时间
+ * 3: 释放的页面串成空闲链表,链表指针写在空闲页面的前8个字节,分配时优先复用
+ * 4: 除了page返回的映射缓冲区,也可以用read/write按页面在文件中的位置读写,供{@link BufferPool}自己管理缓存;
+ *    空闲链表指针同样按位置读写,不经过映射,因此只通过BufferPool访问页面的上层只映射了文件头所在的第一段
+ * 页号0表示文件头,因此上层可以用0表示不存在的页面
+ */
+public final class PageFile implements Closeable {
+    public static final long NO_PAGE = 0;
+    public static final int METADATA_OFFSET = 64;
+    private static final int MAGIC = 0x42505446;
+    private static final int PAGES_PER_SEGMENT = 256;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int PAGE_SIZE_OFFSET = 4;
+    private static final int PAGE_COUNT_OFFSET = 8;
+    private static final int FREE_HEAD_OFFSET = 16;
+
+    private final FileChannel channel;
+    private final int pageSize;
+    private final long segmentBytes;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final ByteBuffer header;
+    private long pageCount;
+    private long freeHead;
+    private final boolean created;
+
+    /**
+     * 文件不存在或为空时创建新文件,否则校验文件头中的魔数与页面大小
+     * @param pageSize 页面大小,必须是2的幂并且不小于512,例如4/8/16KB
+     */
+    public PageFile(Path path, int pageSize) throws IOException {
+        if (pageSize < 512 || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("pageSize must be a power of two >= 512: " + pageSize);
+        }
+        this.pageSize = pageSize;
+        this.segmentBytes = (long) pageSize * PAGES_PER_SEGMENT;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.created = channel.size() == 0;
+            this.header = page(0);
+            if (created) {
+                header.putInt(MAGIC_OFFSET, MAGIC);
+                header.putInt(PAGE_SIZE_OFFSET, pageSize);
+                pageCount = 1;
+                freeHead = NO_PAGE;
+                writeHeader();
+            } else {
+                if (header.getInt(MAGIC_OFFSET) != MAGIC) {
+                    throw new IOException("not a page file: " + path);
+                }
+                if (header.getInt(PAGE_SIZE_OFFSET) != pageSize) {
+                    throw new IOException("page size mismatch: file uses " + header.getInt(PAGE_SIZE_OFFSET) + ", requested " + pageSize);
+                }
+                pageCount = header.getLong(PAGE_COUNT_OFFSET);
+                freeHead = header.getLong(FREE_HEAD_OFFSET);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 本次打开时文件是否是新创建的
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    public int pageSize() {
+        return pageSize;
+    }
+
+    public long pageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return 返回上层元数据区域,position为0,容量为pageSize - METADATA_OFFSET
+     */
+    public ByteBuffer metadata() {
+        return header.duplicate().position(METADATA_OFFSET).slice();
+    }
+
+    /**
+     * @return 返回页面对应的缓冲区,读写直接作用在映射的文件上,position为0,limit为pageSize
+     */
+    public ByteBuffer page(long pageId) {
+        int segment = (int) (pageId / PAGES_PER_SEGMENT);
+        MappedByteBuffer mapped = segment < segments.size() ? segments.get(segment) : null;
+        if (mapped == null) {
+            mapped = map(segment);
+        }
+        int offset = (int) (pageId % PAGES_PER_SEGMENT) * pageSize;
+        return mapped.duplicate().position(offset).limit(offset + pageSize).slice();
+    }
+
+    /**
+     * 把页面读入dst的[position, position + pageSize),超出文件末尾的部分填0,完成后dst的position不变
+     */
+    public void read(long pageId, ByteBuffer dst) {
+        int start = dst.position();
+        long position = pageId * pageSize - start;
+        dst.limit(start + pageSize);
+        try {
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, position + dst.position()) < 0) {
+                    while (dst.hasRemaining()) {
+                        dst.put((byte) 0);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        dst.position(start);
+    }
+
+    /**
+     * 把src的[position, position + pageSize)写入页面,完成后src的position不变
+     */
+    public void write(long pageId, ByteBuffer src) {
+        int start = src.position();
+        long position = pageId * pageSize - start;
+        src.limit(start + pageSize);
+        try {
+            while (src.hasRemaining()) {
+                channel.write(src, position + src.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        src.position(start);
+    }
+
+    public long allocate() {
+        long pageId;
+        if (freeHead != NO_PAGE) {
+            pageId = freeHead;
+            ByteBuffer link = ByteBuffer.allocate(Long.BYTES);
+            readFully(link, pageId * pageSize);
+            freeHead = link.getLong(0);
+        } else {
+            pageId = pageCount++;
+        }
+        writeHeader();
+        return pageId;
+    }
+
+    public void free(long pageId) {
+        ByteBuffer link = ByteBuffer.allocate(Long.BYTES).putLong(0, freeHead);
+        try {
+            while (link.hasRemaining()) {
+                channel.write(link, pageId * pageSize + link.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        freeHead = pageId;
+        writeHeader();
+    }
+
+    /**
+     * 把所有修改过的映射页面以及通过write写入的页面写回磁盘
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        segments.clear();
+        channel.close();
+    }
+
+    private void writeHeader() {
+        header.putLong(PAGE_COUNT_OFFSET, pageCount);
+        header.putLong(FREE_HEAD_OFFSET, freeHead);
+    }
+
+    private void readFully(ByteBuffer dst, long position) {
+        try {
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, position + dst.position()) < 0) {
+                    throw new IOException("unexpected end of file at " + (position + dst.position()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer map(int segment) {
+        try {
+            //以READ_WRITE方式映射超出文件末尾的区域时文件会自动扩展
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, segment * segmentBytes, segmentBytes);
+            while (segments.size() <= segment) {
+                segments.add(null);
+            }
+            segments.set(segment, mapped);
+            return mapped;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.dsimpl.balanceTree.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 关键字与数据写入页面时使用的编码方式,write写入的字节数必须等于size的返回值
+ */
+public interface Serializer<T> {
+    void write(T value, ByteBuffer buffer);
+
+    T read(ByteBuffer buffer);
+
+    int size(T value);
+
+    Serializer<Integer> INT = new Serializer<>() {
+        @Override
+        public void write(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+
+        @Override
+        public int size(Integer value) {
+            return Integer.BYTES;
+        }
+    };
+
+    Serializer<Long> LONG = new Serializer<>() {
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+
+        @Override
+        public int size(Long value) {
+            return Long.BYTES;
+        }
+    };
+
+    /**
+     * 4个字节的长度加UTF-8编码后的内容;不成对的代理字符与getBytes一样编码为'?',size按同样的规则计算
+     */
+    Serializer<String> STRING = new Serializer<>() {
+        @Override
+        public void write(String value, ByteBuffer buffer) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        @Override
+        public String read(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int size(String value) {
+            int bytes = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    bytes += 1;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    bytes += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    bytes += 1;
+                } else {
+                    bytes += 3;
+                }
+            }
+            return Integer.BYTES + bytes;
+        }
+    };
+}
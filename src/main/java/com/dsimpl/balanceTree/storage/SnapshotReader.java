@@ -0,0 +1,145 @@
+package com.dsimpl.balanceTree.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * 顺序读取{@link SnapshotWriter}写出的快照,格式见SnapshotWriter
+ * 每次读入并校验一整块,next()在块内逐个解码元素,之后通过key()/value()读取,不为元素分配额外的对象
+ * 魔数、版本、校验和不匹配,块被截断,或者读到的元素个数与文件头不一致时抛出IOException
+ */
+public final class SnapshotReader<K, V> {
+    private final ReadableByteChannel channel;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final long count;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer block = ByteBuffer.allocateDirect(SnapshotWriter.BLOCK_HEADER_BYTES + SnapshotWriter.DEFAULT_BLOCK_SIZE + Integer.BYTES);
+    private int blockRemaining;
+    private long read;
+    private boolean finished;
+    private K key;
+    private V value;
+
+    public SnapshotReader(ReadableByteChannel channel, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        this.channel = channel;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        ByteBuffer header = ByteBuffer.allocate(SnapshotWriter.HEADER_BYTES);
+        readFully(header, "header");
+        if (header.getInt(0) != SnapshotWriter.MAGIC) {
+            throw new IOException("not a snapshot");
+        }
+        crc.update(header.array(), 0, SnapshotWriter.HEADER_BYTES - Integer.BYTES);
+        if (header.getInt(SnapshotWriter.HEADER_BYTES - Integer.BYTES) != (int) crc.getValue()) {
+            throw new IOException("snapshot header checksum mismatch");
+        }
+        if (header.getInt(4) != SnapshotWriter.VERSION) {
+            throw new IOException("unsupported snapshot version: " + header.getInt(4));
+        }
+        this.count = header.getLong(8);
+    }
+
+    /**
+     * @return 文件头中记录的元素个数
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return 移动到下一个元素,快照中没有更多元素时返回false
+     */
+    public boolean next() throws IOException {
+        while (blockRemaining == 0) {
+            if (finished || !readBlock()) {
+                key = null;
+                value = null;
+                return false;
+            }
+        }
+        try {
+            key = keySerializer.read(block);
+            byte marker = block.get();
+            if (marker == SnapshotWriter.PRESENT_VALUE) {
+                value = valueSerializer.read(block);
+            } else if (marker == SnapshotWriter.NULL_VALUE) {
+                value = null;
+            } else {
+                throw new IOException("invalid value marker " + marker + " at entry " + read);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("failed to decode entry " + read, e);
+        }
+        blockRemaining--;
+        read++;
+        if (blockRemaining == 0 && block.hasRemaining()) {
+            throw new IOException("block has " + block.remaining() + " trailing bytes after entry " + read);
+        }
+        return true;
+    }
+
+    public K key() {
+        checkCurrent();
+        return key;
+    }
+
+    public V value() {
+        checkCurrent();
+        return value;
+    }
+
+    private void checkCurrent() {
+        if (key == null) {
+            throw new NoSuchElementException("reader is not positioned on an entry, call next() first");
+        }
+    }
+
+    /**
+     * 读入并校验下一块,读到结束标记时检查元素个数并返回false
+     */
+    private boolean readBlock() throws IOException {
+        block.clear().limit(SnapshotWriter.BLOCK_HEADER_BYTES);
+        readFully(block, "block header");
+        int payload = block.getInt(0);
+        int entries = block.getInt(Integer.BYTES);
+        if (payload < 0 || entries < 0 || entries > payload || entries == 0 && payload != 0) {
+            throw new IOException("corrupt block header: " + payload + " bytes, " + entries + " entries");
+        }
+        int total = SnapshotWriter.BLOCK_HEADER_BYTES + payload + Integer.BYTES;
+        if (block.capacity() < total) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(total);
+            larger.put(block.flip());
+            block = larger;
+        }
+        block.limit(total);
+        readFully(block, "block");
+        int checksum = block.getInt(total - Integer.BYTES);
+        crc.reset();
+        crc.update(block.flip().limit(total - Integer.BYTES));
+        if (checksum != (int) crc.getValue()) {
+            throw new IOException("snapshot block checksum mismatch after entry " + read);
+        }
+        if (entries == 0) {
+            finished = true;
+            if (read != count) {
+                throw new IOException("snapshot declares " + count + " entries but contains " + read);
+            }
+            return false;
+        }
+        block.limit(total - Integer.BYTES).position(SnapshotWriter.BLOCK_HEADER_BYTES);
+        blockRemaining = entries;
+        return true;
+    }
+
+    private void readFully(ByteBuffer buffer, String what) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("snapshot truncated while reading " + what + " after entry " + read);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.dsimpl.balanceTree.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * 按关键字升序把元素流式写成快照,关键字与数据通过{@link Serializer}编码,由{@link SnapshotReader}读取
+ * 1: 文件头:魔数、版本、元素个数以及文件头的CRC32C
+ * 2: 之后是若干个块,每块为[负载字节数][元素个数][负载][CRC32C],校验和覆盖块头与负载;负载中依次存放关键字、
+ *    1个字节的null标记与数据(数据为null时省略);负载攒到blockSize字节后写出一块,单个元素可以超过blockSize
+ * 3: 最后以元素个数为0的空块结束,读取时据此区分正常结束与截断
+ * 写入的元素个数必须等于构造时给出的count,只用一个块大小的缓冲区,与快照的大小无关
+ */
+public final class SnapshotWriter<K, V> {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    static final int MAGIC = 0x42505453;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 20;
+    static final int BLOCK_HEADER_BYTES = 8;
+    static final byte NULL_VALUE = 0;
+    static final byte PRESENT_VALUE = 1;
+
+    private final WritableByteChannel channel;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final int blockSize;
+    private final long count;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer block;
+    private int blockEntries;
+    private long written;
+
+    public SnapshotWriter(WritableByteChannel channel, Serializer<K> keySerializer, Serializer<V> valueSerializer, long count) throws IOException {
+        this(channel, keySerializer, valueSerializer, count, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param count 将要写入的元素个数,记录在文件头中
+     * @param blockSize 每块负载的目标字节数
+     */
+    public SnapshotWriter(WritableByteChannel channel, Serializer<K> keySerializer, Serializer<V> valueSerializer, long count,
+                          int blockSize) throws IOException {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.channel = channel;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.blockSize = blockSize;
+        this.count = count;
+        this.block = ByteBuffer.allocateDirect(BLOCK_HEADER_BYTES + blockSize + Integer.BYTES);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(count);
+        crc.update(header.array(), 0, header.position());
+        header.putInt((int) crc.getValue()).flip();
+        writeFully(header);
+        block.position(BLOCK_HEADER_BYTES);
+    }
+
+    public void add(K key, V value) throws IOException {
+        if (written == count) {
+            throw new IllegalStateException("snapshot already contains the declared " + count + " entries");
+        }
+        int entrySize = keySerializer.size(key) + 1 + (value == null ? 0 : valueSerializer.size(value));
+        if (block.position() > BLOCK_HEADER_BYTES && block.position() + entrySize > BLOCK_HEADER_BYTES + blockSize) {
+            flushBlock();
+        }
+        if (block.remaining() < entrySize + Integer.BYTES) {
+            //单个元素超过了块的大小,扩大缓冲区容纳它
+            ByteBuffer larger = ByteBuffer.allocateDirect(block.position() + entrySize + Integer.BYTES);
+            block.flip();
+            larger.put(block);
+            block = larger;
+        }
+        keySerializer.write(key, block);
+        if (value == null) {
+            block.put(NULL_VALUE);
+        } else {
+            block.put(PRESENT_VALUE);
+            valueSerializer.write(value, block);
+        }
+        blockEntries++;
+        written++;
+    }
+
+    /**
+     * 写出最后一个未满的块以及结束标记,不关闭通道
+     * @throws IllegalStateException 写入的元素个数与count不一致
+     */
+    public void finish() throws IOException {
+        if (written != count) {
+            throw new IllegalStateException("declared " + count + " entries but wrote " + written);
+        }
+        if (blockEntries > 0) {
+            flushBlock();
+        }
+        flushBlock();
+    }
+
+    private void flushBlock() throws IOException {
+        int payload = block.position() - BLOCK_HEADER_BYTES;
+        block.putInt(0, payload);
+        block.putInt(Integer.BYTES, blockEntries);
+        crc.reset();
+        crc.update(block.flip());
+        block.limit(BLOCK_HEADER_BYTES + payload + Integer.BYTES);
+        block.putInt(BLOCK_HEADER_BYTES + payload, (int) crc.getValue());
+        block.position(0);
+        writeFully(block);
+        block.clear().position(BLOCK_HEADER_BYTES);
+        blockEntries = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.dsimpl.balanceTree.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * 逻辑预写日志:只记录put/remove本身,分裂、合并等结构变化在重放时由树重新产生,因此日志与树的节点布局无关
+ * 1: 每条记录为[内容字节数][内容的CRC32C][内容],内容为记录类型、关键字、1个字节的null标记与数据(remove没有数据);
+ *    记录先追加到内存缓冲区并得到递增的序号(LSN),由写日志的线程批量写入文件
+ * 2: 组提交:同一时刻只有一个线程在写文件,它带走缓冲区中已有的全部记录,写完后force一次;
+ *    在此期间到达的写线程等待它结束,之后由其中一个线程把这段时间积累的记录一起写出,所有等待者共享同一次force
+ * 3: 打开时从头重放,遇到不完整或者校验失败的记录即认为是崩溃时写了一半的尾部,从这里截断,之后的追加接在有效记录后面
+ * 4: 检查点由上层完成:把树写成快照后调用reset清空日志;对已经包含在快照中的记录重放是幂等的,
+ *    因此快照替换成功而日志还没有清空时崩溃也不会出错
+ * 写入文件或force失败后日志进入失败状态,之后的append/sync都抛出UncheckedIOException;
+ * 序列化失败或者写入的字节数与size不一致时丢弃这条记录,缓冲区恢复原状,日志仍然可用
+ */
+public final class WriteAheadLog<K, V> implements Closeable {
+    private static final int RECORD_HEADER = 8;
+    private static final int INITIAL_BUFFER = 64 * 1024;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte NULL_VALUE = 0;
+    private static final byte PRESENT_VALUE = 1;
+
+    /**
+     * 重放时按日志顺序接收记录
+     */
+    public interface Replayer<K, V> {
+        void put(K key, V value);
+
+        void remove(K key);
+    }
+
+    private final FileChannel channel;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final CRC32C crc = new CRC32C();
+    //appendLock保护缓冲区与序号,写线程追加记录与写日志的线程交换缓冲区时持有
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER);
+    private long appendedLsn;
+    //flushLock保护写日志的线程身份以及已经写出、已经force的序号
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushDone = flushLock.newCondition();
+    private boolean flushing;
+    private long writtenLsn;
+    private long durableLsn;
+    private volatile long fileBytes;
+    private volatile IOException failure;
+
+    public WriteAheadLog(Path path, Serializer<K> keySerializer, Serializer<V> valueSerializer) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+    }
+
+    /**
+     * 按顺序重放文件中所有有效的记录,截断无效的尾部,之后的追加从有效记录的末尾开始;只能在追加之前调用一次
+     * @return 重放的记录条数
+     */
+    public long replay(Replayer<K, V> replayer) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        long records = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        ByteBuffer body = ByteBuffer.allocate(INITIAL_BUFFER);
+        CRC32C check = new CRC32C();
+        while (true) {
+            header.clear();
+            if (!readFully(header, position)) {
+                break;
+            }
+            int length = header.getInt(0);
+            if (length < 2 || length > fileSize - position - RECORD_HEADER) {
+                break;
+            }
+            if (body.capacity() < length) {
+                body = ByteBuffer.allocate(Math.max(length, body.capacity() * 2));
+            }
+            body.clear().limit(length);
+            if (!readFully(body, position + RECORD_HEADER)) {
+                break;
+            }
+            check.reset();
+            check.update(body.array(), 0, length);
+            if (header.getInt(Integer.BYTES) != (int) check.getValue()) {
+                break;
+            }
+            body.flip();
+            if (!apply(body, replayer)) {
+                break;
+            }
+            position += RECORD_HEADER + length;
+            records++;
+        }
+        if (position < fileSize) {
+            channel.truncate(position);
+            channel.force(false);
+        }
+        channel.position(position);
+        fileBytes = position;
+        return records;
+    }
+
+    /**
+     * @return 记录的序号,传给sync等待它写入磁盘
+     */
+    public long appendPut(K key, V value) {
+        int size = 1 + keySerializer.size(key) + 1 + (value == null ? 0 : valueSerializer.size(value));
+        appendLock.lock();
+        int mark = buffer.position();
+        try {
+            ByteBuffer record = reserve(size);
+            record.put(PUT);
+            keySerializer.write(key, record);
+            if (value == null) {
+                record.put(NULL_VALUE);
+            } else {
+                record.put(PRESENT_VALUE);
+                valueSerializer.write(value, record);
+            }
+            return seal(mark, size);
+        } catch (RuntimeException e) {
+            buffer.position(mark);
+            throw e;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public long appendRemove(K key) {
+        int size = 1 + keySerializer.size(key);
+        appendLock.lock();
+        int mark = buffer.position();
+        try {
+            ByteBuffer record = reserve(size);
+            record.put(REMOVE);
+            keySerializer.write(key, record);
+            return seal(mark, size);
+        } catch (RuntimeException e) {
+            buffer.position(mark);
+            throw e;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * 等待序号不超过lsn的记录全部force到磁盘;已经有线程在写日志时等待它结束,必要时由自己写下一批
+     */
+    public void sync(long lsn) {
+        while (true) {
+            flushLock.lock();
+            try {
+                while (flushing && durableLsn < lsn) {
+                    flushDone.awaitUninterruptibly();
+                }
+                checkFailure();
+                if (durableLsn >= lsn) {
+                    return;
+                }
+                flushing = true;
+            } finally {
+                flushLock.unlock();
+            }
+            writeBatch(true);
+        }
+    }
+
+    /**
+     * 把缓冲区中的全部记录写入文件
+     * @param force 是否同时force到磁盘
+     */
+    public void flush(boolean force) {
+        beginFlush();
+        writeBatch(force);
+    }
+
+    /**
+     * 检查点完成后调用:丢弃缓冲区中的记录,清空日志文件,此前的记录都视为已经持久化;
+     * 调用者需要保证期间没有其他线程追加记录
+     */
+    public void reset() throws IOException {
+        beginFlush();
+        long lsn;
+        try {
+            appendLock.lock();
+            try {
+                buffer.clear();
+                lsn = appendedLsn;
+            } finally {
+                appendLock.unlock();
+            }
+            channel.truncate(0);
+            channel.force(false);
+            channel.position(0);
+            fileBytes = 0;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endFlush();
+        }
+        flushLock.lock();
+        try {
+            writtenLsn = Math.max(writtenLsn, lsn);
+            durableLsn = Math.max(durableLsn, lsn);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * @return 日志文件与缓冲区中记录的总字节数,用于决定何时做检查点
+     */
+    public long bytes() {
+        appendLock.lock();
+        try {
+            return fileBytes + buffer.position();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * @return 已经force到磁盘的最大序号
+     */
+    public long durableLsn() {
+        flushLock.lock();
+        try {
+            return durableLsn;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 写出并force剩余的记录后关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (failure == null) {
+                flush(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer reserve(int size) {
+        checkFailure();
+        int needed = RECORD_HEADER + size;
+        if (buffer.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            larger.put(buffer.flip());
+            buffer = larger;
+        }
+        buffer.position(buffer.position() + RECORD_HEADER);
+        return buffer;
+    }
+
+    /**
+     * 记录内容已经写在头部之后,回填长度与校验和;写入的字节数与size不一致时抛出异常,由调用者丢弃这条记录
+     * @param mark 记录头部在缓冲区中的位置
+     */
+    private long seal(int mark, int size) {
+        int start = mark + RECORD_HEADER;
+        if (buffer.position() - start != size) {
+            throw new IllegalStateException("serializer wrote " + (buffer.position() - start) + " bytes, size() returned " + size);
+        }
+        crc.reset();
+        crc.update(buffer.array(), start, size);
+        buffer.putInt(start - RECORD_HEADER, size);
+        buffer.putInt(start - Integer.BYTES, (int) crc.getValue());
+        return ++appendedLsn;
+    }
+
+    private void beginFlush() {
+        flushLock.lock();
+        try {
+            while (flushing) {
+                flushDone.awaitUninterruptibly();
+            }
+            flushing = true;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void endFlush() {
+        flushLock.lock();
+        try {
+            flushing = false;
+            flushDone.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 由持有写日志身份的线程调用:交换缓冲区后在锁外写文件,期间写线程继续向新的缓冲区追加
+     */
+    private void writeBatch(boolean force) {
+        try {
+            ByteBuffer batch;
+            long lsn;
+            appendLock.lock();
+            try {
+                batch = buffer;
+                buffer = spare;
+                lsn = appendedLsn;
+            } finally {
+                appendLock.unlock();
+            }
+            batch.flip();
+            long bytes = batch.remaining();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            fileBytes += bytes;
+            if (force && lsn > durableLsn()) {
+                channel.force(false);
+            }
+            spare = batch.clear();
+            flushLock.lock();
+            try {
+                writtenLsn = Math.max(writtenLsn, lsn);
+                if (force) {
+                    durableLsn = Math.max(durableLsn, lsn);
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException(e);
+        } finally {
+            endFlush();
+        }
+    }
+
+    private boolean apply(ByteBuffer body, Replayer<K, V> replayer) {
+        try {
+            byte type = body.get();
+            K key = keySerializer.read(body);
+            if (type == PUT) {
+                byte marker = body.get();
+                if (marker != NULL_VALUE && marker != PRESENT_VALUE) {
+                    return false;
+                }
+                V value = marker == NULL_VALUE ? null : valueSerializer.read(body);
+                if (body.hasRemaining()) {
+                    return false;
+                }
+                replayer.put(key, value);
+            } else if (type == REMOVE && !body.hasRemaining()) {
+                replayer.remove(key);
+            } else {
+                return false;
+            }
+            return true;
+        } catch (RuntimeException e) {
+            //校验和一致但内容无法解码,同样视为无效的尾部
+            return false;
+        }
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("write-ahead log failed", failure);
+        }
+    }
+}
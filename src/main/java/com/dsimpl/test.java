@@ -1,9 +1,32 @@
 package com.dsimpl;
 
 import com.dsimpl.balanceTree.BPlusTree;
+import com.dsimpl.balanceTree.BufferedBPlusTree;
+import com.dsimpl.balanceTree.ByteKeyBPlusTree;
+import com.dsimpl.balanceTree.ConcurrentBPlusTree;
+import com.dsimpl.balanceTree.CopyOnWriteBPlusTree;
+import com.dsimpl.balanceTree.DurableBPlusTree;
+import com.dsimpl.balanceTree.FlatCombiningBPlusTree;
+import com.dsimpl.balanceTree.IntBPlusTree;
+import com.dsimpl.balanceTree.ShardedBPlusTree;
+import com.dsimpl.balanceTree.storage.Serializer;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class test {
     public static void main(String[] args) {
@@ -42,4 +65,792 @@ public class test {
             System.out.println("get-> error");
         }
     }
+
+    /**
+     * BufferedBPlusTree与TreeMap对比:缓冲区很小、阶数很小,交错的put/remove不断触发缓冲区下推、叶子节点的分裂与合并;
+     * 写操作之间穿插get/containsKey/floorKey/ceilingKey,它们需要跳过缓冲区中的墓碑,偶尔调用size()下推全部消息
+     */
+    public static void checkBuffered() {
+        int errors = 0;
+        int maxKey = 2000;
+        for (int round = 0; round < 20; round++) {
+            int degree = 3 + round % 4;
+            int bufferCapacity = 1 + round % 7 * 3;
+            BufferedBPlusTree<Integer, Integer> tree = new BufferedBPlusTree<>(degree, bufferCapacity);
+            TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 50000; i++) {
+                int key = random.nextInt(maxKey);
+                if (random.nextInt(5) < 2) {
+                    tree.remove(key);
+                    treeMap.remove(key);
+                } else {
+                    tree.put(key, i);
+                    treeMap.put(key, i);
+                }
+                int query = random.nextInt(maxKey + 2) - 1;
+                if (!Objects.equals(tree.get(query), treeMap.get(query)) || tree.containsKey(query) != treeMap.containsKey(query)) {
+                    System.out.println("get-> error: degree " + degree + ", key " + query);
+                    errors++;
+                }
+                if (!Objects.equals(tree.floorKey(query), treeMap.floorKey(query))) {
+                    System.out.println("floorKey-> error: degree " + degree + ", " + query + " -> " + tree.floorKey(query));
+                    errors++;
+                }
+                if (!Objects.equals(tree.ceilingKey(query), treeMap.ceilingKey(query))) {
+                    System.out.println("ceilingKey-> error: degree " + degree + ", " + query + " -> " + tree.ceilingKey(query));
+                    errors++;
+                }
+                if (i % 5000 == 0 && tree.size() != treeMap.size()) {
+                    System.out.println("size-> error: degree " + degree + ", " + tree.size() + " != " + treeMap.size());
+                    errors++;
+                }
+            }
+            if (!Objects.equals(tree.firstKey(), treeMap.isEmpty() ? null : treeMap.firstKey())
+                    || !Objects.equals(tree.lastKey(), treeMap.isEmpty() ? null : treeMap.lastKey())) {
+                System.out.println("firstKey/lastKey-> error: degree " + degree);
+                errors++;
+            }
+            if (tree.size() != treeMap.size()) {
+                System.out.println("size-> error: degree " + degree + ", " + tree.size() + " != " + treeMap.size());
+                errors++;
+            }
+        }
+        System.out.println("checkBuffered finished, errors: " + errors);
+    }
+
+    /**
+     * CopyOnWriteBPlusTree的快照:
+     * 1: 写入过程中每隔一段取一次快照并复制当时的TreeMap,全部写完后每个快照的内容、size、floorKey/ceilingKey/range
+     *    都必须与复制的TreeMap一致,不受之后的写入影响
+     * 2: 关键字无法比较时put/remove抛出异常,树的内容不变,之后的写入(包括引起分裂的写入)结果正确
+     */
+    public static void checkSnapshot() {
+        CopyOnWriteBPlusTree<Integer, Integer> tree = new CopyOnWriteBPlusTree<>(4);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        List<CopyOnWriteBPlusTree<Integer, Integer>.Snapshot> snapshots = new ArrayList<>();
+        List<TreeMap<Integer, Integer>> expected = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int maxKey = 3000;
+        int errors = 0;
+        for (int i = 0; i < 60000; i++) {
+            int key = random.nextInt(maxKey);
+            if (random.nextInt(3) == 0) {
+                if (!Objects.equals(tree.remove(key), treeMap.remove(key))) {
+                    System.out.println("remove-> error: key " + key);
+                    errors++;
+                }
+            } else {
+                tree.put(key, i);
+                treeMap.put(key, i);
+            }
+            if (i % 6000 == 0) {
+                snapshots.add(tree.snapshot());
+                expected.add(new TreeMap<>(treeMap));
+            }
+        }
+        for (int s = 0; s < snapshots.size(); s++) {
+            CopyOnWriteBPlusTree<Integer, Integer>.Snapshot snapshot = snapshots.get(s);
+            TreeMap<Integer, Integer> copy = expected.get(s);
+            Map<Integer, Integer> content = new TreeMap<>();
+            snapshot.forEach(null, null, content::put);
+            if (snapshot.size() != copy.size() || !content.equals(copy)) {
+                System.out.println("snapshot-> error: version " + snapshot.version() + ", size " + snapshot.size() + " != " + copy.size());
+                errors++;
+            }
+            for (int i = 0; i < 500; i++) {
+                int key = random.nextInt(maxKey + 2) - 1;
+                if (!Objects.equals(snapshot.get(key), copy.get(key))
+                        || !Objects.equals(snapshot.floorKey(key), copy.floorKey(key))
+                        || !Objects.equals(snapshot.ceilingKey(key), copy.ceilingKey(key))) {
+                    System.out.println("snapshot-> error: version " + snapshot.version() + ", key " + key);
+                    errors++;
+                }
+                int end = key + random.nextInt(100);
+                if (!snapshot.range(key, end).equals(copy.subMap(key, false, end, true))) {
+                    System.out.println("snapshot-> error: version " + snapshot.version() + ", range (" + key + ", " + end + "]");
+                    errors++;
+                }
+            }
+        }
+        CopyOnWriteBPlusTree<CheckedKey, Integer> checked = new CopyOnWriteBPlusTree<>(4);
+        TreeMap<Integer, Integer> checkedMap = new TreeMap<>();
+        for (int i = 0; i < 5000; i++) {
+            int key = random.nextInt(maxKey);
+            //树为空时没有可以比较的关键字,从第一次写入之后开始
+            if (i % 50 == 49) {
+                try {
+                    if (i % 100 == 49) {
+                        checked.put(new CheckedKey(-1), i);
+                    } else {
+                        checked.remove(new CheckedKey(-1));
+                    }
+                    System.out.println("comparable-> error: write " + i + " did not fail");
+                    errors++;
+                } catch (IllegalArgumentException e) {
+                    //预期的失败
+                }
+            }
+            if (random.nextInt(3) == 0) {
+                if (!Objects.equals(checked.remove(new CheckedKey(key)), checkedMap.remove(key))) {
+                    System.out.println("comparable-> error: remove " + key);
+                    errors++;
+                }
+            } else {
+                checked.put(new CheckedKey(key), i);
+                checkedMap.put(key, i);
+            }
+        }
+        for (int key = 0; key < maxKey; key++) {
+            if (!Objects.equals(checked.get(new CheckedKey(key)), checkedMap.get(key))) {
+                System.out.println("comparable-> error: key " + key);
+                errors++;
+            }
+        }
+        if (checked.size() != checkedMap.size()) {
+            System.out.println("comparable-> error: size " + checked.size() + " != " + checkedMap.size());
+            errors++;
+        }
+        System.out.println("checkSnapshot finished, snapshots: " + snapshots.size() + ", errors: " + errors);
+    }
+
+    /**
+     * 对比泛型B+树与基本类型B+树:每个元素占用的字节数以及put/get的吞吐量(ops/sec)
+     */
+    public static void comparePrimitive() {
+        int degree = 64;
+        int n = 1_000_000;
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = (int) (Math.random() * Integer.MAX_VALUE);
+        }
+
+        long before = usedMemory();
+        long start = System.nanoTime();
+        BPlusTree<Integer, Integer> generic = new BPlusTree<>(degree);
+        for (int key : keys) {
+            generic.put(key, key);
+        }
+        long putNanos = System.nanoTime() - start;
+        long bytes = usedMemory() - before;
+        start = System.nanoTime();
+        long sum = 0;
+        for (int key : keys) {
+            sum += generic.get(key);
+        }
+        long getNanos = System.nanoTime() - start;
+        report("BPlusTree<Integer, Integer>", generic.size(), bytes, putNanos, getNanos, n);
+        generic = null;
+
+        before = usedMemory();
+        start = System.nanoTime();
+        IntBPlusTree primitive = new IntBPlusTree(degree);
+        for (int key : keys) {
+            primitive.put(key, key);
+        }
+        putNanos = System.nanoTime() - start;
+        bytes = usedMemory() - before;
+        start = System.nanoTime();
+        for (int key : keys) {
+            sum += primitive.get(key);
+        }
+        getNanos = System.nanoTime() - start;
+        report("IntBPlusTree", primitive.size(), bytes, putNanos, getNanos, n);
+        System.out.println(sum);
+    }
+
+    /**
+     * 有长公共前缀的URL关键字,比较BPlusTree<String, Integer>与前缀压缩的ByteKeyBPlusTree占用的内存与树高
+     */
+    public static void compareByteKey() {
+        int degree = 64;
+        int n = 1_000_000;
+        String[] keys = new String[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = "https://www.example.com/catalog/products/item?id=" + (long) (Math.random() * Long.MAX_VALUE);
+        }
+
+        long before = usedMemory();
+        long start = System.nanoTime();
+        BPlusTree<String, Integer> generic = new BPlusTree<>(degree);
+        for (int i = 0; i < n; i++) {
+            //复制一份关键字,让两棵树的内存都包含关键字本身
+            generic.put(new String(keys[i].toCharArray()), i);
+        }
+        long putNanos = System.nanoTime() - start;
+        long bytes = usedMemory() - before;
+        start = System.nanoTime();
+        long sum = 0;
+        for (String key : keys) {
+            sum += generic.get(key);
+        }
+        long getNanos = System.nanoTime() - start;
+        report("BPlusTree<String, Integer> height " + generic.height(), generic.size(), bytes, putNanos, getNanos, n);
+        generic = null;
+
+        before = usedMemory();
+        start = System.nanoTime();
+        ByteKeyBPlusTree<Integer> compressed = new ByteKeyBPlusTree<>(degree);
+        for (int i = 0; i < n; i++) {
+            compressed.put(keys[i], i);
+        }
+        putNanos = System.nanoTime() - start;
+        bytes = usedMemory() - before;
+        start = System.nanoTime();
+        for (String key : keys) {
+            sum += compressed.get(key);
+        }
+        getNanos = System.nanoTime() - start;
+        report("ByteKeyBPlusTree height " + compressed.height(), compressed.size(), bytes, putNanos, getNanos, n);
+        System.out.println(sum);
+    }
+
+    private static void report(String name, int size, long bytes, long putNanos, long getNanos, int ops) {
+        System.out.printf("%s: %.1f bytes/entry, put %.0f ops/sec, get %.0f ops/sec%n", name,
+                (double) bytes / size, ops * 1e9 / putNanos, ops * 1e9 / getNanos);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * ConcurrentBPlusTree多线程压力测试,检查每个操作的结果都能在某个时刻的串行执行中得到:
+     * 1: 偶数关键字在开始前写入且不会被删除,任何时刻都必须能读到,floorKey/ceilingKey不能越过它们
+     * 2: 奇数关键字按(key / 2) % writers分给各写线程,写入的值对每个关键字单调递增,读线程读到的值不能回退
+     * 3: 所有线程结束后,树中的内容必须与各写线程自己记录的结果一致
+     */
+    public static void checkConcurrent() throws InterruptedException {
+        ConcurrentBPlusTree<Integer, Integer> tree = new ConcurrentBPlusTree<>(6);
+        int maxKey = 20000;
+        int writers = 4;
+        int readers = 4;
+        int opsPerThread = 500000;
+        for (int key = 0; key < maxKey; key += 2) {
+            tree.put(key, key);
+        }
+        AtomicInteger errors = new AtomicInteger();
+        List<Map<Integer, Integer>> models = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int id = w;
+            Map<Integer, Integer> model = new HashMap<>();
+            models.add(model);
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int version = 0;
+                for (int i = 0; i < opsPerThread; i++) {
+                    int key = (random.nextInt(maxKey / 2 / writers) * writers + id) * 2 + 1;
+                    if (random.nextInt(3) == 0) {
+                        tree.remove(key);
+                        model.remove(key);
+                    } else {
+                        tree.put(key, ++version);
+                        model.put(key, version);
+                    }
+                }
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int[] lastSeen = new int[maxKey];
+                for (int i = 0; i < opsPerThread; i++) {
+                    int key = random.nextInt(maxKey);
+                    int stableFloor = key & ~1;
+                    Integer value = tree.get(key);
+                    if (key % 2 == 0 && (value == null || value != key)) {
+                        System.out.println("get-> error: stable key " + key + " read " + value);
+                        errors.incrementAndGet();
+                    } else if (key % 2 == 1 && value != null) {
+                        if (value < lastSeen[key]) {
+                            System.out.println("get-> error: key " + key + " went back from " + lastSeen[key] + " to " + value);
+                            errors.incrementAndGet();
+                        }
+                        lastSeen[key] = value;
+                    }
+                    Integer floor = tree.floorKey(key);
+                    if (floor == null || floor > key || floor < stableFloor) {
+                        System.out.println("floorKey-> error: " + key + " -> " + floor);
+                        errors.incrementAndGet();
+                    }
+                    Integer ceiling = tree.ceilingKey(key);
+                    int stableCeiling = key % 2 == 0 ? key : key + 1;
+                    if (ceiling == null ? stableCeiling < maxKey : (ceiling < key || ceiling > stableCeiling)) {
+                        System.out.println("ceilingKey-> error: " + key + " -> " + ceiling);
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        int expectedSize = maxKey / 2;
+        for (Map<Integer, Integer> model : models) {
+            expectedSize += model.size();
+            for (Map.Entry<Integer, Integer> entry : model.entrySet()) {
+                if (!entry.getValue().equals(tree.get(entry.getKey()))) {
+                    System.out.println("final-> error: key " + entry.getKey());
+                    errors.incrementAndGet();
+                }
+            }
+        }
+        for (int key = 1; key < maxKey; key += 2) {
+            boolean expected = models.get((key / 2) % writers).containsKey(key);
+            if (tree.containsKey(key) != expected) {
+                System.out.println("final-> error: containsKey " + key);
+                errors.incrementAndGet();
+            }
+        }
+        if (tree.size() != expectedSize) {
+            System.out.println("size-> error: " + tree.size() + " != " + expectedSize);
+            errors.incrementAndGet();
+        }
+        System.out.println("checkConcurrent finished in " + millis + "ms, errors: " + errors.get());
+    }
+
+    /**
+     * ConcurrentBPlusTree读写并发时的分裂:树从空开始,写线程按递增顺序交错写入关键字,不断触发叶子与内部节点的分裂;
+     * 关键字写入后不会被删除,读线程只查找已经写入完成的关键字,get/containsKey必须能读到
+     */
+    public static void checkConcurrentSplit() throws InterruptedException {
+        ConcurrentBPlusTree<Integer, Integer> tree = new ConcurrentBPlusTree<>(4);
+        int writers = 4;
+        int readers = 4;
+        int keysPerWriter = 200000;
+        AtomicIntegerArray written = new AtomicIntegerArray(writers);
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int id = w;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < keysPerWriter; i++) {
+                    int key = i * writers + id;
+                    tree.put(key, key);
+                    written.set(id, i + 1);
+                }
+                finished.incrementAndGet();
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (finished.get() < writers) {
+                    int id = random.nextInt(writers);
+                    int count = written.get(id);
+                    if (count == 0) {
+                        continue;
+                    }
+                    //偏向最近写入的关键字,它们所在的节点正在分裂
+                    int i = Math.max(0, count - 1 - random.nextInt(Math.min(count, 64)));
+                    int key = i * writers + id;
+                    Integer value = tree.get(key);
+                    if (value == null || value != key) {
+                        System.out.println("get-> error: key " + key + " read " + value);
+                        errors.incrementAndGet();
+                    }
+                    if (!tree.containsKey(key)) {
+                        System.out.println("containsKey-> error: key " + key);
+                        errors.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        if (tree.size() != writers * keysPerWriter) {
+            System.out.println("size-> error: " + tree.size() + " != " + writers * keysPerWriter);
+            errors.incrementAndGet();
+        }
+        System.out.println("checkConcurrentSplit finished in " + millis + "ms, errors: " + errors.get());
+    }
+
+    /**
+     * FlatCombiningBPlusTree多线程测试,平台线程与虚拟线程各占一半,线程数多于槽位数,部分操作退化为直接加锁执行:
+     * 1: 关键字按value % threads分给各线程,每个线程用自己的TreeMap记录结果,put/remove/get/containsKey的返回值必须与之一致
+     * 2: 偶尔写入无法比较的关键字(compareTo抛出异常),只有这个操作失败,同一批的其他操作与之后的合并不受影响
+     * 3: 所有线程结束后,树中的内容必须与各线程的TreeMap一致
+     */
+    public static void checkFlatCombining() throws InterruptedException {
+        FlatCombiningBPlusTree<CheckedKey, Integer> tree = new FlatCombiningBPlusTree<>(8, 8);
+        int threadCount = 16;
+        int maxKey = 20000;
+        int opsPerThread = 200000;
+        //不属于任何线程的关键字,保证树不为空,无法比较的关键字不会直接写入空树
+        tree.put(new CheckedKey(maxKey), maxKey);
+        AtomicInteger errors = new AtomicInteger();
+        List<TreeMap<Integer, Integer>> models = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            TreeMap<Integer, Integer> model = new TreeMap<>();
+            models.add(model);
+            Runnable task = () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < opsPerThread; i++) {
+                    int key = random.nextInt(maxKey / threadCount) * threadCount + id;
+                    CheckedKey checkedKey = new CheckedKey(key);
+                    int op = random.nextInt(100);
+                    Object expected;
+                    Object actual;
+                    if (op == 0) {
+                        try {
+                            tree.put(new CheckedKey(-1), i);
+                            System.out.println("poisoned-> error: put did not fail");
+                            errors.incrementAndGet();
+                        } catch (IllegalArgumentException e) {
+                            //预期的失败
+                        }
+                        continue;
+                    } else if (op < 40) {
+                        expected = model.put(key, i);
+                        actual = tree.put(checkedKey, i);
+                    } else if (op < 60) {
+                        expected = model.remove(key);
+                        actual = tree.remove(checkedKey);
+                    } else if (op < 80) {
+                        expected = model.get(key);
+                        actual = tree.get(checkedKey);
+                    } else {
+                        expected = model.containsKey(key);
+                        actual = tree.containsKey(checkedKey);
+                    }
+                    if (!Objects.equals(expected, actual)) {
+                        System.out.println("combining-> error: thread " + id + ", op " + op + ", key " + key + " returned " + actual + ", expected " + expected);
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(id % 2 == 0 ? new Thread(task) : Thread.ofVirtual().unstarted(task));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        int expectedSize = 1;
+        for (TreeMap<Integer, Integer> model : models) {
+            expectedSize += model.size();
+        }
+        for (int key = 0; key < maxKey; key++) {
+            Integer expected = models.get(key % threadCount).get(key);
+            if (!Objects.equals(tree.get(new CheckedKey(key)), expected)) {
+                System.out.println("final-> error: key " + key);
+                errors.incrementAndGet();
+            }
+        }
+        if (tree.size() != expectedSize) {
+            System.out.println("size-> error: " + tree.size() + " != " + expectedSize);
+            errors.incrementAndGet();
+        }
+        System.out.println("checkFlatCombining finished in " + millis + "ms, batches: " + tree.combinedBatches()
+                + ", combined: " + tree.combinedOperations() + ", errors: " + errors.get());
+    }
+
+    /**
+     * 负数关键字无法与任何关键字比较
+     */
+    private static final class CheckedKey implements Comparable<CheckedKey> {
+        private final int value;
+
+        private CheckedKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(CheckedKey other) {
+            if (value < 0 || other.value < 0) {
+                throw new IllegalArgumentException("key " + Math.min(value, other.value) + " is not comparable");
+            }
+            return Integer.compare(value, other.value);
+        }
+    }
+
+    /**
+     * ShardedBPlusTree的分裂与合并:
+     * 1: 按样本分成8个分片后写满,零星的删除不能触发合并
+     * 2: 从一个分片开始只写一小段关键字,分片收到全部写操作,必须因为过热而分裂
+     * 3: 分片上限很小时随机写入产生大量分裂,删空左半边后只写右半边,左半边冷却的小分片必须被合并;
+     *    每个阶段结束时跨分片的floorKey/ceilingKey/range/firstKey/lastKey都与TreeMap一致
+     */
+    public static void checkSharded() {
+        int errors = 0;
+        List<Integer> sample = new ArrayList<>();
+        for (int key = 0; key < 100000; key++) {
+            sample.add(key);
+        }
+        ShardedBPlusTree<Integer, Integer> sampled = new ShardedBPlusTree<>(32, sample, 8);
+        for (int key = 0; key < 100000; key++) {
+            sampled.put(key, key);
+        }
+        for (int key = 0; key < 15; key++) {
+            sampled.remove(key * 1000);
+        }
+        if (sampled.shardCount() != 8) {
+            System.out.println("merge-> error: sampled shards collapsed to " + sampled.shardCount() + " after 15 removes");
+            errors++;
+        }
+
+        ShardedBPlusTree<Integer, Integer> hot = new ShardedBPlusTree<>(32);
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(10000);
+            if (random.nextInt(4) == 0) {
+                hot.remove(key);
+            } else {
+                hot.put(key, i);
+            }
+        }
+        if (hot.shardCount() < 2) {
+            System.out.println("split-> error: a single shard taking every write was never split");
+            errors++;
+        }
+
+        ShardedBPlusTree<Integer, Integer> tree = new ShardedBPlusTree<>(8, List.of(), 1, 1024, 256);
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        int maxKey = 40000;
+        for (int i = 0; i < 40000; i++) {
+            int key = random.nextInt(maxKey);
+            tree.put(key, i);
+            treeMap.put(key, i);
+        }
+        errors += compareSharded("split", tree, treeMap, random, maxKey);
+        int grown = tree.shardCount();
+        for (int key = 0; key < maxKey / 2; key++) {
+            if (!Objects.equals(tree.remove(key), treeMap.remove(key))) {
+                System.out.println("remove-> error: key " + key);
+                errors++;
+            }
+        }
+        int leftShards = countBelow(tree.shardBounds(), maxKey / 2);
+        for (int i = 0; i < 400000; i++) {
+            int key = maxKey / 2 + random.nextInt(maxKey / 2);
+            if (random.nextBoolean()) {
+                tree.remove(key);
+                treeMap.remove(key);
+            } else {
+                tree.put(key, i);
+                treeMap.put(key, i);
+            }
+        }
+        int mergedLeftShards = countBelow(tree.shardBounds(), maxKey / 2);
+        if (mergedLeftShards >= leftShards) {
+            System.out.println("merge-> error: " + leftShards + " cold empty shards were not merged");
+            errors++;
+        }
+        errors += compareSharded("merge", tree, treeMap, random, maxKey);
+        System.out.println("checkSharded finished, shards " + grown + " -> " + tree.shardCount()
+                + ", cold shards " + leftShards + " -> " + mergedLeftShards + ", errors: " + errors);
+    }
+
+    private static int countBelow(List<Integer> bounds, int limit) {
+        int count = 0;
+        for (int bound : bounds) {
+            if (bound < limit) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int compareSharded(String stage, ShardedBPlusTree<Integer, Integer> tree, TreeMap<Integer, Integer> treeMap,
+                                      Random random, int maxKey) {
+        int errors = 0;
+        if (tree.size() != treeMap.size()) {
+            System.out.println(stage + "-> error: size " + tree.size() + " != " + treeMap.size());
+            errors++;
+        }
+        if (!Objects.equals(tree.firstKey(), treeMap.isEmpty() ? null : treeMap.firstKey())
+                || !Objects.equals(tree.lastKey(), treeMap.isEmpty() ? null : treeMap.lastKey())) {
+            System.out.println(stage + "-> error: firstKey/lastKey");
+            errors++;
+        }
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(maxKey + 2) - 1;
+            if (!Objects.equals(tree.floorKey(key), treeMap.floorKey(key))) {
+                System.out.println(stage + "-> error: floorKey " + key + " -> " + tree.floorKey(key));
+                errors++;
+            }
+            if (!Objects.equals(tree.ceilingKey(key), treeMap.ceilingKey(key))) {
+                System.out.println(stage + "-> error: ceilingKey " + key + " -> " + tree.ceilingKey(key));
+                errors++;
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(maxKey);
+            int end = start + 1 + random.nextInt(maxKey / 4);
+            if (!tree.range(start, end).equals(new ArrayList<>(treeMap.subMap(start, false, end, true).entrySet()))) {
+                System.out.println(stage + "-> error: range (" + start + ", " + end + "]");
+                errors++;
+            }
+        }
+        if (!tree.range(null, null).equals(new ArrayList<>(treeMap.entrySet()))) {
+            System.out.println(stage + "-> error: full range");
+            errors++;
+        }
+        return errors;
+    }
+
+    /**
+     * Serializer.STRING写入的字节数必须等于size,包括多字节字符、成对与不成对的代理字符
+     */
+    public static void checkStringSerializer() {
+        char[] chars = {'a', 0x7f, 0x80, 0x7ff, 0x800, 0xffff, '\uD83D', '\uDE00', '\uDBFF', '\uDC00'};
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int errors = 0;
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder builder = new StringBuilder();
+            int length = ThreadLocalRandom.current().nextInt(8);
+            for (int j = 0; j < length; j++) {
+                builder.append(chars[ThreadLocalRandom.current().nextInt(chars.length)]);
+            }
+            String value = builder.toString();
+            buffer.clear();
+            Serializer.STRING.write(value, buffer);
+            if (buffer.position() != Serializer.STRING.size(value)) {
+                System.out.println("STRING-> error: " + value.chars().mapToObj(Integer::toHexString).toList()
+                        + " wrote " + buffer.position() + " bytes, size " + Serializer.STRING.size(value));
+                errors++;
+            }
+        }
+        System.out.println("checkStringSerializer finished, errors: " + errors);
+    }
+
+    /**
+     * DurableBPlusTree的恢复:
+     * 1: SYNC下写入并中途做一次检查点,不调用close直接重新打开同一个目录(模拟进程崩溃),内容必须与TreeMap一致
+     * 2: 在日志末尾追加写了一半的记录(模拟写日志时崩溃),重新打开时截断它,内容不变,之后的写入在下一次打开时仍然可见
+     * 3: 序列化失败的写入不能破坏日志,见checkFailedSerializer
+     */
+    public static void checkDurable() throws IOException {
+        Path directory = Files.createTempDirectory("durable-bplustree");
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        int maxKey = 5000;
+        int errors = 0;
+        DurableBPlusTree<Integer, Integer> crashed = new DurableBPlusTree<>(directory, 8, Serializer.INT, Serializer.INT,
+                DurableBPlusTree.Durability.SYNC, DurableBPlusTree.DEFAULT_FLUSH_INTERVAL_MILLIS, 0);
+        for (int i = 0; i < 20000; i++) {
+            int key = ThreadLocalRandom.current().nextInt(maxKey);
+            if (ThreadLocalRandom.current().nextInt(3) == 0) {
+                crashed.remove(key);
+                treeMap.remove(key);
+            } else {
+                crashed.put(key, i);
+                treeMap.put(key, i);
+            }
+            if (i == 10000) {
+                crashed.checkpoint();
+            }
+        }
+        //不关闭crashed,重新打开时只能依靠快照与已经force的日志
+        DurableBPlusTree<Integer, Integer> reopened = new DurableBPlusTree<>(directory, 8, Serializer.INT, Serializer.INT,
+                DurableBPlusTree.Durability.SYNC);
+        errors += compareDurable("unclosed", reopened, treeMap, maxKey);
+        reopened.put(maxKey, maxKey);
+        treeMap.put(maxKey, maxKey);
+        reopened.close();
+        //长度与校验和之后只写了一部分记录体
+        try (FileChannel channel = FileChannel.open(directory.resolve("tree.wal"), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 64, 1, 2, 3, 4, 0, 7}));
+        }
+        reopened = new DurableBPlusTree<>(directory, 8, Serializer.INT, Serializer.INT, DurableBPlusTree.Durability.SYNC);
+        errors += compareDurable("torn tail", reopened, treeMap, maxKey + 1);
+        reopened.put(maxKey + 1, maxKey + 1);
+        treeMap.put(maxKey + 1, maxKey + 1);
+        reopened.close();
+        reopened = new DurableBPlusTree<>(directory, 8, Serializer.INT, Serializer.INT, DurableBPlusTree.Durability.SYNC);
+        errors += compareDurable("after truncation", reopened, treeMap, maxKey + 2);
+        reopened.close();
+        errors += checkFailedSerializer();
+        System.out.println("checkDurable finished, errors: " + errors);
+    }
+
+    /**
+     * 数据序列化失败(写了一半后抛出异常)或写入的字节数与size不一致时put抛出异常,
+     * 日志丢弃这条记录,之前与之后成功返回的写入在重新打开后都必须可见
+     */
+    private static int checkFailedSerializer() throws IOException {
+        Serializer<Integer> failing = new Serializer<>() {
+            @Override
+            public void write(Integer value, ByteBuffer buffer) {
+                if (value == -1) {
+                    buffer.putShort((short) 1);
+                    throw new IllegalArgumentException("cannot serialize " + value);
+                }
+                Serializer.INT.write(value, buffer);
+            }
+
+            @Override
+            public Integer read(ByteBuffer buffer) {
+                return Serializer.INT.read(buffer);
+            }
+
+            @Override
+            public int size(Integer value) {
+                return value == -2 ? Long.BYTES : Integer.BYTES;
+            }
+        };
+        Path directory = Files.createTempDirectory("durable-bplustree");
+        TreeMap<Integer, Integer> treeMap = new TreeMap<>();
+        int errors = 0;
+        DurableBPlusTree<Integer, Integer> tree = new DurableBPlusTree<>(directory, 8, Serializer.INT, failing,
+                DurableBPlusTree.Durability.SYNC, DurableBPlusTree.DEFAULT_FLUSH_INTERVAL_MILLIS, 0);
+        for (int key = 0; key < 100; key++) {
+            int value = key % 10 == 3 ? -1 : key % 10 == 7 ? -2 : key;
+            try {
+                tree.put(key, value);
+                treeMap.put(key, value);
+                if (value < 0) {
+                    System.out.println("serializer-> error: put " + key + " did not fail");
+                    errors++;
+                }
+            } catch (RuntimeException e) {
+                if (value >= 0) {
+                    System.out.println("serializer-> error: put " + key + " failed: " + e);
+                    errors++;
+                }
+            }
+        }
+        errors += compareDurable("failed serializer", tree, treeMap, 100);
+        tree.close();
+        tree = new DurableBPlusTree<>(directory, 8, Serializer.INT, failing, DurableBPlusTree.Durability.SYNC);
+        errors += compareDurable("failed serializer reopened", tree, treeMap, 100);
+        tree.close();
+        return errors;
+    }
+
+    private static int compareDurable(String stage, DurableBPlusTree<Integer, Integer> tree, TreeMap<Integer, Integer> treeMap, int maxKey) {
+        int errors = 0;
+        for (int key = 0; key < maxKey; key++) {
+            if (!Objects.equals(tree.get(key), treeMap.get(key))) {
+                System.out.println(stage + "-> error: key " + key + " read " + tree.get(key) + ", expected " + treeMap.get(key));
+                errors++;
+            }
+        }
+        if (tree.size() != treeMap.size()) {
+            System.out.println(stage + "-> error: size " + tree.size() + " != " + treeMap.size());
+            errors++;
+        }
+        return errors;
+    }
 }